@@ -0,0 +1,41 @@
+package linda.bench;
+
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Lance les benchmarks JMH de Linda, une fois par nombre de threads.
+ * <p>
+ * Les sources de <code>bench/</code> se compilent avec celles de
+ * <code>src/</code>, <code>jmh-core</code> et
+ * <code>jmh-generator-annprocess</code> (processeur d'annotations) dans le
+ * classpath, puis :
+ * <pre>
+ * java -cp ... linda.bench.BenchMain [options JMH] [benchmarks]
+ * </pre>
+ * Les arguments sont ceux de la ligne de commande JMH (par exemple
+ * <code>SpaceBench -p size=100000</code>). Les nombres de threads sont lus
+ * dans la propriété <code>linda.bench.threads</code> (par défaut
+ * <code>1,4,16</code>) ; les tailles d'espace et arités sont les
+ * <code>@Param</code> de chaque benchmark.
+ *
+ * @author Alexandra Jacquet
+ * @author Florian Vetu
+ */
+public class BenchMain {
+
+    public static void main(String[] args) throws RunnerException, CommandLineOptionException {
+        Options cli = new CommandLineOptions(args);
+        for (String threads : System.getProperty("linda.bench.threads", "1,4,16").split(",")) {
+            Options opts = new OptionsBuilder()
+                    .parent(cli)
+                    .threads(Integer.parseInt(threads.trim()))
+                    .build();
+            new Runner(opts).run();
+        }
+    }
+}
@@ -0,0 +1,137 @@
+package linda.bench;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import linda.Tuple;
+import linda.shm.CentralizedLinda;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * take bloquant. Chaque thread de benchmark joue au ping-pong avec un thread
+ * écho : il écrit <code>[ "ping" id ]</code> puis attend, bloqué dans take,
+ * le <code>[ "pong" id ]</code> que l'écho écrit après avoir pris le ping.
+ * Une mesure couvre donc deux réveils de threads bloqués dans take.
+ * <code>parked</code> threads supplémentaires restent bloqués pendant toute
+ * la mesure sur des templates de la même famille que les ping, qui ne
+ * correspondent à aucun : chaque write doit les écarter.
+ * <p>
+ * Toutes les attentes sont bornées par {@link #TIMEOUT} : un réveil perdu fait
+ * échouer la mesure au lieu de la bloquer.
+ *
+ * @author Alexandra Jacquet
+ * @author Florian Vetu
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BlockingBench {
+
+    /**
+     * Attente maximale d'un take, en millisecondes
+     */
+    static final long TIMEOUT = 5000;
+
+    /**
+     * Nombre de threads bloqués en permanence
+     */
+    @Param({"0", "100", "1000"})
+    public int parked;
+    /**
+     * Nombre de partitions de l'espace
+     */
+    @Param({"1", "16"})
+    public int stripes;
+
+    CentralizedLinda linda;
+
+    @Setup
+    public void setup() throws InterruptedException {
+        this.linda = new CentralizedLinda(this.stripes);
+        for (int i = 0; i < this.parked; i++) {
+            final Tuple template = new Tuple("ping", -1 - i);
+            Thread t = new Thread() {
+                @Override
+                public void run() {
+                    linda.take(template);
+                }
+            };
+            t.setDaemon(true);
+            t.start();
+        }
+        // laisse les threads s'enregistrer
+        Thread.sleep(100 + this.parked);
+    }
+
+    @TearDown
+    public void tearDown() {
+        for (int i = 0; i < this.parked; i++) {
+            this.linda.write(new Tuple("ping", -1 - i));
+        }
+    }
+
+    /**
+     * Le partenaire écho d'un thread de benchmark.
+     */
+    @State(Scope.Thread)
+    public static class Echo {
+
+        private static final AtomicInteger IDS = new AtomicInteger();
+
+        Tuple ping;
+        Tuple pong;
+        private Thread echo;
+        private CentralizedLinda linda;
+        private volatile boolean stopped;
+
+        @Setup
+        public void setup(BlockingBench bench) {
+            int id = IDS.getAndIncrement();
+            this.linda = bench.linda;
+            this.ping = new Tuple("ping", id);
+            this.pong = new Tuple("pong", id);
+            this.echo = new Thread("echo-" + id) {
+                @Override
+                public void run() {
+                    while (!stopped) {
+                        if (linda.take(ping, TIMEOUT) != null && !stopped) {
+                            linda.write(pong);
+                        }
+                    }
+                }
+            };
+            this.echo.setDaemon(true);
+            this.echo.start();
+        }
+
+        @TearDown
+        public void tearDown() throws InterruptedException {
+            this.stopped = true;
+            this.linda.write(this.ping);
+            this.echo.join(1000);
+        }
+    }
+
+    @Benchmark
+    public Tuple pingPong(Echo e) {
+        this.linda.write(e.ping);
+        Tuple pong = this.linda.take(e.pong, TIMEOUT);
+        if (pong == null) {
+            throw new IllegalStateException("pas de pong après " + TIMEOUT + " ms");
+        }
+        return pong;
+    }
+}
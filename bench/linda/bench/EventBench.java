@@ -0,0 +1,93 @@
+package linda.bench;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import linda.Callback;
+import linda.Linda.eventMode;
+import linda.Linda.eventTiming;
+import linda.Tuple;
+import linda.shm.CentralizedLinda;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Évènements : diffusion d'un write à de nombreux abonnés read, et cycle
+ * complet eventRegister puis déclenchement. Les callbacks sont synchrones et
+ * se contentent de compter, seul le coût de la plateforme est mesuré.
+ *
+ * @author Alexandra Jacquet
+ * @author Florian Vetu
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EventBench {
+
+    /**
+     * Nombre d'abonnés read au template <code>[ "evt" ?Integer ]</code>
+     */
+    @Param({"1", "16", "256"})
+    public int subscribers;
+    /**
+     * Nombre de partitions de l'espace
+     */
+    @Param({"1", "16"})
+    public int stripes;
+
+    CentralizedLinda linda;
+    final LongAdder calls = new LongAdder();
+    private Callback counter;
+    private Tuple event;
+    private Tuple eventTemplate;
+    private Tuple once;
+    private Tuple onceTemplate;
+
+    @Setup
+    public void setup() {
+        this.linda = new CentralizedLinda(this.stripes);
+        this.counter = new Callback() {
+            @Override
+            public void call(Tuple t) {
+                calls.increment();
+            }
+        };
+        this.event = new Tuple("evt", 1);
+        this.eventTemplate = new Tuple("evt", Integer.class);
+        this.once = new Tuple("once", 1);
+        this.onceTemplate = new Tuple("once", Integer.class);
+        for (int i = 0; i < this.subscribers; i++) {
+            this.linda.subscribe(eventMode.READ, this.eventTemplate, this.counter);
+        }
+    }
+
+    /**
+     * Un write déclenchant tous les abonnés, puis le tryTake qui l'enlève.
+     */
+    @Benchmark
+    public Tuple fanOut() {
+        this.linda.write(this.event);
+        return this.linda.tryTake(this.eventTemplate);
+    }
+
+    /**
+     * Enregistrement d'un évènement take futur, puis write qui le déclenche
+     * (et qu'il consomme).
+     */
+    @Benchmark
+    public void registerFire() {
+        this.linda.eventRegister(eventMode.TAKE, eventTiming.FUTURE, this.onceTemplate, this.counter);
+        this.linda.write(this.once);
+    }
+}
@@ -0,0 +1,80 @@
+package linda.bench;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+import linda.Linda;
+import linda.Tuple;
+
+/**
+ * Tuples et templates communs aux benchmarks. Un tuple d'arité
+ * <code>a</code> est <code>[ famille n 0 1 ... ]</code> : son premier champ
+ * (la famille) choisit son paquet dans l'index, le second le distingue.
+ *
+ * @author Alexandra Jacquet
+ * @author Florian Vetu
+ */
+final class Fixtures {
+
+    /**
+     * Nombre de familles (premiers champs distincts) de l'espace rempli
+     */
+    static final int FAMILIES = 64;
+
+    private Fixtures() {
+    }
+
+    /**
+     * @return le tuple numéro <code>n</code> de la famille, d'arité
+     * <code>arity</code> (au moins 2)
+     */
+    static Tuple tuple(int family, int n, int arity) {
+        Serializable[] fields = new Serializable[arity];
+        fields[0] = family;
+        fields[1] = n;
+        for (int i = 2; i < arity; i++) {
+            fields[i] = i - 2;
+        }
+        return new Tuple(fields);
+    }
+
+    /**
+     * @return le template des tuples d'une famille : premier champ valeur,
+     * une seule partition et un seul paquet
+     */
+    static Tuple familyTemplate(int family, int arity) {
+        Serializable[] fields = new Serializable[arity];
+        fields[0] = family;
+        for (int i = 1; i < arity; i++) {
+            fields[i] = Integer.class;
+        }
+        return new Tuple(fields);
+    }
+
+    /**
+     * @return le template de tous les tuples d'une arité : premier champ
+     * classe, toutes les partitions et tous les paquets
+     */
+    static Tuple wildcardTemplate(int arity) {
+        Serializable[] fields = new Serializable[arity];
+        for (int i = 0; i < arity; i++) {
+            fields[i] = Integer.class;
+        }
+        return new Tuple(fields);
+    }
+
+    /**
+     * Remplit l'espace avec <code>size</code> tuples répartis sur les
+     * familles, par lots (un appel distant par lot pour un client).
+     */
+    static void fill(Linda linda, int size, int arity) {
+        List<Tuple> batch = new ArrayList<>();
+        for (int n = 0; n < size; n++) {
+            batch.add(tuple(n % FAMILIES, n, arity));
+            if (batch.size() == 1000 || n == size - 1) {
+                linda.writeAll(batch);
+                batch.clear();
+            }
+        }
+    }
+}
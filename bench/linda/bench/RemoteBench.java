@@ -0,0 +1,118 @@
+package linda.bench;
+
+import java.rmi.NoSuchObjectException;
+import java.rmi.RemoteException;
+import java.rmi.registry.LocateRegistry;
+import java.rmi.registry.Registry;
+import java.rmi.server.UnicastRemoteObject;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import linda.Tuple;
+import linda.server.LindaClient;
+import linda.server.LindaServer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Les mêmes opérations que {@link SpaceBench}, par un {@link LindaClient}
+ * relié à un {@link LindaServer} du même processus, par un registre local.
+ * Le port du registre est lu dans la propriété
+ * <code>linda.bench.port</code> (8090 par défaut).
+ *
+ * @author Alexandra Jacquet
+ * @author Florian Vetu
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RemoteBench {
+
+    /**
+     * Nombre de tuples dans l'espace
+     */
+    @Param({"1000", "100000"})
+    public int size;
+    /**
+     * Arité des tuples
+     */
+    @Param({"2", "8"})
+    public int arity;
+
+    private Registry registry;
+    private LindaServer server;
+    LindaClient client;
+
+    @Setup
+    public void setup() throws RemoteException {
+        int port = Integer.getInteger("linda.bench.port", 8090);
+        this.registry = LocateRegistry.createRegistry(port);
+        this.server = new LindaServer();
+        this.registry.rebind("linda", this.server);
+        this.client = new LindaClient("rmi://127.0.0.1:" + port + "/linda");
+        Fixtures.fill(this.client, this.size, this.arity);
+    }
+
+    @TearDown
+    public void tearDown() throws NoSuchObjectException {
+        UnicastRemoteObject.unexportObject(this.server, true);
+        UnicastRemoteObject.unexportObject(this.registry, true);
+    }
+
+    /**
+     * Tuples et templates propres à un thread de benchmark.
+     */
+    @State(Scope.Thread)
+    public static class PerThread {
+
+        private static final AtomicInteger IDS = new AtomicInteger();
+
+        Tuple own;
+        Tuple ownTemplate;
+        Tuple familyTemplate;
+
+        @Setup
+        public void setup(RemoteBench bench) {
+            int id = IDS.getAndIncrement();
+            int family = Fixtures.FAMILIES + id;
+            this.own = Fixtures.tuple(family, 0, bench.arity);
+            this.ownTemplate = Fixtures.familyTemplate(family, bench.arity);
+            this.familyTemplate = Fixtures.familyTemplate(id % Fixtures.FAMILIES, bench.arity);
+        }
+    }
+
+    /**
+     * Deux appels distants : write puis tryTake du même tuple.
+     */
+    @Benchmark
+    public void writeTryTake(PerThread t, Blackhole bh) {
+        this.client.write(t.own);
+        bh.consume(this.client.tryTake(t.ownTemplate));
+    }
+
+    @Benchmark
+    public Tuple tryReadFamily(PerThread t) {
+        return this.client.tryRead(t.familyTemplate);
+    }
+
+    /**
+     * readAll d'une famille : <code>size / 64</code> tuples en une réponse.
+     */
+    @Benchmark
+    public Object readAllFamily(PerThread t) {
+        return this.client.readAll(t.familyTemplate);
+    }
+}
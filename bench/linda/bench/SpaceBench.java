@@ -0,0 +1,149 @@
+package linda.bench;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import linda.Tuple;
+import linda.shm.CentralizedLinda;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Opérations non bloquantes de {@link CentralizedLinda} sur un espace déjà
+ * rempli. Chaque benchmark laisse la taille de l'espace inchangée : un tuple
+ * pris est réécrit, un tuple écrit est repris.
+ *
+ * @author Alexandra Jacquet
+ * @author Florian Vetu
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SpaceBench {
+
+    /**
+     * Nombre de tuples dans l'espace
+     */
+    @Param({"1000", "100000"})
+    public int size;
+    /**
+     * Arité des tuples
+     */
+    @Param({"2", "4", "8"})
+    public int arity;
+    /**
+     * Nombre de partitions de l'espace
+     */
+    @Param({"1", "16"})
+    public int stripes;
+
+    CentralizedLinda linda;
+
+    @Setup
+    public void setup() {
+        this.linda = new CentralizedLinda(this.stripes);
+        Fixtures.fill(this.linda, this.size, this.arity);
+    }
+
+    /**
+     * Tuples et templates propres à un thread de benchmark.
+     */
+    @State(Scope.Thread)
+    public static class PerThread {
+
+        private static final AtomicInteger IDS = new AtomicInteger();
+
+        /**
+         * Un tuple d'une famille absente de l'espace, propre au thread
+         */
+        Tuple own;
+        Tuple ownTemplate;
+        /**
+         * Une famille de l'espace rempli
+         */
+        Tuple familyTemplate;
+        Tuple wildcardTemplate;
+        Tuple missTemplate;
+
+        @Setup
+        public void setup(SpaceBench space) {
+            int id = IDS.getAndIncrement();
+            int family = Fixtures.FAMILIES + id;
+            this.own = Fixtures.tuple(family, 0, space.arity);
+            this.ownTemplate = Fixtures.familyTemplate(family, space.arity);
+            this.familyTemplate = Fixtures.familyTemplate(id % Fixtures.FAMILIES, space.arity);
+            this.wildcardTemplate = Fixtures.wildcardTemplate(space.arity);
+            this.missTemplate = Fixtures.familyTemplate(-1 - id, space.arity);
+        }
+    }
+
+    /**
+     * write suivi du tryTake du même tuple, dans une famille propre au
+     * thread.
+     */
+    @Benchmark
+    public void writeTryTake(PerThread t, Blackhole bh) {
+        this.linda.write(t.own);
+        bh.consume(this.linda.tryTake(t.ownTemplate));
+    }
+
+    /**
+     * tryTake dans une famille peuplée, puis réécriture du tuple pris.
+     */
+    @Benchmark
+    public void tryTakeFamily(PerThread t, Blackhole bh) {
+        Tuple taken = this.linda.tryTake(t.familyTemplate);
+        if (taken != null) {
+            this.linda.write(taken);
+        }
+        bh.consume(taken);
+    }
+
+    /**
+     * tryTake d'un template à premier champ classe, puis réécriture.
+     */
+    @Benchmark
+    public void tryTakeWildcard(PerThread t, Blackhole bh) {
+        Tuple taken = this.linda.tryTake(t.wildcardTemplate);
+        if (taken != null) {
+            this.linda.write(taken);
+        }
+        bh.consume(taken);
+    }
+
+    /**
+     * tryRead d'une famille absente : coût d'un échec.
+     */
+    @Benchmark
+    public Tuple tryReadMiss(PerThread t) {
+        return this.linda.tryRead(t.missTemplate);
+    }
+
+    /**
+     * readAll d'une famille : <code>size / 64</code> tuples.
+     */
+    @Benchmark
+    public Object readAllFamily(PerThread t) {
+        return this.linda.readAll(t.familyTemplate);
+    }
+
+    /**
+     * readAll de tout l'espace.
+     */
+    @Benchmark
+    public Object readAllWildcard(PerThread t) {
+        return this.linda.readAll(t.wildcardTemplate);
+    }
+}
@@ -0,0 +1,120 @@
+package linda.bench;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.LinkedList;
+import java.util.concurrent.TimeUnit;
+import linda.CompactTuple;
+import linda.Tuple;
+import linda.TupleCodec;
+import linda.shm.Matcher;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Opérations sur un tuple isolé : correspondance avec un template, copie
+ * profonde et encodage.
+ *
+ * @author Alexandra Jacquet
+ * @author Florian Vetu
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TupleBench {
+
+    /**
+     * Arité du tuple
+     */
+    @Param({"2", "4", "8"})
+    public int arity;
+
+    private Tuple tuple;
+    private CompactTuple compact;
+    /**
+     * Template mêlant valeurs et classes, qui correspond au tuple
+     */
+    private Tuple template;
+    private Matcher matcher;
+    private byte[] encoded;
+    private byte[] serialized;
+
+    @Setup
+    public void setup() throws IOException {
+        this.tuple = Fixtures.tuple(7, 42, this.arity);
+        this.compact = CompactTuple.of(this.tuple);
+        this.template = Fixtures.familyTemplate(7, this.arity);
+        this.matcher = Matcher.compile(this.template);
+        this.encoded = TupleCodec.encode(this.tuple);
+        this.serialized = serialize(this.tuple);
+    }
+
+    @Benchmark
+    public boolean matches() {
+        return this.tuple.matches(this.template);
+    }
+
+    @Benchmark
+    public boolean compiledMatches() {
+        return this.matcher.matches(this.compact);
+    }
+
+    @Benchmark
+    public Matcher compile() {
+        return Matcher.compile(this.template);
+    }
+
+    @Benchmark
+    public Tuple deepclone() {
+        return this.tuple.deepclone();
+    }
+
+    @Benchmark
+    public byte[] encode() throws IOException {
+        return TupleCodec.encode(this.tuple);
+    }
+
+    @Benchmark
+    public Tuple decode() throws IOException {
+        return TupleCodec.decode(this.encoded);
+    }
+
+    /**
+     * Sérialisation Java du tuple vu comme une LinkedList, pour comparaison
+     * avec l'encodage.
+     */
+    @Benchmark
+    public byte[] serialize() throws IOException {
+        return serialize(this.tuple);
+    }
+
+    @Benchmark
+    public Object deserialize() throws IOException, ClassNotFoundException {
+        return new ObjectInputStream(new ByteArrayInputStream(this.serialized)).readObject();
+    }
+
+    private static byte[] serialize(Tuple t) throws IOException {
+        ByteArrayOutputStream buf = new ByteArrayOutputStream();
+        ObjectOutputStream out = new ObjectOutputStream(buf);
+        // une LinkedList n'est pas remplacée par TupleCodec
+        out.writeObject(new LinkedList<Serializable>(t));
+        out.close();
+        return buf.toByteArray();
+    }
+}
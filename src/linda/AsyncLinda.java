@@ -0,0 +1,30 @@
+package linda;
+
+import java.util.concurrent.CompletableFuture;
+
+/** Non-blocking extension of the Linda interface.
+ * A pending operation costs a registered event, not a parked thread.
+ * Cancelling a returned future (see {@link CompletableFuture#cancel(boolean)}) deregisters its event;
+ * in take mode, a tuple that races with the cancellation is put back in the tuplespace.
+ */
+public interface AsyncLinda extends Linda {
+
+	/** Returns a future completed with a tuple matching the template, removed from the tuplespace.
+	 * The future may be already completed if a matching tuple is present. */
+	public CompletableFuture<Tuple> takeAsync(Tuple template);
+
+	/** Returns a future completed with a tuple matching the template, left in the tuplespace.
+	 * The future may be already completed if a matching tuple is present. */
+	public CompletableFuture<Tuple> readAsync(Tuple template);
+
+	/** Future-based version of {@link Linda#eventRegister}: the returned future is completed
+	 * when the event fires, instead of calling a callback.
+	 *
+	 * @param mode read or take mode.
+	 * @param timing (potentially) immediate or only future firing.
+	 * @param template the filtering template.
+	 * @return a future completed with the found tuple.
+	 */
+	public CompletableFuture<Tuple> eventAsync(eventMode mode, eventTiming timing, Tuple template);
+
+}
@@ -1,23 +1,32 @@
 package linda;
 
+import java.util.concurrent.Executor;
+
 /** The class helps to transform a callback to behave asynchronously.
  * The callback fires exactly once.
  * The callback fires asynchronously with other threads and may do whatever it wants (it may block).
+ * It runs on the executor given at construction, by default {@link Dispatcher#callbacks()}.
  */
 public class AsynchronousCallback implements Callback {
 	
 	private Callback cb;
+	private Executor executor;
+
+	public AsynchronousCallback (Callback cb) { this(cb, Dispatcher.callbacks()); }
 
-	public AsynchronousCallback (Callback cb) { this.cb = cb; }
+	public AsynchronousCallback (Callback cb, Executor executor) {
+		this.cb = cb;
+		this.executor = executor;
+	}
 	
 	/** Asynchronous call: the associated callback is concurrently run and this one immediately returns false.
 	 * @return false always
 	 * */
 	public void call(final Tuple t) {
-		new Thread() {
+		executor.execute(new Runnable() {
 			public void run() {
 				cb.call(t); // ignore return value
 			}
-		}.start();
+		});
 	}
 }
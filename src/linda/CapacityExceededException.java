@@ -0,0 +1,29 @@
+package linda;
+
+/** Thrown by a write when the tuplespace, or the family of the written tuple, is full
+ * and the capacity policy rejects the tuple. The tuple has not been written.
+ * For a writeAll, the tuples before the rejected one have been written, and those after it have not:
+ * see {@link #getWritten()}.
+ * Being unchecked, it reaches remote clients as is. */
+@SuppressWarnings("serial")
+public class CapacityExceededException extends IllegalStateException {
+
+	private final int written;
+
+	public CapacityExceededException(String s) {
+		this(s, 0);
+	}
+
+	/** @param written the number of tuples of the batch written before the rejected one */
+	public CapacityExceededException(String s, int written) {
+		super(s);
+		this.written = written;
+	}
+
+	/** Returns the number of tuples of a writeAll batch written before the rejected one, 0 for a single write.
+	 * The rejected tuple is the one at this index in the batch. */
+	public int getWritten() {
+		return this.written;
+	}
+
+}
@@ -0,0 +1,139 @@
+package linda;
+
+import java.io.ObjectStreamException;
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.Iterator;
+
+/** Immutable, array-backed tuple, used to store and ship tuples internally.
+ * A {@link Tuple} is a linked list: one node per component, and a pointer chase per access.
+ * A compact tuple holds its components in a single array, with its hash computed once.
+ * Nested tuples are copied on the way in and on the way out, so that the compact tuple stays immutable;
+ * other components are shared.
+ * It has the same hash code as an equal {@link Tuple}, but is never equal to one.
+ */
+public final class CompactTuple implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	private final Serializable[] fields;
+	private final int hash;
+	/** Expiry date on the {@link System#nanoTime()} scale, 0 if the tuple never expires.
+	 * Local to the JVM, hence not serialized. */
+	private final transient long deadline;
+
+	/** Takes ownership of the array. */
+	CompactTuple(Serializable[] fields) {
+		this.fields = fields;
+		this.hash = Arrays.hashCode(fields);
+		this.deadline = 0;
+	}
+
+	private CompactTuple(CompactTuple t, long deadline) {
+		this.fields = t.fields;
+		this.hash = t.hash;
+		this.deadline = deadline;
+	}
+
+	/** Returns a compact copy of a tuple. Nested tuples are copied, recursively. */
+	public static CompactTuple of(Tuple t) {
+		return new CompactTuple(copy(t.toArray(new Serializable[t.size()])));
+	}
+
+	/** Replaces, in place, the nested tuples of an array by copies of their own, and returns the array. */
+	private static Serializable[] copy(Serializable[] fields) {
+		for (int i = 0; i < fields.length; i++) {
+			fields[i] = copy(fields[i]);
+		}
+		return fields;
+	}
+
+	/** Returns a copy of a nested tuple, recursively, or the component itself if it is not a tuple. */
+	private static Serializable copy(Serializable field) {
+		if (!(field instanceof Tuple)) {
+			return field;
+		}
+		Tuple nested = (Tuple) field;
+		return new Tuple(copy(nested.toArray(new Serializable[nested.size()])));
+	}
+
+	/** Returns a distinct tuple with the same components that expires at the given date.
+	 * Equality ignores the deadline: the new tuple equals this one.
+	 * @param deadline the expiry date on the {@link System#nanoTime()} scale, 0 for none.
+	 */
+	public CompactTuple withDeadline(long deadline) {
+		return new CompactTuple(this, deadline);
+	}
+
+	/** Returns the expiry date on the {@link System#nanoTime()} scale, 0 if the tuple never expires. */
+	public long getDeadline() {
+		return this.deadline;
+	}
+
+	/** Returns true if the tuple has a deadline and it has passed. */
+	public boolean isExpired() {
+		return this.deadline != 0 && System.nanoTime() - this.deadline >= 0;
+	}
+
+	/** Returns a new (mutable) Tuple with the same components. Nested tuples are copied. */
+	public Tuple toTuple() {
+		return new Tuple(copy(this.fields.clone()));
+	}
+
+	/** Returns the number of components. */
+	public int size() {
+		return this.fields.length;
+	}
+
+	public boolean isEmpty() {
+		return this.fields.length == 0;
+	}
+
+	/** Returns the i-th component, a copy if it is a nested tuple. */
+	public Serializable get(int i) {
+		return copy(this.fields[i]);
+	}
+
+	/** Returns the i-th component itself, without copying a nested tuple.
+	 * For the tuplespace internals (matching, indexing, encoding), which only read it:
+	 * a nested tuple returned by this method must never be modified. Use {@link #get(int)} otherwise.
+	 */
+	public Serializable field(int i) {
+		return this.fields[i];
+	}
+
+	/** Returns true if this tuple matches the given template, see {@link Tuple#matches(Tuple)}. */
+	public boolean matches(Tuple template) {
+		if (this.fields.length != template.size())
+			return false;
+		Iterator<Serializable> itmotif = template.iterator();
+		for (Serializable f : this.fields) {
+			if (! Tuple.matches(f, itmotif.next()))
+				return false;
+		}
+		return true;
+	}
+
+	public boolean equals(Object o) {
+		if (this == o)
+			return true;
+		if (! (o instanceof CompactTuple))
+			return false;
+		CompactTuple other = (CompactTuple) o;
+		return this.hash == other.hash && Arrays.equals(this.fields, other.fields);
+	}
+
+	public int hashCode() {
+		return this.hash;
+	}
+
+	/** Returns the same representation as the equivalent {@link Tuple}. */
+	public String toString() {
+		return this.toTuple().toString();
+	}
+
+	/** Serializes with {@link TupleCodec}. */
+	private Object writeReplace() throws ObjectStreamException {
+		return new TupleCodec.CompactWire(this);
+	}
+}
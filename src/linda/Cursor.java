@@ -0,0 +1,19 @@
+package linda;
+
+import java.io.Closeable;
+import java.util.Iterator;
+
+/** Iterator over the result of a streaming readAll or takeAll (see {@link Linda#readAllCursor(Tuple)}).
+ * Tuples are delivered incrementally, a bounded number at a time, instead of in one materialized collection.
+ * A cursor which is not iterated to its end should be closed, to release its resources
+ * (e.g. its state on a remote server).
+ * A remote cursor does not end silently on failure: opening it, hasNext and next throw an
+ * {@link java.io.UncheckedIOException} if the server cannot be reached, and an
+ * {@link IllegalStateException} if the server has closed the cursor after it was left idle. */
+public interface Cursor extends Iterator<Tuple>, Closeable {
+
+	/** Releases the resources of the cursor; hasNext then returns false. Idempotent. */
+	@Override
+	public void close();
+
+}
@@ -0,0 +1,140 @@
+package linda;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/** Executor used to run asynchronous callbacks ({@link AsynchronousCallback}).
+ * The policy is read from the system properties <code>linda.dispatch</code> (thread, pool or virtual; default thread)
+ * and <code>linda.dispatch.threads</code> (pool size; default the number of processors),
+ * or set programmatically with {@link #setPolicy(Policy, int)} before the first use.
+ * An invalid property value is logged and the default is used.
+ */
+public final class Dispatcher {
+
+	/** Execution policies. */
+	public enum Policy {
+		/** A new platform thread per task (historical behaviour). */
+		THREAD,
+		/** A bounded pool of platform threads; extra tasks are queued. */
+		POOL,
+		/** A virtual thread per task when the JVM provides them (Java 21+), otherwise as POOL. */
+		VIRTUAL
+	};
+
+	private static Policy policy = policyProperty();
+	private static int poolSize = poolSizeProperty();
+	private static Executor callbacks;
+	private static ExecutorService virtual;
+	private static boolean virtualChecked;
+
+	private Dispatcher() {}
+
+	/** Sets the execution policy. An executor already handed out is not affected.
+	 * @param p the policy.
+	 * @param threads the pool size for the POOL policy (and VIRTUAL fallback).
+	 */
+	public static synchronized void setPolicy(Policy p, int threads) {
+		if (threads < 1) {
+			throw new IllegalArgumentException("threads < 1 : " + threads);
+		}
+		policy = p;
+		poolSize = threads;
+		callbacks = null;
+	}
+
+	/** Returns the current policy. */
+	public static synchronized Policy getPolicy() {
+		return policy;
+	}
+
+	/** Returns the executor running asynchronous callbacks. */
+	public static synchronized Executor callbacks() {
+		if (callbacks == null) {
+			if (policy == Policy.THREAD) {
+				callbacks = threadPerTask();
+			} else if (policy == Policy.VIRTUAL && virtualThreads() != null) {
+				callbacks = virtualThreads();
+			} else {
+				callbacks = pool(poolSize, "linda-callback-");
+			}
+		}
+		return callbacks;
+	}
+
+	/** Reads <code>linda.dispatch</code>; logs an unknown value and falls back to THREAD. */
+	private static Policy policyProperty() {
+		String value = System.getProperty("linda.dispatch", "thread");
+		try {
+			return Policy.valueOf(value.trim().toUpperCase());
+		} catch (IllegalArgumentException ex) {
+			Logger.getLogger(Dispatcher.class.getName()).log(Level.WARNING, "invalid linda.dispatch: {0}, using thread", value);
+			return Policy.THREAD;
+		}
+	}
+
+	/** Reads <code>linda.dispatch.threads</code>; logs a value which is not a number above 0 and falls back to the number of processors. */
+	private static int poolSizeProperty() {
+		int processors = Runtime.getRuntime().availableProcessors();
+		String value = System.getProperty("linda.dispatch.threads");
+		if (value == null) {
+			return processors;
+		}
+		try {
+			int threads = Integer.parseInt(value.trim());
+			if (threads >= 1) {
+				return threads;
+			}
+		} catch (NumberFormatException ex) {
+			// logged below
+		}
+		Logger.getLogger(Dispatcher.class.getName()).log(Level.WARNING, "invalid linda.dispatch.threads: {0}, using {1}", new Object[] { value, processors });
+		return processors;
+	}
+
+	private static Executor threadPerTask() {
+		return new Executor() {
+			public void execute(Runnable r) {
+				Thread t = new Thread(r);
+				// not inherited from the caller, e.g. a daemon RMI thread delivering an event:
+				// a pending callback keeps the JVM alive, as when it was started by the application
+				t.setDaemon(false);
+				t.start();
+			}
+		};
+	}
+
+	private static Executor pool(int threads, final String name) {
+		final AtomicInteger count = new AtomicInteger();
+		ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+				new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+					public Thread newThread(Runnable r) {
+						Thread t = new Thread(r, name + count.incrementAndGet());
+						t.setDaemon(true);
+						return t;
+					}
+				});
+		pool.allowCoreThreadTimeOut(true);
+		return pool;
+	}
+
+	/** Returns a virtual-thread-per-task executor, or null if the JVM has none. */
+	private static ExecutorService virtualThreads() {
+		if (!virtualChecked) {
+			virtualChecked = true;
+			try {
+				virtual = (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+			} catch (Exception e) {
+				virtual = null; // before Java 21
+			}
+		}
+		return virtual;
+	}
+}
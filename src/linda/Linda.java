@@ -7,6 +7,10 @@ public interface Linda {
 	
 	/** Adds a tuple t to the tuplespace. */
 	public void write(Tuple t);
+
+	/** Adds a tuple t to the tuplespace for <code>lease</code> milliseconds (a positive duration).
+	 * Once the lease has expired, the tuple is removed and is never returned by any operation. */
+	public void write(Tuple t, long lease);
 	
 	/** Returns a tuple matching the template and removes it from the tuplespace.
 	 * Blocks if no corresponding tuple is found. */
@@ -16,6 +20,16 @@ public interface Linda {
 	 * Blocks if no corresponding tuple is found. */
 	public Tuple read(Tuple template);
 
+	/** Returns a tuple matching the template and removes it from the tuplespace.
+	 * Blocks at most <code>timeout</code> milliseconds; returns null if none found in time.
+	 * A waiter that times out leaves nothing behind in the tuplespace. */
+	public Tuple take(Tuple template, long timeout);
+
+	/** Returns a tuple matching the template and leaves it in the tuplespace.
+	 * Blocks at most <code>timeout</code> milliseconds; returns null if none found in time.
+	 * A waiter that times out leaves nothing behind in the tuplespace. */
+	public Tuple read(Tuple template, long timeout);
+
 	/** Returns a tuple matching the template and removes it from the tuplespace.
 	 * Returns null if none found. */
 	public Tuple tryTake(Tuple template);
@@ -38,6 +52,31 @@ public interface Linda {
 	 */
 	public Collection<Tuple> readAll(Tuple template);
 
+	/** Streaming version of {@link #readAll(Tuple)}: returns a cursor over the tuples matching the template,
+	 * which are left in the tuplespace. Never blocks. As for readAll, tuples written or removed during the
+	 * iteration may or may not be returned. */
+	public Cursor readAllCursor(Tuple template);
+
+	/** Streaming version of {@link #takeAll(Tuple)}: returns a cursor over the tuples matching the template.
+	 * Tuples are removed from the tuplespace as the cursor delivers them: the tuples not yet delivered
+	 * when the cursor is closed stay in the tuplespace (or are written back if they had already been
+	 * taken ahead). Never blocks. */
+	public Cursor takeAllCursor(Tuple template);
+
+	/** Adds all the tuples of the collection to the tuplespace, as a sequence of write in iteration order.
+	 * Implementations may apply the whole batch at once (e.g. in a single remote call). */
+	public void writeAll(Collection<Tuple> ts);
+
+	/** Returns at most n tuples matching the template and removes them from the tuplespace.
+	 * Returns an empty collection if none found (never blocks). */
+	public Collection<Tuple> tryTakeN(Tuple template, int n);
+
+	/** Returns n tuples matching the template and removes them from the tuplespace.
+	 * Blocks until n corresponding tuples have been found.
+	 * The tuples are removed as they are found, not all at once: concurrent takeN on
+	 * overlapping templates may each hold part of the tuples and starve each other. */
+	public Collection<Tuple> takeN(Tuple template, int n);
+
     public enum eventMode { READ, TAKE };
     public enum eventTiming { IMMEDIATE, FUTURE };
     
@@ -56,6 +95,21 @@ public interface Linda {
 	 */
     public void eventRegister(eventMode mode, eventTiming timing, Tuple template, Callback callback);	
 	
+	/** Subscribes a callback which will be called for every written tuple matching the template,
+	 * until the subscription is cancelled. Unlike {@link #eventRegister}, no re-registration is needed
+	 * and no matching write is missed between two calls.
+	 * If the mode is Take, each delivered tuple is removed from the tuplespace; several take subscriptions
+	 * and take waiters on the same tuples are served in turn.
+	 * Only tuples written after the subscription are delivered. The callback may be called concurrently
+	 * by concurrent writers and, as for eventRegister, should never block.
+	 *
+	 * @param mode read or take mode.
+	 * @param template the filtering template.
+	 * @param callback the callback to call for each matching tuple.
+	 * @return the subscription handle, to cancel it.
+	 */
+	public Subscription subscribe(eventMode mode, Tuple template, Callback callback);
+
 	/** To debug, prints any information it wants (e.g. the tuples in tuplespace or the registered callbacks), prefixed by <code>prefix</code. */
 	public void debug(String prefix);
 
@@ -0,0 +1,9 @@
+package linda;
+
+/** Handle on a persistent subscription (see {@link Linda#subscribe}). */
+public interface Subscription {
+
+	/** Cancels the subscription: its callback is not called for tuples written afterwards.
+	 * Cancelling twice has no effect. */
+	void cancel();
+}
@@ -0,0 +1,193 @@
+package linda;
+
+import java.io.PrintStream;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/** Level-gated, asynchronous tracing of tuplespace operations (linda.shm and linda.server).
+ * A disabled level costs one volatile read: nothing is allocated or formatted.
+ * An enabled event is snapshotted (tuples are copied, collections are reduced to their size),
+ * queued, and formatted and printed by a background daemon thread; when the queue is full, events are dropped and counted.
+ * Events may be sampled per operation: with a rate of n, about one event in n is kept.
+ *
+ * Configuration: system properties <code>linda.trace</code> (off, error, info, debug or trace; default off),
+ * <code>linda.trace.sample</code> (default rate, default 1) and <code>linda.trace.sample.</code><i>op</i> (rate of one operation),
+ * or the setters below. An invalid <code>linda.trace</code> value is logged and tracing stays off.
+ */
+public final class Trace {
+
+	/** Trace levels, from the least to the most verbose. */
+	public enum Level {
+		OFF, ERROR, INFO, DEBUG, TRACE
+	};
+
+	private static final int CAPACITY = 8192;
+
+	private static volatile int threshold = levelProperty().ordinal();
+	private static final int defaultRate = Integer.getInteger("linda.trace.sample", 1);
+	private static final Map<String, Integer> rates = new ConcurrentHashMap<String, Integer>();
+	private static final AtomicLong dropped = new AtomicLong();
+	private static volatile PrintStream output = System.out;
+	private static volatile BlockingQueue<Record> queue;
+
+	private Trace() {}
+
+	/** Returns true if events of this level are recorded. Use it to guard costly arguments. */
+	public static boolean isEnabled(Level level) {
+		return level.ordinal() <= threshold;
+	}
+
+	public static void setLevel(Level level) {
+		threshold = level.ordinal();
+	}
+
+	public static Level getLevel() {
+		return Level.values()[threshold];
+	}
+
+	/** Keeps about one event in <code>oneIn</code> for the operation <code>op</code>. */
+	public static void setSampling(String op, int oneIn) {
+		rates.put(op, Math.max(1, oneIn));
+	}
+
+	/** Sets the stream the background thread prints to (default System.out). */
+	public static void setOutput(PrintStream out) {
+		output = out;
+	}
+
+	/** Returns the number of events dropped because the queue was full. */
+	public static long dropped() {
+		return dropped.get();
+	}
+
+	/** Records an event.
+	 * @param level the level of the event.
+	 * @param op the operation, e.g. "readAll".
+	 * @param arg its argument: a tuple, a collection (only its size is kept) or any object.
+	 */
+	public static void event(Level level, String op, Object arg) {
+		if (isEnabled(level) && sampled(op)) {
+			record(level, op, new Object[] { snapshot(arg) });
+		}
+	}
+
+	/** Records an event with two arguments, see {@link #event(Level, String, Object)}. */
+	public static void event(Level level, String op, Object arg1, Object arg2) {
+		if (isEnabled(level) && sampled(op)) {
+			record(level, op, new Object[] { snapshot(arg1), snapshot(arg2) });
+		}
+	}
+
+	/** Reads <code>linda.trace</code>; logs an unknown value and falls back to OFF. */
+	private static Level levelProperty() {
+		String value = System.getProperty("linda.trace", "off");
+		try {
+			return Level.valueOf(value.trim().toUpperCase());
+		} catch (IllegalArgumentException ex) {
+			java.util.logging.Logger.getLogger(Trace.class.getName()).log(java.util.logging.Level.WARNING, "invalid linda.trace: {0}, using off", value);
+			return Level.OFF;
+		}
+	}
+
+	private static boolean sampled(String op) {
+		Integer rate = rates.get(op);
+		if (rate == null) {
+			rate = Integer.getInteger("linda.trace.sample." + op, defaultRate);
+			rates.put(op, rate);
+		}
+		return rate <= 1 || ThreadLocalRandom.current().nextInt(rate) == 0;
+	}
+
+	/** Copies what the caller may still modify, before it leaves the calling thread. */
+	private static Object snapshot(Object arg) {
+		if (arg instanceof Tuple) {
+			return CompactTuple.of((Tuple) arg);
+		}
+		if (arg instanceof Collection) {
+			return ((Collection<?>) arg).size() + " tuples";
+		}
+		return arg;
+	}
+
+	private static void record(Level level, String op, Object[] args) {
+		Record r = new Record(level, op, args);
+		BlockingQueue<Record> q = queue;
+		if (q == null) {
+			q = start();
+		}
+		if (!q.offer(r)) {
+			dropped.incrementAndGet();
+		}
+	}
+
+	/** Creates the queue and its printer thread, on the first recorded event. */
+	private static synchronized BlockingQueue<Record> start() {
+		if (queue == null) {
+			queue = new ArrayBlockingQueue<Record>(CAPACITY);
+			final Thread printer = new Thread("linda-trace") {
+				public void run() {
+					while (true) {
+						try {
+							print(queue.take());
+						} catch (InterruptedException e) {
+							// JVM shutdown: print what is left
+							List<Record> rest = new ArrayList<Record>();
+							queue.drainTo(rest);
+							for (Record r : rest) {
+								print(r);
+							}
+							return;
+						}
+					}
+				}
+			};
+			printer.setDaemon(true);
+			printer.start();
+			Runtime.getRuntime().addShutdownHook(new Thread() {
+				public void run() {
+					printer.interrupt();
+					try {
+						printer.join(1000);
+					} catch (InterruptedException e) {
+						// give up
+					}
+				}
+			});
+		}
+		return queue;
+	}
+
+	private static void print(Record r) {
+		StringBuilder sb = new StringBuilder();
+		sb.append(new SimpleDateFormat("HH:mm:ss.SSS").format(new Date(r.time)));
+		sb.append(' ').append(r.level).append(" [").append(r.thread).append("] ").append(r.op);
+		for (Object arg : r.args) {
+			sb.append(' ').append(arg);
+		}
+		output.println(sb);
+	}
+
+	/** An event waiting to be printed. */
+	private static final class Record {
+		final long time = System.currentTimeMillis();
+		final String thread = Thread.currentThread().getName();
+		final Level level;
+		final String op;
+		final Object[] args;
+
+		Record(Level level, String op, Object[] args) {
+			this.level = level;
+			this.op = op;
+			this.args = args;
+		}
+	}
+}
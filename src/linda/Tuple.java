@@ -1,8 +1,5 @@
 package linda;
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
+import java.io.ObjectStreamException;
 import java.io.Serializable;
 import java.util.Iterator;
 import java.util.LinkedList;
@@ -23,7 +20,10 @@ public class Tuple extends LinkedList<Serializable> implements Serializable {
 		}
 	}
 
-	private static boolean matches(Serializable thiscomponent, Serializable templatecomponent) {
+	/** Returns true if the component <code>thiscomponent</code> matches the template component <code>templatecomponent</code>.
+	 * See {@link #matches(Tuple)} for the matching rules.
+	 */
+	public static boolean matches(Serializable thiscomponent, Serializable templatecomponent) {
 		if (templatecomponent instanceof Tuple) {
 			if (! (thiscomponent instanceof Tuple))
 				return false;
@@ -79,21 +79,25 @@ public class Tuple extends LinkedList<Serializable> implements Serializable {
      * @return a deep copy of this object
      */
    /* Les éléments types sont représentés par des instances de Class, qui n'est pas cloneable.
-    * Le plus simple de passer par une sérialisation/desérialisation ce qui marche pour toutes les classes qui implantent serializable.
+    * Le plus simple de passer par un encodage/décodage (TupleCodec), qui retombe sur la sérialisation
+    * pour les classes qu'il ne connaît pas, ce qui marche pour toutes les classes qui implantent serializable.
     */
    public Tuple deepclone() {
        Tuple copy = null;
        try {
-           ByteArrayOutputStream buf = new ByteArrayOutputStream();
-           ObjectOutputStream out = new ObjectOutputStream (buf);
-           out.writeObject (this);
-           ObjectInputStream in = new ObjectInputStream (new ByteArrayInputStream (buf.toByteArray()));
-           copy = (Tuple) in.readObject();
+           copy = TupleCodec.decode(TupleCodec.encode(this));
        } catch (Exception e) {
            e.printStackTrace();
        }
        return copy;
    }
+
+   /** Serializes a tuple with {@link TupleCodec} rather than as a LinkedList.
+    * Subclasses keep the default serialization.
+    */
+   protected Object writeReplace() throws ObjectStreamException {
+       return getClass() == Tuple.class ? new TupleCodec.Wire(this) : this;
+   }
    
    /** Returns a string representation of this tuple.
     * @return a string representation of this tuple.
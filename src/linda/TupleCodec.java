@@ -0,0 +1,306 @@
+package linda;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.Externalizable;
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutput;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamException;
+import java.io.Serializable;
+import java.io.StreamCorruptedException;
+import java.nio.charset.StandardCharsets;
+
+/** Compact binary encoding of tuples.
+ * The component types known by {@link Tuple#valueOf(String)} (Integer, Boolean, String, Character,
+ * class templates and nested tuples) are written as a one-byte tag followed by a minimal payload;
+ * any other Serializable component falls back to Java serialization.
+ * A tuple is encoded as its arity followed by its components.
+ *
+ * Java serialization of a {@link Tuple} (RMI, ObjectOutputStream) goes through this codec,
+ * see {@link Tuple#writeReplace()}.
+ */
+public final class TupleCodec {
+
+	private static final byte NULL = 0;
+	private static final byte INT = 1;
+	private static final byte TRUE = 2;
+	private static final byte FALSE = 3;
+	private static final byte STRING = 4;
+	private static final byte CHAR = 5;
+	private static final byte TUPLE = 6;
+	private static final byte CLASS = 7;
+	private static final byte OBJECT = 8;
+	/** Tags from KNOWN stand for the classes of KNOWN_CLASSES, without their name. */
+	private static final byte KNOWN = 16;
+
+	/** Classes often used as templates. Append only: the index is part of the format. */
+	private static final Class<?>[] KNOWN_CLASSES = {
+		Integer.class, String.class, Boolean.class, Character.class, Tuple.class, Object.class, Serializable.class
+	};
+
+	private TupleCodec() {}
+
+	/** Returns the encoding of a tuple.
+	 * @param t the tuple.
+	 * @return its encoding.
+	 * @throws IOException if a fallback component cannot be serialized.
+	 */
+	public static byte[] encode(Tuple t) throws IOException {
+		ByteArrayOutputStream buf = new ByteArrayOutputStream(32);
+		encode(t, new DataOutputStream(buf));
+		return buf.toByteArray();
+	}
+
+	/** Decodes a tuple encoded by {@link #encode(Tuple)}.
+	 * @param bytes the encoding.
+	 * @return the tuple.
+	 * @throws IOException if the encoding is corrupted or refers to an unknown class.
+	 */
+	public static Tuple decode(byte[] bytes) throws IOException {
+		return decode(new DataInputStream(new ByteArrayInputStream(bytes)));
+	}
+
+	/** Writes the encoding of a tuple.
+	 * @param t the tuple.
+	 * @param out the output.
+	 * @throws IOException if a fallback component cannot be serialized.
+	 */
+	public static void encode(Tuple t, DataOutput out) throws IOException {
+		writeVarInt(out, t.size());
+		for (Serializable c : t) {
+			write(c, out);
+		}
+	}
+
+	/** Reads a tuple written by {@link #encode(Tuple, DataOutput)}.
+	 * @param in the input.
+	 * @return the tuple.
+	 * @throws IOException if the encoding is corrupted or refers to an unknown class.
+	 */
+	public static Tuple decode(DataInput in) throws IOException {
+		int size = readVarInt(in);
+		if (size < 0) {
+			throw new StreamCorruptedException("negative arity " + size);
+		}
+		Tuple t = new Tuple();
+		for (int i = 0; i < size; i++) {
+			t.add(read(in));
+		}
+		return t;
+	}
+
+	/** Writes the encoding of a compact tuple, identical to the one of the equivalent {@link Tuple}.
+	 * @param t the tuple.
+	 * @param out the output.
+	 * @throws IOException if a fallback component cannot be serialized.
+	 */
+	public static void encode(CompactTuple t, DataOutput out) throws IOException {
+		writeVarInt(out, t.size());
+		for (int i = 0; i < t.size(); i++) {
+			write(t.field(i), out);
+		}
+	}
+
+	/** Reads a tuple written by one of the <code>encode</code> methods as a compact tuple,
+	 * without building a linked list.
+	 * @param in the input.
+	 * @return the tuple.
+	 * @throws IOException if the encoding is corrupted or refers to an unknown class.
+	 */
+	public static CompactTuple decodeCompact(DataInput in) throws IOException {
+		int size = readVarInt(in);
+		if (size < 0) {
+			throw new StreamCorruptedException("negative arity " + size);
+		}
+		Serializable[] fields = new Serializable[size];
+		for (int i = 0; i < size; i++) {
+			fields[i] = read(in);
+		}
+		return new CompactTuple(fields);
+	}
+
+	private static void write(Serializable c, DataOutput out) throws IOException {
+		if (c == null) {
+			out.writeByte(NULL);
+		} else if (c instanceof Integer) {
+			out.writeByte(INT);
+			int v = (Integer) c;
+			writeVarInt(out, (v << 1) ^ (v >> 31)); // zigzag: small negatives stay short
+		} else if (c instanceof Boolean) {
+			out.writeByte((Boolean) c ? TRUE : FALSE);
+		} else if (c instanceof String) {
+			out.writeByte(STRING);
+			byte[] utf8 = ((String) c).getBytes(StandardCharsets.UTF_8);
+			writeVarInt(out, utf8.length);
+			out.write(utf8);
+		} else if (c instanceof Character) {
+			out.writeByte(CHAR);
+			out.writeChar((Character) c);
+		} else if (c.getClass() == Tuple.class) {
+			out.writeByte(TUPLE);
+			encode((Tuple) c, out);
+		} else if (c instanceof Class) {
+			int known = indexOf((Class<?>) c);
+			if (known >= 0) {
+				out.writeByte(KNOWN + known);
+			} else {
+				out.writeByte(CLASS);
+				out.writeUTF(((Class<?>) c).getName());
+			}
+		} else {
+			out.writeByte(OBJECT);
+			ByteArrayOutputStream buf = new ByteArrayOutputStream();
+			ObjectOutputStream oos = new ObjectOutputStream(buf);
+			oos.writeObject(c);
+			oos.close();
+			writeVarInt(out, buf.size());
+			out.write(buf.toByteArray());
+		}
+	}
+
+	private static Serializable read(DataInput in) throws IOException {
+		byte tag = in.readByte();
+		switch (tag) {
+		case NULL:
+			return null;
+		case INT:
+			int v = readVarInt(in);
+			return (v >>> 1) ^ -(v & 1);
+		case TRUE:
+			return Boolean.TRUE;
+		case FALSE:
+			return Boolean.FALSE;
+		case STRING:
+			return new String(readBytes(in), StandardCharsets.UTF_8);
+		case CHAR:
+			return in.readChar();
+		case TUPLE:
+			return decode(in);
+		case CLASS:
+			String name = in.readUTF();
+			try {
+				return Class.forName(name, false, loader());
+			} catch (ClassNotFoundException e) {
+				throw new IOException("Unknown class ?" + name, e);
+			}
+		case OBJECT:
+			ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(readBytes(in)));
+			try {
+				return (Serializable) ois.readObject();
+			} catch (ClassNotFoundException e) {
+				throw new IOException(e);
+			}
+		default:
+			if (tag >= KNOWN && tag < KNOWN + KNOWN_CLASSES.length) {
+				return KNOWN_CLASSES[tag - KNOWN];
+			}
+			throw new StreamCorruptedException("unknown tag " + tag);
+		}
+	}
+
+	private static int indexOf(Class<?> c) {
+		for (int i = 0; i < KNOWN_CLASSES.length; i++) {
+			if (KNOWN_CLASSES[i] == c) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	private static ClassLoader loader() {
+		ClassLoader cl = Thread.currentThread().getContextClassLoader();
+		return cl != null ? cl : TupleCodec.class.getClassLoader();
+	}
+
+	private static byte[] readBytes(DataInput in) throws IOException {
+		int length = readVarInt(in);
+		if (length < 0) {
+			throw new StreamCorruptedException("negative length " + length);
+		}
+		byte[] bytes = new byte[length];
+		in.readFully(bytes);
+		return bytes;
+	}
+
+	/** Writes an unsigned int on 1 to 5 bytes, 7 bits per byte. */
+	static void writeVarInt(DataOutput out, int v) throws IOException {
+		while ((v & ~0x7F) != 0) {
+			out.writeByte((v & 0x7F) | 0x80);
+			v >>>= 7;
+		}
+		out.writeByte(v);
+	}
+
+	static int readVarInt(DataInput in) throws IOException {
+		int v = 0;
+		for (int shift = 0; shift < 35; shift += 7) {
+			byte b = in.readByte();
+			v |= (b & 0x7F) << shift;
+			if (b >= 0) {
+				return v;
+			}
+		}
+		throw new StreamCorruptedException("malformed varint");
+	}
+
+	/** Serialized form of a {@link Tuple}: the codec encoding instead of the LinkedList one. */
+	static final class Wire implements Externalizable {
+
+		private static final long serialVersionUID = 1L;
+
+		private Tuple tuple;
+
+		/** For deserialization only. */
+		public Wire() {}
+
+		Wire(Tuple tuple) {
+			this.tuple = tuple;
+		}
+
+		public void writeExternal(ObjectOutput out) throws IOException {
+			encode(this.tuple, out);
+		}
+
+		public void readExternal(ObjectInput in) throws IOException {
+			this.tuple = decode(in);
+		}
+
+		private Object readResolve() throws ObjectStreamException {
+			return this.tuple;
+		}
+	}
+
+	/** Serialized form of a {@link CompactTuple}. */
+	static final class CompactWire implements Externalizable {
+
+		private static final long serialVersionUID = 1L;
+
+		private CompactTuple tuple;
+
+		/** For deserialization only. */
+		public CompactWire() {}
+
+		CompactWire(CompactTuple tuple) {
+			this.tuple = tuple;
+		}
+
+		public void writeExternal(ObjectOutput out) throws IOException {
+			encode(this.tuple, out);
+		}
+
+		public void readExternal(ObjectInput in) throws IOException {
+			this.tuple = decodeCompact(in);
+		}
+
+		private Object readResolve() throws ObjectStreamException {
+			return this.tuple;
+		}
+	}
+}
@@ -0,0 +1,314 @@
+package linda.server;
+
+import java.rmi.ConnectException;
+import java.rmi.NoSuchObjectException;
+import java.rmi.RemoteException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import linda.CompactTuple;
+import linda.Dispatcher;
+import linda.Linda.eventMode;
+import linda.Linda.eventTiming;
+import linda.Subscription;
+import linda.Tuple;
+import linda.shm.CentralizedLinda;
+import linda.shm.CompactCallback;
+
+/**
+ * Canal d'évènements d'un client, côté serveur. Tous les évènements
+ * enregistrés par un même {@link LindaListener} y sont multiplexés : aucun
+ * thread n'attend par évènement, et les tuples déclenchés sont poussés au
+ * client par lots, par au plus une tâche à la fois. Chaque lot porte un
+ * numéro : un lot renvoyé après une réponse perdue est reconnu par le client,
+ * qui rend sa première réponse sans le délivrer une seconde fois. Un envoi
+ * dont l'issue est incertaine est ainsi réessayé ; si le client reste
+ * injoignable, ou s'il n'existe plus, ses évènements en attente sont annulés
+ * et les tuples pris non délivrés sont remis en mémoire, tels qu'ils avaient
+ * été écrits : un tuple à bail garde son échéance.
+ * <p>
+ * Un canal sans évènement ni abonnement en attente se retire des canaux du
+ * serveur : le client désexporte alors son écouteur, et en exporte un autre
+ * au prochain besoin.
+ *
+ * @author Alexandra Jacquet
+ * @author Florian Vetu
+ */
+class EventChannel {
+
+    /**
+     * Un tuple à pousser au client, tel que rangé en mémoire.
+     */
+    private static class Delivery {
+
+        final long id;
+        final eventMode mode;
+        final CompactTuple tuple;
+
+        Delivery(long id, eventMode mode, CompactTuple tuple) {
+            this.id = id;
+            this.mode = mode;
+            this.tuple = tuple;
+        }
+    }
+
+    /**
+     * Nombre d'essais d'un envoi dont l'issue est incertaine
+     */
+    private static final int ATTEMPTS = 5;
+    /**
+     * Délai avant le deuxième essai, doublé à chaque essai suivant
+     */
+    private static final long RETRY_MILLIS = 100;
+    /**
+     * Numéros des lots, uniques pour tout le serveur : un client peut
+     * recevoir les lots de plusieurs canaux successifs.
+     */
+    private static final AtomicLong BATCHES = new AtomicLong();
+
+    private final LindaListener listener;
+    private final CentralizedLinda linda;
+    /**
+     * Les canaux du serveur, dont celui-ci se retire à la fermeture.
+     */
+    private final Map<LindaListener, EventChannel> channels;
+    /**
+     * Les évènements en attente, par numéro.
+     */
+    private final Map<Long, CompletableFuture<CompactTuple>> pending;
+    /**
+     * Les abonnements actifs, par numéro.
+     */
+    private final Map<Long, Subscription> subscriptions;
+    /**
+     * Les tuples déclenchés pas encore poussés.
+     */
+    private final Queue<Delivery> outbox;
+    /**
+     * Vrai si une tâche d'envoi est en cours.
+     */
+    private final AtomicBoolean draining;
+    /**
+     * Vrai une fois le canal retiré des canaux du serveur : il n'accepte plus
+     * d'évènement. Protégé par le moniteur du canal.
+     */
+    private boolean retired;
+
+    /**
+     * Crée le canal d'un client.
+     *
+     * @param listener l'écouteur du client
+     * @param linda l'espace de tuples du serveur
+     * @param channels les canaux du serveur
+     */
+    EventChannel(LindaListener listener, CentralizedLinda linda, Map<LindaListener, EventChannel> channels) {
+        this.listener = listener;
+        this.linda = linda;
+        this.channels = channels;
+        this.pending = new ConcurrentHashMap<>();
+        this.subscriptions = new ConcurrentHashMap<>();
+        this.outbox = new ConcurrentLinkedQueue<>();
+        this.draining = new AtomicBoolean(false);
+    }
+
+    /**
+     * Enregistre un évènement du client.
+     *
+     * @param id le numéro de l'évènement choisi par le client
+     * @param mode le mode de l'évènement
+     * @param timing le timing de l'évènement
+     * @param template le template du tuple associé à l'évènement
+     * @return faux si le canal est retiré : l'appelant doit en créer un autre
+     */
+    synchronized boolean register(final long id, final eventMode mode, eventTiming timing, Tuple template) {
+        if (this.retired) {
+            return false;
+        }
+        CompletableFuture<CompactTuple> future = this.linda.eventAsyncCompact(mode, timing, template);
+        this.pending.put(id, future);
+        future.thenAccept(new Consumer<CompactTuple>() {
+            @Override
+            public void accept(CompactTuple t) {
+                if (pending.remove(id) != null) {
+                    outbox.add(new Delivery(id, mode, t));
+                    drain();
+                    retireIfIdle();
+                } else if (mode.equals(eventMode.TAKE)) {
+                    // annulé pendant le déclenchement
+                    linda.putBack(t);
+                }
+            }
+        });
+        return true;
+    }
+
+    /**
+     * Abonne le client : chaque tuple déclenché part dans la file d'envoi.
+     *
+     * @param id le numéro de l'abonnement choisi par le client
+     * @param mode le mode de l'abonnement
+     * @param template le template des tuples à recevoir
+     * @return faux si le canal est retiré : l'appelant doit en créer un autre
+     */
+    synchronized boolean subscribe(final long id, final eventMode mode, Tuple template) {
+        if (this.retired) {
+            return false;
+        }
+        this.subscriptions.put(id, this.linda.subscribe(mode, template, new CompactCallback() {
+            @Override
+            public void call(CompactTuple c, Tuple t) {
+                outbox.add(new Delivery(id, mode, c));
+                drain();
+            }
+        }));
+        return true;
+    }
+
+    /**
+     * Annule un évènement ou un abonnement du client.
+     *
+     * @param id le numéro de l'évènement ou de l'abonnement
+     * @return vrai si l'évènement était encore en attente
+     */
+    boolean cancel(long id) {
+        Subscription subscription = this.subscriptions.remove(id);
+        if (subscription != null) {
+            subscription.cancel();
+            this.retireIfIdle();
+            return true;
+        }
+        CompletableFuture<CompactTuple> future = this.pending.remove(id);
+        this.retireIfIdle();
+        return future != null && future.cancel(false);
+    }
+
+    /**
+     * Retire le canal des canaux du serveur s'il n'a plus ni évènement ni
+     * abonnement en attente. Les tuples déjà dans la file d'envoi partent
+     * quand même.
+     */
+    private synchronized void retireIfIdle() {
+        if (!this.retired && this.pending.isEmpty() && this.subscriptions.isEmpty()) {
+            this.retired = true;
+            this.channels.remove(this.listener, this);
+        }
+    }
+
+    /**
+     * Lance une tâche d'envoi si aucune n'est en cours.
+     */
+    private void drain() {
+        if (this.draining.compareAndSet(false, true)) {
+            Dispatcher.callbacks().execute(new Runnable() {
+                @Override
+                public void run() {
+                    send();
+                }
+            });
+        }
+    }
+
+    /**
+     * Pousse au client tout ce qui est en attente, par lots.
+     */
+    private void send() {
+        while (true) {
+            List<Delivery> batch = new ArrayList<>();
+            Delivery d;
+            while ((d = this.outbox.poll()) != null) {
+                batch.add(d);
+            }
+            if (batch.isEmpty()) {
+                this.draining.set(false);
+                // un tuple a pu arriver juste avant la fin de la tâche
+                if (this.outbox.isEmpty() || !this.draining.compareAndSet(false, true)) {
+                    return;
+                }
+                continue;
+            }
+            long[] ids = new long[batch.size()];
+            Tuple[] tuples = new Tuple[batch.size()];
+            for (int i = 0; i < ids.length; i++) {
+                ids[i] = batch.get(i).id;
+                tuples[i] = batch.get(i).tuple.toTuple();
+            }
+            boolean[] delivered = this.push(BATCHES.incrementAndGet(), ids, tuples);
+            if (delivered == null) {
+                delivered = new boolean[ids.length];
+                this.close();
+            }
+            // un tuple pris que le client n'a pas accepté est remis en
+            // mémoire, avec son bail
+            for (int i = 0; i < ids.length; i++) {
+                if (!delivered[i] && batch.get(i).mode.equals(eventMode.TAKE)) {
+                    this.linda.putBack(batch.get(i).tuple);
+                }
+            }
+        }
+    }
+
+    /**
+     * Pousse un lot au client. Un envoi qui n'a pas pu atteindre le client
+     * (écouteur désexporté, connexion refusée) n'est pas réessayé ; un envoi
+     * à l'issue incertaine (réponse perdue, connexion coupée) est réessayé
+     * avec le même numéro de lot, que le client ne délivre qu'une fois.
+     *
+     * @param batch le numéro du lot
+     * @param ids les numéros des évènements
+     * @param tuples leurs tuples
+     * @return les réponses du client, null s'il est injoignable
+     */
+    private boolean[] push(long batch, long[] ids, Tuple[] tuples) {
+        long delay = RETRY_MILLIS;
+        for (int attempt = 1;; attempt++) {
+            try {
+                return this.listener.eventsFired(batch, ids, tuples);
+            } catch (NoSuchObjectException ex) {
+                Logger.getLogger(EventChannel.class.getName()).log(Level.INFO, "écouteur désexporté, canal fermé");
+                return null;
+            } catch (ConnectException ex) {
+                Logger.getLogger(EventChannel.class.getName()).log(Level.WARNING, "client injoignable, canal fermé", ex);
+                return null;
+            } catch (RemoteException ex) {
+                if (attempt == ATTEMPTS) {
+                    Logger.getLogger(EventChannel.class.getName()).log(Level.WARNING, "client injoignable après " + attempt + " essais, canal fermé", ex);
+                    return null;
+                }
+                Logger.getLogger(EventChannel.class.getName()).log(Level.FINE, "envoi incertain, nouvel essai", ex);
+            }
+            try {
+                Thread.sleep(delay);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                return null;
+            }
+            delay *= 2;
+        }
+    }
+
+    /**
+     * Ferme le canal d'un client disparu : annule tous ses évènements en
+     * attente et tous ses abonnements.
+     */
+    private void close() {
+        synchronized (this) {
+            this.retired = true;
+        }
+        this.channels.remove(this.listener, this);
+        for (Long id : this.subscriptions.keySet()) {
+            this.cancel(id);
+        }
+        for (Long id : this.pending.keySet()) {
+            this.cancel(id);
+        }
+    }
+}
@@ -1,15 +1,40 @@
 package linda.server;
 
+import java.io.UncheckedIOException;
 import java.net.MalformedURLException;
 import java.rmi.Naming;
+import java.rmi.NoSuchObjectException;
 import java.rmi.NotBoundException;
 import java.rmi.RemoteException;
+import java.rmi.server.UnicastRemoteObject;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import linda.AsyncLinda;
 import linda.Callback;
-import linda.Linda;
+import linda.CapacityExceededException;
+import linda.CompactTuple;
+import linda.Cursor;
+import linda.Subscription;
+import linda.Dispatcher;
+import linda.Linda.eventMode;
+import linda.Trace;
 import linda.Tuple;
+import linda.shm.MetricsSnapshot;
 
 /**
  * Client part of a client/server implementation of Linda. It implements the
@@ -18,12 +43,53 @@ import linda.Tuple;
  * @author Alexandra Jacquet
  * @author Florian Vetu
  */
-public class LindaClient implements Linda {
+public class LindaClient implements AsyncLinda {
 
+    /**
+     * Nombre de tuples demandés à la fois par un curseur (propriété
+     * linda.cursor.page, 256 par défaut) : le client ne garde qu'une page.
+     */
+    private static final int CURSOR_PAGE = Integer.getInteger("linda.cursor.page", 256);
     /**
      * Le {@link LindaServer}.
      */
     private LindaRMI linda;
+    /**
+     * L'écouteur exporté auprès du serveur, créé au premier besoin et
+     * désexporté dès que plus aucun évènement ni abonnement n'est en cours :
+     * un export RMI empêche la JVM du client de s'arrêter.
+     */
+    private Listener listener;
+    /**
+     * Numéros des évènements enregistrés auprès du serveur.
+     */
+    private final AtomicLong ids = new AtomicLong();
+    /**
+     * Mode pipeliné : les write en attente d'envoi, dans l'ordre. Null si le
+     * mode n'est pas actif.
+     */
+    private List<CompactTuple> buffer;
+    /**
+     * Mode pipeliné : taille de lot déclenchant l'envoi.
+     */
+    private int batchSize;
+    /**
+     * Mode pipeliné : délai maximal (ms) avant l'envoi d'un lot incomplet.
+     */
+    private long lingerMillis;
+    /**
+     * Mode pipeliné : vrai si un envoi différé est programmé.
+     */
+    private boolean flushScheduled;
+    /**
+     * Mode pipeliné : thread des envois différés.
+     */
+    private ScheduledExecutorService flusher;
+    /**
+     * Mode pipeliné : envoie les write en attente à l'arrêt de la JVM, si le
+     * client n'a pas été fermé.
+     */
+    private Thread shutdownHook;
 
     /**
      * Initializes the Linda implementation.
@@ -33,7 +99,7 @@ public class LindaClient implements Linda {
      */
     public LindaClient(String serverURI) {
         try {
-            System.out.println("LindaServer URI : " + serverURI);
+            Trace.event(Trace.Level.INFO, "connect", serverURI);
             this.linda = (LindaRMI) Naming.lookup(serverURI);
         } catch (NotBoundException ex) {
             Logger.getLogger(LindaClient.class.getName()).log(Level.SEVERE, null, ex);
@@ -45,15 +111,182 @@ public class LindaClient implements Linda {
     }
 
     /**
-     * Procédure write. Appel la méthode write du {@link LindaServer}.
+     * Initializes the Linda implementation in pipelined mode: writes are
+     * buffered and sent in batches with a single remote writeAll, when
+     * <code>batchSize</code> tuples are pending, when <code>lingerMillis</code>
+     * have elapsed since the first pending write, or before any other
+     * operation of this client. Writes keep their program order.
+     *
+     * A failed send keeps the pending writes, which are sent again after
+     * <code>lingerMillis</code>. A pending write rejected by a bounded server
+     * is dropped and logged: the rejection is only thrown to the caller of
+     * {@link #flush()} or of a pipelined {@link #writeAll(Collection)}, never
+     * to an unrelated operation which happened to send it. Pending writes are
+     * also sent by {@link #close()}, or when the JVM exits if the client has
+     * not been closed.
+     *
+     * @param serverURI the URI of the server.
+     * @param batchSize the number of pending writes triggering a send, at least 1.
+     * @param lingerMillis the maximal delay (ms) before pending writes are sent, at least 0.
+     */
+    public LindaClient(String serverURI, int batchSize, long lingerMillis) {
+        this(serverURI);
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("batchSize < 1 : " + batchSize);
+        }
+        if (lingerMillis < 0) {
+            throw new IllegalArgumentException("lingerMillis < 0 : " + lingerMillis);
+        }
+        this.buffer = new ArrayList<>();
+        this.batchSize = batchSize;
+        this.lingerMillis = lingerMillis;
+        this.flusher = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "linda-client-flush");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        this.shutdownHook = new Thread("linda-client-shutdown") {
+            @Override
+            public void run() {
+                sendPending();
+            }
+        };
+        Runtime.getRuntime().addShutdownHook(this.shutdownHook);
+    }
+
+    /**
+     * Procédure flush. En mode pipeliné, envoie les write en attente au
+     * {@link LindaServer} en un seul appel. L'envoi se fait sous le verrou du
+     * tampon, ce qui garde l'ordre des lots. Sans effet hors mode pipeliné.
+     * Si l'espace du serveur est limité, l'envoi peut bloquer, ou lever une
+     * {@link CapacityExceededException} : les tuples du lot qui précèdent le
+     * tuple rejeté sont écrits, le tuple rejeté est abandonné, et les tuples
+     * suivants restent en attente pour le flush suivant.
+     * Si l'envoi échoue, le lot reste en attente et repart par un envoi
+     * différé.
+     *
+     * @return vrai si plus aucun write n'est en attente
+     */
+    public boolean flush() {
+        if (this.buffer == null) {
+            return true;
+        }
+        synchronized (this.buffer) {
+            if (this.buffer.isEmpty()) {
+                return true;
+            }
+            CompactTuple[] batch = this.buffer.toArray(new CompactTuple[this.buffer.size()]);
+            try {
+                this.linda.writeAll(batch);
+            } catch (RemoteException ex) {
+                Logger.getLogger(LindaClient.class.getName()).log(Level.SEVERE, "lot de " + batch.length + " write gardé pour le prochain envoi", ex);
+                this.scheduleFlush();
+                return false;
+            } catch (CapacityExceededException ex) {
+                this.buffer.subList(0, Math.min(ex.getWritten() + 1, this.buffer.size())).clear();
+                throw ex;
+            }
+            this.buffer.clear();
+            return true;
+        }
+    }
+
+    /**
+     * Envoie les write en attente avant une autre opération de ce client, à
+     * la fermeture, ou depuis le thread des envois différés. Un tuple rejeté
+     * faute de place est abandonné et journalisé : son rejet n'est pas rendu
+     * à une opération qui ne l'a pas causé, et les tuples suivants partent
+     * quand même, avant l'opération. Si l'envoi échoue, le lot reste en
+     * attente d'un envoi différé.
+     *
+     * @return vrai si plus aucun write n'est en attente
+     */
+    private boolean sendPending() {
+        if (this.buffer == null) {
+            return true;
+        }
+        synchronized (this.buffer) {
+            while (true) {
+                try {
+                    return this.flush();
+                } catch (CapacityExceededException ex) {
+                    Logger.getLogger(LindaClient.class.getName()).log(Level.SEVERE, "write en attente rejeté, abandonné", ex);
+                }
+            }
+        }
+    }
+
+    /**
+     * Procédure close. Envoie les write en attente, arrête le thread des
+     * envois différés et désexporte l'écouteur de ce client : ses évènements
+     * et abonnements en cours ne seront plus délivrés.
+     */
+    public void close() {
+        if (this.buffer != null) {
+            synchronized (this.buffer) {
+                if (!this.sendPending()) {
+                    Logger.getLogger(LindaClient.class.getName()).log(Level.SEVERE, "{0} write perdus à la fermeture", this.buffer.size());
+                    this.buffer.clear();
+                }
+                this.flusher.shutdownNow();
+            }
+            try {
+                Runtime.getRuntime().removeShutdownHook(this.shutdownHook);
+            } catch (IllegalStateException ex) {
+                // fermeture pendant l'arrêt de la JVM
+            }
+        }
+        synchronized (this) {
+            if (this.listener != null) {
+                try {
+                    UnicastRemoteObject.unexportObject(this.listener, true);
+                } catch (NoSuchObjectException ex) {
+                    // déjà désexporté
+                }
+                this.listener = null;
+            }
+        }
+    }
+
+    /**
+     * Procédure write. Appel la méthode write du {@link LindaServer}. En mode
+     * pipeliné, le tuple est mis en attente et envoyé avec son lot.
      *
      * @param t le tuple à écrire.
      * @see Tuple
      */
     @Override
     public void write(Tuple t) {
+        // copie compacte : le tuple de l'appelant peut changer après l'appel
+        CompactTuple c = CompactTuple.of(t);
+        if (this.buffer != null) {
+            this.buffer(c);
+            return;
+        }
         try {
-            this.linda.write(t);
+            this.linda.write(c);
+        } catch (RemoteException ex) {
+            Logger.getLogger(LindaClient.class.getName()).log(Level.SEVERE, null, ex);
+        }
+    }
+
+    /**
+     * Procédure write à bail. Appel la méthode write à bail du
+     * {@link LindaServer}, après l'envoi des write en attente en mode
+     * pipeliné. Le bail court à partir de la réception par le serveur.
+     *
+     * @param t le tuple à écrire.
+     * @param lease la durée de vie du tuple, en millisecondes.
+     */
+    @Override
+    public void write(Tuple t, long lease) {
+        CompactTuple c = CompactTuple.of(t);
+        this.sendPending();
+        try {
+            this.linda.write(c, lease);
         } catch (RemoteException ex) {
             Logger.getLogger(LindaClient.class.getName()).log(Level.SEVERE, null, ex);
         }
@@ -68,6 +301,7 @@ public class LindaClient implements Linda {
      */
     @Override
     public Tuple take(Tuple template) {
+        this.sendPending();
         try {
             return this.linda.take(template);
         } catch (RemoteException ex) {
@@ -85,6 +319,7 @@ public class LindaClient implements Linda {
      */
     @Override
     public Tuple read(Tuple template) {
+        this.sendPending();
         try {
             return this.linda.read(template);
         } catch (RemoteException ex) {
@@ -93,6 +328,44 @@ public class LindaClient implements Linda {
         return null;
     }
 
+    /**
+     * Procédure take bornée. Appel le take borné du {@link LindaServer}.
+     *
+     * @param template le template recherché.
+     * @param timeout le délai maximal d'attente, en millisecondes.
+     * @return le tuple trouvé, null à l'échéance.
+     * @see Tuple
+     */
+    @Override
+    public Tuple take(Tuple template, long timeout) {
+        this.sendPending();
+        try {
+            return this.linda.take(template, timeout);
+        } catch (RemoteException ex) {
+            Logger.getLogger(LindaClient.class.getName()).log(Level.SEVERE, null, ex);
+        }
+        return null;
+    }
+
+    /**
+     * Procédure read bornée. Appel le read borné du {@link LindaServer}.
+     *
+     * @param template le template recherché.
+     * @param timeout le délai maximal d'attente, en millisecondes.
+     * @return le tuple trouvé, null à l'échéance.
+     * @see Tuple
+     */
+    @Override
+    public Tuple read(Tuple template, long timeout) {
+        this.sendPending();
+        try {
+            return this.linda.read(template, timeout);
+        } catch (RemoteException ex) {
+            Logger.getLogger(LindaClient.class.getName()).log(Level.SEVERE, null, ex);
+        }
+        return null;
+    }
+
     /**
      * Procédure trytake. Appel le tryTake du {@link LindaServer}.
      *
@@ -102,6 +375,7 @@ public class LindaClient implements Linda {
      */
     @Override
     public Tuple tryTake(Tuple template) {
+        this.sendPending();
         try {
             return this.linda.tryTake(template);
         } catch (RemoteException ex) {
@@ -119,6 +393,7 @@ public class LindaClient implements Linda {
      */
     @Override
     public Tuple tryRead(Tuple template) {
+        this.sendPending();
         try {
             return this.linda.tryRead(template);
         } catch (RemoteException ex) {
@@ -136,6 +411,7 @@ public class LindaClient implements Linda {
      */
     @Override
     public Collection<Tuple> takeAll(Tuple template) {
+        this.sendPending();
         try {
             return this.linda.takeAll(template);
         } catch (RemoteException ex) {
@@ -153,6 +429,7 @@ public class LindaClient implements Linda {
      */
     @Override
     public Collection<Tuple> readAll(Tuple template) {
+        this.sendPending();
         try {
             return this.linda.readAll(template);
         } catch (RemoteException ex) {
@@ -161,9 +438,131 @@ public class LindaClient implements Linda {
         return null;
     }
 
+    /**
+     * Procédure readAll en flux. Ouvre un curseur sur le {@link LindaServer},
+     * dont les tuples sont demandés par pages au fil de l'itération.
+     *
+     * @param template le template recherché.
+     * @return le curseur.
+     * @throws UncheckedIOException si le serveur est injoignable
+     */
+    @Override
+    public Cursor readAllCursor(Tuple template) {
+        return this.cursor(eventMode.READ, template);
+    }
+
+    /**
+     * Procédure takeAll en flux. Ouvre un curseur sur le {@link LindaServer},
+     * dont les tuples sont pris par pages au fil de l'itération ; ceux de la
+     * page en cours sont réécrits par le serveur, avec leur bail, si le
+     * curseur est fermé avant de les livrer.
+     *
+     * @param template le template recherché.
+     * @return le curseur.
+     * @throws UncheckedIOException si le serveur est injoignable
+     */
+    @Override
+    public Cursor takeAllCursor(Tuple template) {
+        return this.cursor(eventMode.TAKE, template);
+    }
+
+    private Cursor cursor(eventMode mode, Tuple template) {
+        this.sendPending();
+        try {
+            return new RemoteCursor(mode, this.linda.openCursor(mode, template));
+        } catch (RemoteException ex) {
+            // pas de curseur vide : l'appelant le prendrait pour un résultat
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    /**
+     * Procédure writeAll. Envoie tout le lot au {@link LindaServer} en un
+     * seul appel. En mode pipeliné, les write en attente partent d'abord ;
+     * le lot part ensuite à part, et un rejet faute de place est rendu à
+     * l'appelant avec le nombre de tuples de ce lot écrits. Si l'envoi
+     * échoue, le lot est mis en attente derrière les autres.
+     *
+     * @param ts les tuples à écrire.
+     * @see Tuple
+     */
+    @Override
+    public void writeAll(Collection<Tuple> ts) {
+        CompactTuple[] batch = new CompactTuple[ts.size()];
+        int i = 0;
+        for (Tuple t : ts) {
+            batch[i++] = CompactTuple.of(t);
+        }
+        if (this.buffer != null) {
+            synchronized (this.buffer) {
+                // les write déjà en attente partent avant ce lot, mais leurs
+                // rejets ne concernent pas l'appelant
+                if (this.sendPending()) {
+                    try {
+                        this.linda.writeAll(batch);
+                        return;
+                    } catch (RemoteException ex) {
+                        Logger.getLogger(LindaClient.class.getName()).log(Level.SEVERE, "lot de " + batch.length + " write gardé pour le prochain envoi", ex);
+                    }
+                }
+                // envoi impossible : le lot attend derrière les write en
+                // attente, et repart avec eux
+                for (CompactTuple c : batch) {
+                    this.buffer.add(c);
+                }
+                this.scheduleFlush();
+            }
+            return;
+        }
+        try {
+            this.linda.writeAll(batch);
+        } catch (RemoteException ex) {
+            Logger.getLogger(LindaClient.class.getName()).log(Level.SEVERE, null, ex);
+        }
+    }
+
+    /**
+     * Procédure tryTakeN. Appel du tryTakeN du {@link LindaServer}.
+     *
+     * @param template le template recherché.
+     * @param n le nombre maximal de tuples.
+     * @return la collection de tuple trouvée.
+     * @see Tuple
+     */
+    @Override
+    public Collection<Tuple> tryTakeN(Tuple template, int n) {
+        this.sendPending();
+        try {
+            return this.linda.tryTakeN(template, n);
+        } catch (RemoteException ex) {
+            Logger.getLogger(LindaClient.class.getName()).log(Level.SEVERE, null, ex);
+        }
+        return null;
+    }
+
+    /**
+     * Procédure takeN. Appel du takeN du {@link LindaServer}.
+     *
+     * @param template le template recherché.
+     * @param n le nombre de tuples.
+     * @return la collection de tuple trouvée.
+     * @see Tuple
+     */
+    @Override
+    public Collection<Tuple> takeN(Tuple template, int n) {
+        this.sendPending();
+        try {
+            return this.linda.takeN(template, n);
+        } catch (RemoteException ex) {
+            Logger.getLogger(LindaClient.class.getName()).log(Level.SEVERE, null, ex);
+        }
+        return null;
+    }
+
     /**
      * Procédure eventRegister. Enregistre un évènement au près du serveur.
-     * Appel le callback lorsque l'èvenement à eu lieu.
+     * Appel le callback lorsque l'èvenement à eu lieu. Le tuple arrive par
+     * l'écouteur de ce client, partagé par tous ses évènements.
      *
      * @param mode le mode de l'évènement.
      * @param timing le timing de l'évènement.
@@ -173,23 +572,304 @@ public class LindaClient implements Linda {
      */
     @Override
     public void eventRegister(final eventMode mode, final eventTiming timing, final Tuple template, final Callback callback) {
-        // Création d'un thread pour ne pas bloquer le client.
-        new Thread() {
+        Trace.event(Trace.Level.DEBUG, "eventRegister", mode, template);
+        // le serveur poussera le tuple à l'écouteur de ce client : aucun
+        // thread n'attend ; le callback est appelé par le Dispatcher.
+        this.eventAsync(mode, timing, template).whenCompleteAsync(new BiConsumer<Tuple, Throwable>() {
+            @Override
+            public void accept(Tuple tuple, Throwable ex) {
+                if (ex != null) {
+                    Logger.getLogger(LindaClient.class.getName()).log(Level.SEVERE, null, ex);
+                    return;
+                }
+                // appel du callback.
+                callback.call(tuple);
+                Trace.event(Trace.Level.TRACE, "callback", template, tuple);
+            }
+        }, Dispatcher.callbacks());
+    }
+
+    /**
+     * Fonction subscribe. L'abonnement est tenu par le serveur, qui pousse
+     * chaque tuple à l'écouteur de ce client ; le callback est appelé par le
+     * thread RMI de l'écouteur, dans l'ordre d'envoi.
+     *
+     * @param mode le mode de l'abonnement.
+     * @param template le template des tuples à recevoir.
+     * @param callback le callback appelé pour chaque tuple.
+     * @return l'abonnement, pour l'annuler.
+     */
+    @Override
+    public Subscription subscribe(eventMode mode, Tuple template, Callback callback) {
+        this.sendPending();
+        final long id = this.ids.incrementAndGet();
+        final Listener l;
+        try {
+            l = this.listen(id, null, callback);
+        } catch (RemoteException ex) {
+            Logger.getLogger(LindaClient.class.getName()).log(Level.SEVERE, null, ex);
+            return null;
+        }
+        try {
+            this.linda.subscribe(l, id, mode, template);
+            return new Subscription() {
+                @Override
+                public void cancel() {
+                    try {
+                        // d'abord le serveur, pour qu'aucun tuple refusé ne
+                        // soit repris par l'abonnement
+                        linda.cancel(l, id);
+                    } catch (RemoteException ex) {
+                        Logger.getLogger(LindaClient.class.getName()).log(Level.SEVERE, null, ex);
+                    }
+                    l.subscriptions.remove(id);
+                    release();
+                }
+            };
+        } catch (RemoteException ex) {
+            Logger.getLogger(LindaClient.class.getName()).log(Level.SEVERE, null, ex);
+        }
+        l.subscriptions.remove(id);
+        this.release();
+        return null;
+    }
+
+    /**
+     * Fonction takeAsync. Voir {@link #eventAsync}.
+     *
+     * @param template le template recherché.
+     * @return un future complété par le tuple pris.
+     */
+    @Override
+    public CompletableFuture<Tuple> takeAsync(Tuple template) {
+        return this.eventAsync(eventMode.TAKE, eventTiming.IMMEDIATE, template);
+    }
+
+    /**
+     * Fonction readAsync. Voir {@link #eventAsync}.
+     *
+     * @param template le template recherché.
+     * @return un future complété par le tuple lu.
+     */
+    @Override
+    public CompletableFuture<Tuple> readAsync(Tuple template) {
+        return this.eventAsync(eventMode.READ, eventTiming.IMMEDIATE, template);
+    }
+
+    /**
+     * Fonction eventAsync. Enregistre l'évènement auprès du serveur, qui
+     * poussera le tuple trouvé à l'écouteur de ce client : aucun thread
+     * n'attend, ni ici ni sur le serveur. Les callbacks dépendants du future
+     * sont exécutés par le thread RMI de l'écouteur : ils ne doivent pas
+     * bloquer. Annuler le future annule
+     * l'évènement sur le serveur ; si l'annulation précède l'enregistrement
+     * par le serveur, elle est renouvelée une fois l'enregistrement acquitté.
+     *
+     * @param mode le mode de l'évènement.
+     * @param timing le timing de l'évènement.
+     * @param template le template recherché.
+     * @return un future complété par le tuple trouvé.
+     */
+    @Override
+    public CompletableFuture<Tuple> eventAsync(eventMode mode, eventTiming timing, Tuple template) {
+        return this.eventAsync(mode, timing, template, new CompletableFuture<Tuple>());
+    }
+
+    /**
+     * Fonction eventAsync complétant un future donné, qui peut être partagé
+     * par les évènements de plusieurs clients (voir
+     * {@link ShardedLindaClient}) : un tuple qui arrive quand le future est
+     * déjà complété est refusé, et un tuple pris refusé est remis en mémoire
+     * par le serveur lui-même, avec son bail. Une fois le future complété
+     * autrement que par cet évènement, l'évènement est annulé sur le serveur.
+     *
+     * @param mode le mode de l'évènement.
+     * @param timing le timing de l'évènement.
+     * @param template le template recherché.
+     * @param future le future à compléter par le tuple trouvé.
+     * @return le future.
+     */
+    CompletableFuture<Tuple> eventAsync(eventMode mode, eventTiming timing, Tuple template, final CompletableFuture<Tuple> future) {
+        this.sendPending();
+        final long id = this.ids.incrementAndGet();
+        final Listener l;
+        try {
+            l = this.listen(id, future, null);
+        } catch (RemoteException ex) {
+            future.completeExceptionally(ex);
+            return future;
+        }
+        final AtomicBoolean cancelled = new AtomicBoolean();
+        future.whenComplete(new BiConsumer<Tuple, Throwable>() {
+            @Override
+            public void accept(Tuple t, Throwable ex) {
+                // annulé, ou complété par un autre évènement : on prévient
+                // le serveur ; l'écouteur a déjà retiré un évènement délivré
+                if (l.pending.remove(id) != null) {
+                    cancelled.set(true);
+                    cancel(l, id);
+                }
+                release();
+            }
+        });
+        try {
+            this.linda.register(l, id, mode, timing, template);
+            if (cancelled.get()) {
+                // annulé pendant l'appel : le premier cancel a pu précéder
+                // l'enregistrement sur le serveur, qui est maintenant acquitté
+                this.cancel(l, id);
+            }
+        } catch (RemoteException ex) {
+            future.completeExceptionally(ex);
+        }
+        return future;
+    }
+
+    /**
+     * Annule un évènement sur le serveur.
+     *
+     * @param l l'écouteur de l'évènement.
+     * @param id le numéro de l'évènement.
+     */
+    private void cancel(Listener l, long id) {
+        try {
+            this.linda.cancel(l, id);
+        } catch (RemoteException ex) {
+            Logger.getLogger(LindaClient.class.getName()).log(Level.SEVERE, null, ex);
+        }
+    }
+
+    /**
+     * Met un write en attente (mode pipeliné). Envoie le lot s'il est
+     * complet, sinon programme son envoi différé.
+     *
+     * @param t le tuple à écrire.
+     */
+    private void buffer(CompactTuple t) {
+        synchronized (this.buffer) {
+            this.buffer.add(t);
+            if (this.buffer.size() >= this.batchSize) {
+                this.sendPending();
+            } else {
+                this.scheduleFlush();
+            }
+        }
+    }
 
+    /**
+     * Programme l'envoi différé des write en attente, s'il ne l'est pas
+     * déjà. Appelé sous le verrou du tampon.
+     */
+    private void scheduleFlush() {
+        if (this.flushScheduled || this.flusher.isShutdown()) {
+            return;
+        }
+        this.flushScheduled = true;
+        this.flusher.schedule(new Runnable() {
             @Override
             public void run() {
-                System.out.println("Callback waiting : " + template);
-                try {
-                    // attend d'obtenir le tuple associé à l'évènement.
-                    Tuple tuple = linda.waitEvent(mode, timing, template);
-                    // appel du callback.
-                    callback.call(tuple);
-                } catch (RemoteException ex) {
-                    Logger.getLogger(LindaClient.class.getName()).log(Level.SEVERE, null, ex);
+                synchronized (buffer) {
+                    flushScheduled = false;
+                    // un envoi raté est reprogrammé par flush
+                    sendPending();
                 }
-                System.out.println("Callback done : " + template);
             }
-        }.start();
+        }, this.lingerMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Inscrit un évènement ou un abonnement auprès de l'écouteur de ce
+     * client, exporté si besoin. L'inscription se fait sous le même verrou
+     * que {@link #release()}, qui ne peut donc pas désexporter l'écouteur
+     * entre les deux.
+     *
+     * @param id le numéro de l'évènement ou de l'abonnement.
+     * @param future le future de l'évènement, null pour un abonnement.
+     * @param subscription le callback de l'abonnement, null pour un évènement.
+     * @return l'écouteur de ce client.
+     * @throws RemoteException si l'export échoue
+     */
+    private synchronized Listener listen(long id, CompletableFuture<Tuple> future, Callback subscription) throws RemoteException {
+        if (this.listener == null) {
+            this.listener = new Listener();
+        }
+        if (future != null) {
+            this.listener.pending.put(id, future);
+        } else {
+            this.listener.subscriptions.put(id, subscription);
+        }
+        return this.listener;
+    }
+
+    /**
+     * Désexporte l'écouteur si plus aucun évènement ni abonnement n'est en
+     * cours, pour que la JVM du client puisse s'arrêter. Il sera réexporté
+     * au prochain besoin.
+     */
+    private synchronized void release() {
+        if (this.listener != null && this.listener.pending.isEmpty() && this.listener.subscriptions.isEmpty()) {
+            try {
+                UnicastRemoteObject.unexportObject(this.listener, true);
+            } catch (NoSuchObjectException ex) {
+                // déjà désexporté
+            }
+            this.listener = null;
+        }
+    }
+
+    /**
+     * Écouteur des évènements de ce client. Associe à chaque numéro
+     * d'évènement le future à compléter, et à chaque numéro d'abonnement son
+     * callback.
+     */
+    private static class Listener extends UnicastRemoteObject implements LindaListener {
+
+        private static final long serialVersionUID = 1L;
+        /**
+         * Nombre de réponses gardées pour les lots renvoyés
+         */
+        private static final int ANSWERED = 64;
+
+        private final Map<Long, CompletableFuture<Tuple>> pending = new ConcurrentHashMap<>();
+        private final Map<Long, Callback> subscriptions = new ConcurrentHashMap<>();
+        /**
+         * Les réponses rendues aux derniers lots reçus, pour un lot renvoyé :
+         * plusieurs canaux du serveur peuvent pousser à cet écouteur.
+         */
+        private final Map<Long, boolean[]> answered = new LinkedHashMap<Long, boolean[]>() {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, boolean[]> eldest) {
+                return this.size() > ANSWERED;
+            }
+        };
+
+        Listener() throws RemoteException {
+            super();
+        }
+
+        @Override
+        public synchronized boolean[] eventsFired(long batch, long[] ids, Tuple[] tuples) {
+            boolean[] answer = this.answered.get(batch);
+            if (answer != null) {
+                // renvoi après une réponse perdue : déjà délivré
+                return answer;
+            }
+            boolean[] delivered = new boolean[ids.length];
+            for (int i = 0; i < ids.length; i++) {
+                Callback subscription = this.subscriptions.get(ids[i]);
+                if (subscription != null) {
+                    subscription.call(tuples[i]);
+                    delivered[i] = true;
+                } else {
+                    CompletableFuture<Tuple> future = this.pending.remove(ids[i]);
+                    delivered[i] = future != null && future.complete(tuples[i]);
+                }
+            }
+            this.answered.put(batch, delivered);
+            return delivered;
+        }
     }
 
     /**
@@ -199,6 +879,7 @@ public class LindaClient implements Linda {
      */
     @Override
     public void debug(String prefix) {
+        this.sendPending();
         try {
             this.linda.debug(prefix);
         } catch (RemoteException ex) {
@@ -206,10 +887,112 @@ public class LindaClient implements Linda {
         }
     }
 
+    /**
+     * Fonction metrics. Récupère les mesures du {@link LindaServer}.
+     *
+     * @return les mesures du serveur, null s'il est injoignable.
+     */
+    public MetricsSnapshot metrics() {
+        this.sendPending();
+        try {
+            return this.linda.metrics();
+        } catch (RemoteException ex) {
+            Logger.getLogger(LindaClient.class.getName()).log(Level.SEVERE, null, ex);
+        }
+        return null;
+    }
+
     /**
      * @param args the command line arguments
      */
     public static void main(String[] args) {
         LindaClient client = new LindaClient("rmi://127.0.0.1:4000/server");
     }
+
+    /**
+     * Curseur d'un readAll ou d'un takeAll en flux : une page à la fois,
+     * demandée quand la précédente est livrée.
+     */
+    private final class RemoteCursor implements Cursor {
+
+        private final eventMode mode;
+        /**
+         * L'identifiant du curseur sur le serveur, -1 s'il y est fermé
+         */
+        private long id;
+        /**
+         * Vrai quand le serveur a rendu sa dernière page : un curseur take
+         * reste ouvert sur le serveur jusqu'à ce que cette page soit livrée
+         */
+        private boolean exhausted;
+        private CompactTuple[] page;
+        private int p;
+
+        RemoteCursor(eventMode mode, long id) {
+            this.mode = mode;
+            this.id = id;
+            this.page = new CompactTuple[0];
+        }
+
+        /**
+         * @throws UncheckedIOException si le serveur est injoignable
+         * @throws IllegalStateException si le serveur a fermé le curseur,
+         * inutilisé depuis trop longtemps
+         */
+        @Override
+        public boolean hasNext() {
+            if (this.p == this.page.length && this.id != -1) {
+                if (this.exhausted) {
+                    // dernière page livrée
+                    this.close();
+                    return false;
+                }
+                this.p = 0;
+                this.page = new CompactTuple[0];
+                try {
+                    this.page = linda.fetch(this.id, CURSOR_PAGE);
+                } catch (RemoteException ex) {
+                    this.id = -1;
+                    throw new UncheckedIOException(ex);
+                } catch (NoSuchElementException ex) {
+                    this.id = -1;
+                    throw new IllegalStateException(ex.getMessage(), ex);
+                }
+                if (this.page.length < CURSOR_PAGE) {
+                    this.exhausted = true;
+                    if (this.mode == eventMode.READ || this.page.length == 0) {
+                        // fermé par le serveur
+                        this.id = -1;
+                    }
+                }
+            }
+            return this.p < this.page.length;
+        }
+
+        @Override
+        public Tuple next() {
+            if (!this.hasNext()) {
+                throw new NoSuchElementException();
+            }
+            return this.page[this.p++].toTuple();
+        }
+
+        /**
+         * Ferme le curseur sur le serveur, qui réécrit lui-même les tuples
+         * pris de la page en cours non livrés.
+         */
+        @Override
+        public void close() {
+            try {
+                if (this.id != -1) {
+                    linda.closeCursor(this.id, this.page.length - this.p);
+                }
+            } catch (RemoteException ex) {
+                Logger.getLogger(LindaClient.class.getName()).log(Level.SEVERE, null, ex);
+            }
+            this.id = -1;
+            this.page = new CompactTuple[0];
+            this.p = 0;
+        }
+    }
 }
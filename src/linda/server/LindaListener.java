@@ -0,0 +1,30 @@
+package linda.server;
+
+import java.rmi.Remote;
+import java.rmi.RemoteException;
+import linda.Tuple;
+
+/**
+ * Écouteur exporté par un {@link LindaClient} : le serveur lui pousse, par
+ * lots et sur une seule connexion, les tuples des évènements enregistrés par
+ * ce client, identifiés par un numéro choisi par le client. Un lot peut être
+ * renvoyé si la réponse du client s'est perdue : il porte alors le même
+ * numéro, et l'écouteur doit rendre la même réponse sans le délivrer à
+ * nouveau.
+ *
+ * @author Alexandra Jacquet
+ * @author Florian Vetu
+ */
+public interface LindaListener extends Remote {
+
+    /**
+     * Délivre les tuples trouvés pour un lot d'évènements.
+     *
+     * @param batch le numéro du lot, identique pour un lot renvoyé
+     * @param ids les numéros des évènements, donnés lors de l'enregistrement
+     * @param tuples les tuples trouvés, dans le même ordre
+     * @return pour chaque évènement, faux si le client ne l'attend plus
+     * (évènement annulé)
+     */
+    public boolean[] eventsFired(long batch, long[] ids, Tuple[] tuples) throws RemoteException;
+}
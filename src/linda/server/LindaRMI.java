@@ -7,9 +7,11 @@ package linda.server;
 import java.rmi.Remote;
 import java.rmi.RemoteException;
 import java.util.Collection;
+import linda.CompactTuple;
 import linda.Linda.eventMode;
 import linda.Linda.eventTiming;
 import linda.Tuple;
+import linda.shm.MetricsSnapshot;
 
 /**
  * Interface pour {@link LindaServer}
@@ -20,9 +22,16 @@ import linda.Tuple;
 public interface LindaRMI extends Remote {
 
     /**
-     * Adds a tuple t to the tuplespace.
+     * Adds a tuple t to the tuplespace. The tuple travels in its compact
+     * form, which the server stores as is.
      */
-    public void write(Tuple t) throws RemoteException;
+    public void write(CompactTuple t) throws RemoteException;
+
+    /**
+     * Adds a tuple t to the tuplespace for <code>lease</code> milliseconds,
+     * counted from its arrival on the server.
+     */
+    public void write(CompactTuple t, long lease) throws RemoteException;
 
     /**
      * Returns a tuple matching the template and removes it from the tuplespace.
@@ -36,6 +45,18 @@ public interface LindaRMI extends Remote {
      */
     public Tuple read(Tuple template) throws RemoteException;
 
+    /**
+     * Returns a tuple matching the template and removes it from the tuplespace.
+     * Blocks at most timeout milliseconds; returns null if none found in time.
+     */
+    public Tuple take(Tuple template, long timeout) throws RemoteException;
+
+    /**
+     * Returns a tuple matching the template and leaves it in the tuplespace.
+     * Blocks at most timeout milliseconds; returns null if none found in time.
+     */
+    public Tuple read(Tuple template, long timeout) throws RemoteException;
+
     /**
      * Returns a tuple matching the template and removes it from the tuplespace.
      * Returns null if none found.
@@ -66,6 +87,60 @@ public interface LindaRMI extends Remote {
      */
     public Collection<Tuple> readAll(Tuple template) throws RemoteException;
 
+    /**
+     * Opens a cursor over the tuples matching the template, for a streaming
+     * readAll (mode READ) or takeAll (mode TAKE): the tuples are then
+     * fetched page by page with {@link #fetch}, instead of in a single
+     * response. A cursor left idle for too long is closed by the server; in
+     * take mode, the tuples it has already returned stay taken.
+     *
+     * @return the id of the cursor
+     */
+    public long openCursor(eventMode mode, Tuple template) throws RemoteException;
+
+    /**
+     * Returns the next tuples of a cursor, at most max. Fewer than max tuples
+     * (possibly none) means that the cursor is exhausted. An exhausted read
+     * cursor, or take cursor whose last page is empty, is closed; otherwise
+     * an exhausted take cursor keeps its last page until
+     * {@link #closeCursor}.
+     *
+     * @throws java.util.NoSuchElementException if the cursor is unknown,
+     * closed or expired
+     */
+    public CompactTuple[] fetch(long cursor, int max) throws RemoteException;
+
+    /**
+     * Closes a cursor. Does nothing if it is already closed. In take mode,
+     * the server writes back the last <code>undelivered</code> tuples of the
+     * last page it returned: the same tuples, with their lease.
+     *
+     * @param undelivered the number of tuples of the last page that the
+     * client did not deliver
+     */
+    public void closeCursor(long cursor, int undelivered) throws RemoteException;
+
+    /**
+     * Adds all the tuples of the collection to the tuplespace, in a single
+     * call.
+     */
+    public void writeAll(CompactTuple[] ts) throws RemoteException;
+
+    /**
+     * Returns at most n tuples matching the template and removes them from
+     * the tuplespace. Returns an empty collection if none found (never
+     * blocks).
+     */
+    public Collection<Tuple> tryTakeN(Tuple template, int n) throws RemoteException;
+
+    /**
+     * Returns n tuples matching the template and removes them from the
+     * tuplespace. Blocks until n corresponding tuples have been found. The
+     * tuples are removed as they are found, not all at once (see
+     * {@link linda.Linda#takeN}).
+     */
+    public Collection<Tuple> takeN(Tuple template, int n) throws RemoteException;
+
     /**
      * Registers a callback which will be called when a tuple matching the
      * template appears. If the mode is Take, the found tuple is removed from
@@ -82,13 +157,58 @@ public interface LindaRMI extends Remote {
      * @param timing (potentially) immediate or only future firing.
      * @param template the filtering template.
      * @return the tuple find within the event.
+     * @deprecated holds a server thread per pending event; use
+     * {@link #register} instead.
      */
+    @Deprecated
     public Tuple waitEvent(eventMode mode, eventTiming timing, Tuple template) throws RemoteException;
 
+    /**
+     * Registers an event whose tuple is pushed to the listener, with the given
+     * id, when it fires (see {@link LindaListener#eventsFired}). Never blocks.
+     * All the events of a listener share one delivery channel.
+     * In take mode, a tuple refused by the listener is put back in the
+     * tuplespace.
+     *
+     * @param listener the client listener.
+     * @param id the event id, chosen by the client.
+     * @param mode read or take mode.
+     * @param timing (potentially) immediate or only future firing.
+     * @param template the filtering template.
+     */
+    public void register(LindaListener listener, long id, eventMode mode, eventTiming timing, Tuple template) throws RemoteException;
+
+    /**
+     * Subscribes the listener to every written tuple matching the template,
+     * pushed with the given id until cancelled with {@link #cancel}. In take
+     * mode, a tuple refused by the listener is put back in the tuplespace.
+     *
+     * @param listener the client listener.
+     * @param id the subscription id, chosen by the client.
+     * @param mode read or take mode.
+     * @param template the filtering template.
+     */
+    public void subscribe(LindaListener listener, long id, eventMode mode, Tuple template) throws RemoteException;
+
+    /**
+     * Cancels an event registered with {@link #register}, or a subscription.
+     *
+     * @param listener the client listener.
+     * @param id the event id.
+     * @return true if the event was still pending.
+     */
+    public boolean cancel(LindaListener listener, long id) throws RemoteException;
+
     /**
      * To debug, prints any information it wants (e.g. the tuples in tuplespace
      * or the registered callbacks), prefixed by
      * <code>prefix</code.
      */
     public void debug(String prefix) throws RemoteException;
+
+    /**
+     * Returns the current metrics of the server tuplespace: operation counts
+     * and latencies, tuples per arity, pending events.
+     */
+    public MetricsSnapshot metrics() throws RemoteException;
 }
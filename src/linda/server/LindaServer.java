@@ -4,23 +4,36 @@
  */
 package linda.server;
 
+import java.io.IOException;
+import java.nio.file.Paths;
 import java.rmi.RemoteException;
 import java.rmi.registry.LocateRegistry;
 import java.rmi.registry.Registry;
 import java.rmi.server.UnicastRemoteObject;
+import java.util.Arrays;
 import java.util.Collection;
-import java.util.concurrent.locks.Condition;
-import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 import java.util.logging.Logger;
-import linda.AsynchronousCallback;
-import linda.Linda;
+import javax.management.JMException;
+import linda.CompactTuple;
 import linda.Linda.eventMode;
 import linda.Linda.eventTiming;
+import linda.Trace;
 import linda.Tuple;
+import linda.shm.Capacity;
 import linda.shm.CentralizedLinda;
-import linda.shm.TupleBack;
+import linda.shm.CompactCursor;
+import linda.shm.Journal;
+import linda.shm.MetricsSnapshot;
 
 /**
  * Serveur linda. Gère un {@link CentralizedLinda} et les requêtes des clients.
@@ -33,7 +46,27 @@ public class LindaServer extends UnicastRemoteObject implements LindaRMI {
     /**
      * Le {@link CentralizedLinda} associé au serveur.
      */
-    public Linda linda;
+    public CentralizedLinda linda;
+    /**
+     * Les canaux d'évènements des clients, par écouteur.
+     */
+    private final Map<LindaListener, EventChannel> channels;
+    /**
+     * Les curseurs ouverts des readAll et takeAll en flux, par identifiant.
+     */
+    private final Map<Long, OpenCursor> cursors;
+    private final AtomicLong cursorIds;
+    /**
+     * Durée au-delà de laquelle un curseur inutilisé est fermé, en
+     * millisecondes (propriété linda.cursor.idle, une minute par défaut) :
+     * un client disparu ne garde pas son curseur indéfiniment.
+     */
+    private final long cursorIdle;
+    /**
+     * Le thread qui ferme les curseurs inutilisés, toutes les demi-durées
+     * d'inactivité
+     */
+    private final ScheduledExecutorService cursorReaper;
 
     /**
      * Initialize le linda server avec un {@link CentralizedLinda}.
@@ -41,7 +74,37 @@ public class LindaServer extends UnicastRemoteObject implements LindaRMI {
      * @throws RemoteException
      */
     public LindaServer() throws RemoteException {
-        this.linda = new CentralizedLinda();
+        this(new CentralizedLinda());
+    }
+
+    /**
+     * Initialize le linda server avec un {@link CentralizedLinda} donné, par
+     * exemple persistant.
+     *
+     * @param linda l'espace de tuples du serveur
+     * @throws RemoteException
+     */
+    public LindaServer(CentralizedLinda linda) throws RemoteException {
+        this.linda = linda;
+        this.channels = new ConcurrentHashMap<>();
+        this.cursors = new ConcurrentHashMap<>();
+        this.cursorIds = new AtomicLong();
+        this.cursorIdle = Long.getLong("linda.cursor.idle", 60000);
+        this.cursorReaper = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "linda-cursor-reaper");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        long period = Math.max(this.cursorIdle / 2, 1);
+        this.cursorReaper.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                reapCursors();
+            }
+        }, period, period, TimeUnit.MILLISECONDS);
     }
 
     /**
@@ -52,10 +115,23 @@ public class LindaServer extends UnicastRemoteObject implements LindaRMI {
      * @see CentralizedLinda
      */
     @Override
-    public void write(Tuple t) throws RemoteException {
+    public void write(CompactTuple t) throws RemoteException {
         this.linda.write(t);
     }
 
+    /**
+     * Effectue un write à bail sur le {@link CentralizedLinda}.
+     *
+     * @param t le tuple à écrire
+     * @param lease la durée de vie du tuple, en millisecondes
+     * @throws RemoteException
+     * @see CentralizedLinda
+     */
+    @Override
+    public void write(CompactTuple t, long lease) throws RemoteException {
+        this.linda.write(t, lease);
+    }
+
     /**
      * Effectue un take sur le {@link CentralizedLinda}. Bloquant si aucun tuple
      * ne correspond.
@@ -84,6 +160,36 @@ public class LindaServer extends UnicastRemoteObject implements LindaRMI {
         return this.linda.read(template);
     }
 
+    /**
+     * Effectue un take borné dans le temps sur le {@link CentralizedLinda}.
+     * Le thread du serveur et l'évènement associé sont libérés à l'échéance,
+     * même si le client a disparu.
+     *
+     * @param template le template du tuple à prendre.
+     * @param timeout le délai maximal d'attente, en millisecondes.
+     * @return le tuple pris, ou null à l'échéance.
+     * @throws RemoteException
+     * @see CentralizedLinda
+     */
+    @Override
+    public Tuple take(Tuple template, long timeout) throws RemoteException {
+        return this.linda.take(template, timeout);
+    }
+
+    /**
+     * Effectue un read borné dans le temps sur le {@link CentralizedLinda}.
+     *
+     * @param template le template du tuple à lire.
+     * @param timeout le délai maximal d'attente, en millisecondes.
+     * @return le tuple lu, ou null à l'échéance.
+     * @throws RemoteException
+     * @see CentralizedLinda
+     */
+    @Override
+    public Tuple read(Tuple template, long timeout) throws RemoteException {
+        return this.linda.read(template, timeout);
+    }
+
     /**
      * Effectue le tryTake sur le {@link CentralizedLinda}.
      *
@@ -138,9 +244,129 @@ public class LindaServer extends UnicastRemoteObject implements LindaRMI {
         return this.linda.readAll(template);
     }
 
+    /**
+     * Ouvre un curseur de readAll ou de takeAll en flux sur le
+     * {@link CentralizedLinda}.
+     *
+     * @param mode READ pour un readAll, TAKE pour un takeAll
+     * @param template le template des tuples
+     * @return l'identifiant du curseur
+     * @throws RemoteException
+     */
+    @Override
+    public long openCursor(eventMode mode, Tuple template) throws RemoteException {
+        CompactCursor cursor = mode == eventMode.TAKE
+                ? this.linda.takeAllCursor(template)
+                : this.linda.readAllCursor(template);
+        long id = this.cursorIds.incrementAndGet();
+        this.cursors.put(id, new OpenCursor(mode, cursor, System.currentTimeMillis()));
+        return id;
+    }
+
+    /**
+     * Ferme les curseurs inutilisés depuis plus de <code>cursorIdle</code>
+     * millisecondes. Les tuples qu'un curseur take a déjà rendus restent
+     * pris : le client a pu les livrer.
+     */
+    private void reapCursors() {
+        long now = System.currentTimeMillis();
+        Iterator<OpenCursor> it = this.cursors.values().iterator();
+        while (it.hasNext()) {
+            OpenCursor open = it.next();
+            if (now - open.used > this.cursorIdle) {
+                it.remove();
+                open.close(0);
+            }
+        }
+    }
+
+    /**
+     * Rend la page suivante d'un curseur, et le ferme s'il est épuisé. Un
+     * curseur take épuisé garde sa dernière page, si elle n'est pas vide,
+     * jusqu'à sa fermeture par le client.
+     *
+     * @param cursor l'identifiant du curseur
+     * @param max le nombre maximal de tuples
+     * @return les tuples suivants, moins de max à la fin du curseur
+     * @throws RemoteException
+     */
+    @Override
+    public CompactTuple[] fetch(long cursor, int max) throws RemoteException {
+        OpenCursor open = this.cursors.get(cursor);
+        if (open == null) {
+            throw new NoSuchElementException("Curseur inconnu ou expiré : " + cursor);
+        }
+        CompactTuple[] page = open.fetch(max);
+        if (page.length < max && (open.mode == eventMode.READ || page.length == 0)) {
+            this.cursors.remove(cursor);
+            open.close(0);
+        }
+        return page;
+    }
+
+    /**
+     * Ferme un curseur. En mode take, les tuples de sa dernière page que le
+     * client n'a pas livrés sont réécrits : les instances prises, qui gardent
+     * leur bail.
+     *
+     * @param cursor l'identifiant du curseur
+     * @param undelivered le nombre de tuples de la dernière page non livrés
+     * @throws RemoteException
+     */
+    @Override
+    public void closeCursor(long cursor, int undelivered) throws RemoteException {
+        OpenCursor open = this.cursors.remove(cursor);
+        if (open != null) {
+            open.close(undelivered);
+        }
+    }
+
+    /**
+     * Effectue un writeAll sur le {@link CentralizedLinda} : tout le lot est
+     * appliqué en un seul appel distant.
+     *
+     * @param ts les tuples à écrire.
+     * @throws RemoteException
+     * @see CentralizedLinda
+     */
+    @Override
+    public void writeAll(CompactTuple[] ts) throws RemoteException {
+        this.linda.writeAll(ts);
+    }
+
+    /**
+     * Effectue un tryTakeN sur le {@link CentralizedLinda}.
+     *
+     * @param template le template des tuples à prendre.
+     * @param n le nombre maximal de tuples à prendre.
+     * @return les tuples pris, collection vide si aucun.
+     * @throws RemoteException
+     * @see CentralizedLinda
+     */
+    @Override
+    public Collection<Tuple> tryTakeN(Tuple template, int n) throws RemoteException {
+        return this.linda.tryTakeN(template, n);
+    }
+
+    /**
+     * Effectue un takeN sur le {@link CentralizedLinda}. Bloquant tant que n
+     * tuples n'ont pas été pris.
+     *
+     * @param template le template des tuples à prendre.
+     * @param n le nombre de tuples à prendre.
+     * @return les n tuples pris.
+     * @throws RemoteException
+     * @see CentralizedLinda
+     */
+    @Override
+    public Collection<Tuple> takeN(Tuple template, int n) throws RemoteException {
+        return this.linda.takeN(template, n);
+    }
+
     /**
      * Retourne le tuple d'un évènement. Pas de notion de callback ici.
-     * Attention, bloquant tant que l'évènement n'a pas eu lieu.
+     * Attention, bloquant tant que l'évènement n'a pas eu lieu. Remplacé par
+     * {@link #register}, qui ne bloque aucun thread.
      *
      * @param mode le mode de l'évènement (take ou read).
      * @param timing le timind de l'évènement (immédiat ou futur).
@@ -149,25 +375,79 @@ public class LindaServer extends UnicastRemoteObject implements LindaRMI {
      * @throws RemoteException
      */
     @Override
+    @Deprecated
     public Tuple waitEvent(eventMode mode, eventTiming timing, Tuple template) throws RemoteException {
-        System.out.println("Enregistrement d'un Event");
-        Lock lock = new ReentrantLock();
-        Condition cond = lock.newCondition();
-        TupleBack tb = new TupleBack(lock, cond);
-        this.linda.eventRegister(mode, timing, template, new AsynchronousCallback(tb));
-        // prend le verrou
-        tb.lock();
-        try {
-            // met en attente
-            tb.await();
-        } catch (InterruptedException ex) {
+        Trace.event(Trace.Level.DEBUG, "waitEvent", mode, template);
+        // le future ne peut pas manquer un évènement déclenché avant l'attente
+        return this.linda.eventAsync(mode, timing, template).join();
+    }
+
+    /**
+     * Enregistre un évènement pour un client, sans bloquer : le tuple trouvé
+     * est poussé à l'écouteur du client par le canal de ce client, partagé
+     * par tous ses évènements. Si le client refuse le tuple ou est
+     * injoignable, un tuple pris est remis en mémoire.
+     *
+     * @param listener l'écouteur du client.
+     * @param id le numéro de l'évènement choisi par le client.
+     * @param mode le mode de l'évènement (take ou read).
+     * @param timing le timing de l'évènement (immédiat ou futur).
+     * @param template le template du tuple associé à l'évènement.
+     * @throws RemoteException
+     */
+    @Override
+    public void register(LindaListener listener, long id, eventMode mode, eventTiming timing, Tuple template) throws RemoteException {
+        // un canal retiré entre temps est remplacé
+        while (!this.channelOf(listener).register(id, mode, timing, template)) {
+            Thread.yield();
+        }
+    }
+
+    /**
+     * @param listener l'écouteur d'un client.
+     * @return le canal d'évènements du client, créé au premier besoin.
+     */
+    private EventChannel channelOf(LindaListener listener) {
+        EventChannel channel = this.channels.get(listener);
+        if (channel == null) {
+            channel = new EventChannel(listener, this.linda, this.channels);
+            EventChannel previous = this.channels.putIfAbsent(listener, channel);
+            if (previous != null) {
+                channel = previous;
+            }
+        }
+        return channel;
+    }
 
-            Logger.getLogger(CentralizedLinda.class.getName()).log(Level.SEVERE, null, ex);
-        } finally {
-            // debloque le verrou
-            tb.unlock();
+    /**
+     * Abonne un client : chaque tuple écrit qui match le template est poussé
+     * à son écouteur par son canal, jusqu'à l'annulation.
+     *
+     * @param listener l'écouteur du client.
+     * @param id le numéro de l'abonnement choisi par le client.
+     * @param mode le mode de l'abonnement (take ou read).
+     * @param template le template des tuples à recevoir.
+     * @throws RemoteException
+     */
+    @Override
+    public void subscribe(LindaListener listener, long id, eventMode mode, Tuple template) throws RemoteException {
+        while (!this.channelOf(listener).subscribe(id, mode, template)) {
+            Thread.yield();
         }
-        return tb.getTuple();
+    }
+
+    /**
+     * Annule un évènement ou un abonnement d'un client.
+     *
+     * @param listener l'écouteur du client.
+     * @param id le numéro de l'évènement.
+     * @return vrai si l'évènement était encore en attente.
+     * @throws RemoteException
+     */
+    @Override
+    public boolean cancel(LindaListener listener, long id) throws RemoteException {
+        EventChannel channel = this.channels.get(listener);
+        return channel != null && channel.cancel(id);
     }
 
     /**
@@ -181,15 +461,186 @@ public class LindaServer extends UnicastRemoteObject implements LindaRMI {
     }
 
     /**
+     * Renvoie les mesures du {@link CentralizedLinda}.
+     *
+     * @return les mesures courantes.
+     * @see CentralizedLinda#metrics()
+     */
+    @Override
+    public MetricsSnapshot metrics() {
+        return this.linda.metrics().snapshot();
+    }
+
+    /**
+     * Crée un serveur et l'enregistre dans un registre RMI créé sur le port
+     * donné, sous l'URI <code>rmi://host:port/name</code>. Ses mesures sont
+     * enregistrées auprès de JMX sous le nom <code>port/name</code>.
+     * Plusieurs serveurs (par exemple les shards d'un
+     * {@link ShardedLindaClient}) peuvent tourner dans la même JVM, sur des
+     * ports différents.
+     *
+     * @param port le port du registre
+     * @param name le nom du serveur dans le registre
+     * @return le serveur
+     * @throws RemoteException si le registre ne peut pas être créé
+     */
+    public static LindaServer start(int port, String name) throws RemoteException {
+        LindaServer server = new LindaServer(createLinda());
+        Registry rs = LocateRegistry.createRegistry(port);
+        rs.rebind(name, server);
+        try {
+            // mesures consultables par JMX (jconsole, ...)
+            server.linda.metrics().register(port + "/" + name);
+        } catch (JMException ex) {
+            Logger.getLogger(LindaServer.class.getName()).log(Level.SEVERE, null, ex);
+        }
+        return server;
+    }
+
+    /**
+     * Crée l'espace de tuples d'un serveur. Si la propriété
+     * <code>linda.journal</code> donne un répertoire, l'espace est persistant
+     * et journalisé dans ce répertoire, avec la politique
+     * <code>linda.journal.sync</code> (none, periodic ou commit, par défaut
+     * commit), la période <code>linda.journal.period</code> en millisecondes
+     * et un instantané tous les <code>linda.journal.snapshot</code>
+     * enregistrements. Si la propriété <code>linda.offheap</code> donne un
+     * répertoire, les tuples sont stockés hors du tas Java, dans des segments
+     * de fichiers de ce répertoire. Si la propriété
+     * <code>linda.capacity</code> donne un nombre de tuples, l'espace est
+     * limité à ce nombre, avec la politique <code>linda.capacity.policy</code>
+     * (block, reject ou evict_oldest, par défaut block) : un client bloqué ou
+     * rejeté l'est à travers son appel distant. L'espace est découpé en
+     * <code>linda.stripes</code> partitions, par défaut le nombre de
+     * processeurs.
+     *
+     * @return l'espace de tuples
+     * @throws RemoteException si le journal ne peut pas être ouvert
+     */
+    private static CentralizedLinda createLinda() throws RemoteException {
+        String dir = System.getProperty("linda.journal");
+        String offHeap = System.getProperty("linda.offheap");
+        Long max = Long.getLong("linda.capacity");
+        int stripes = stripesProperty();
+        if (dir == null && offHeap == null && max == null) {
+            return new CentralizedLinda(stripes);
+        }
+        Capacity capacity = null;
+        if (max != null) {
+            capacity = new Capacity(policyProperty(), max);
+        }
+        try {
+            Journal journal = null;
+            if (dir != null) {
+                journal = new Journal(Paths.get(dir),
+                        Journal.Sync.valueOf(System.getProperty("linda.journal.sync", "commit").toUpperCase()),
+                        Long.getLong("linda.journal.period", 10),
+                        Long.getLong("linda.journal.snapshot", 1000000));
+            }
+            return new CentralizedLinda(stripes, journal, offHeap == null ? null : Paths.get(offHeap), capacity);
+        } catch (IOException ex) {
+            throw new RemoteException("cannot open storage", ex);
+        }
+    }
+
+    /**
+     * Lit <code>linda.capacity.policy</code> ; une valeur inconnue est
+     * signalée et remplacée par block.
+     *
+     * @return la politique d'un espace limité
+     */
+    private static Capacity.Policy policyProperty() {
+        String value = System.getProperty("linda.capacity.policy", "block");
+        try {
+            return Capacity.Policy.valueOf(value.trim().toUpperCase());
+        } catch (IllegalArgumentException ex) {
+            Logger.getLogger(LindaServer.class.getName()).log(Level.WARNING, "invalid linda.capacity.policy: {0}, using block", value);
+            return Capacity.Policy.BLOCK;
+        }
+    }
+
+    /**
+     * Lit <code>linda.stripes</code> ; une valeur qui n'est pas un nombre
+     * supérieur à 0 est signalée et remplacée par le nombre de processeurs.
+     *
+     * @return le nombre de partitions de l'espace
+     */
+    private static int stripesProperty() {
+        int processors = Runtime.getRuntime().availableProcessors();
+        String value = System.getProperty("linda.stripes");
+        if (value == null) {
+            return processors;
+        }
+        try {
+            int stripes = Integer.parseInt(value.trim());
+            if (stripes >= 1) {
+                return stripes;
+            }
+        } catch (NumberFormatException ex) {
+            // signalé plus bas
+        }
+        Logger.getLogger(LindaServer.class.getName()).log(Level.WARNING, "invalid linda.stripes: {0}, using {1}", new Object[] { value, processors });
+        return processors;
+    }
+
+    /**
+     * Lance un serveur : <code>LindaServer [port [nom]]</code>, par défaut
+     * sur le port 8080 sous le nom "linda". Pour un espace partagé entre
+     * plusieurs serveurs, lancer un serveur par shard (ports ou machines
+     * différents) et s'y connecter par un {@link ShardedLindaClient}.
+     *
      * @param args the command line arguments
      */
     public static void main(String[] args) {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : 8080;
+        String name = args.length > 1 ? args[1] : "linda";
         try {
-            LindaServer server = new LindaServer();
-            Registry rs = LocateRegistry.createRegistry(8080);
-            rs.rebind("linda", server);
+            start(port, name);
         } catch (RemoteException ex) {
             Logger.getLogger(LindaServer.class.getName()).log(Level.SEVERE, null, ex);
         }
     }
+
+    /**
+     * Un curseur ouvert, la date de sa dernière utilisation et, en mode take,
+     * la dernière page rendue.
+     */
+    private final class OpenCursor {
+
+        private final eventMode mode;
+        private final CompactCursor cursor;
+        private volatile long used;
+        private CompactTuple[] last;
+
+        OpenCursor(eventMode mode, CompactCursor cursor, long used) {
+            this.mode = mode;
+            this.cursor = cursor;
+            this.used = used;
+            this.last = new CompactTuple[0];
+        }
+
+        synchronized CompactTuple[] fetch(int max) {
+            this.used = System.currentTimeMillis();
+            CompactTuple[] page = this.cursor.next(max);
+            if (this.mode == eventMode.TAKE) {
+                // la page précédente a été livrée en entier
+                this.last = page;
+            }
+            return page;
+        }
+
+        /**
+         * @param undelivered le nombre de tuples de la dernière page à
+         * réécrire
+         */
+        synchronized void close(int undelivered) {
+            this.cursor.close();
+            int from = Math.max(this.last.length - undelivered, 0);
+            if (from < this.last.length) {
+                // un tuple échu entre temps n'est pas remis
+                linda.putBack(Arrays.asList(this.last).subList(from, this.last.length));
+            }
+            this.last = new CompactTuple[0];
+        }
+    }
 }
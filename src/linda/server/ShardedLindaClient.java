@@ -0,0 +1,531 @@
+package linda.server;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.BiConsumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import linda.AsyncLinda;
+import linda.Callback;
+import linda.CapacityExceededException;
+import linda.Cursor;
+import linda.Dispatcher;
+import linda.Subscription;
+import linda.Trace;
+import linda.Tuple;
+import linda.shm.MetricsSnapshot;
+
+/**
+ * Client d'un espace de tuples partagé entre plusieurs {@link LindaServer}.
+ * Chaque serveur (shard) possède les tuples d'une partie des familles : un
+ * tuple est rangé dans le shard désigné par son arité et le hash de son
+ * premier champ. Les write et les templates dont le premier champ est une
+ * valeur vont directement au shard propriétaire ; les autres templates
+ * (premier champ classe ou tuple) sont envoyés à tous les shards.
+ * <p>
+ * Tous les clients d'un même espace doivent donner les mêmes serveurs dans
+ * le même ordre, et les premiers champs doivent avoir un hash indépendant de
+ * la JVM (String, Integer, Boolean, Character, Tuple de ceux-ci, ...).
+ * L'ordre des write est garanti par shard, pas entre shards.
+ *
+ * @author Alexandra Jacquet
+ * @author Florian Vetu
+ */
+public class ShardedLindaClient implements AsyncLinda {
+
+    /**
+     * Les clients des shards, dans l'ordre des serveurs.
+     */
+    private final LindaClient[] shards;
+
+    /**
+     * Se connecte à chaque serveur de l'espace.
+     *
+     * @param serverURIs les URI des serveurs, par exemple
+     * "rmi://127.0.0.1:8080/linda" ; le même ordre pour tous les clients.
+     */
+    public ShardedLindaClient(String... serverURIs) {
+        if (serverURIs.length == 0) {
+            throw new IllegalArgumentException("no server");
+        }
+        this.shards = new LindaClient[serverURIs.length];
+        for (int i = 0; i < serverURIs.length; i++) {
+            this.shards[i] = new LindaClient(serverURIs[i]);
+        }
+    }
+
+    /**
+     * @param arity l'arité d'un tuple
+     * @param first son premier champ, null s'il est vide
+     * @param n le nombre de shards
+     * @return le numéro du shard qui possède le tuple
+     */
+    public static int shardOf(int arity, Object first, int n) {
+        int h = 31 * arity;
+        if (first instanceof Class) {
+            // le hash d'une classe dépend de la JVM, pas son nom
+            h += ((Class<?>) first).getName().hashCode();
+        } else if (first != null) {
+            h += first.hashCode();
+        }
+        // mélange des bits de poids fort, comme HashMap
+        h ^= (h >>> 16);
+        return (h & Integer.MAX_VALUE) % n;
+    }
+
+    /**
+     * @param t un tuple
+     * @return le client du shard qui possède le tuple
+     */
+    private LindaClient shardOf(Tuple t) {
+        return this.shards[shardOf(t.size(), t.isEmpty() ? null : t.getFirst(), this.shards.length)];
+    }
+
+    /**
+     * @param template un template
+     * @return le client du seul shard pouvant contenir un tuple correspondant
+     * au template, ou null si le premier champ n'est pas une valeur
+     */
+    private LindaClient shardOfTemplate(Tuple template) {
+        if (this.shards.length == 1) {
+            return this.shards[0];
+        }
+        if (!template.isEmpty()) {
+            Serializable first = template.getFirst();
+            if (first instanceof Class || first instanceof Tuple) {
+                return null;
+            }
+        }
+        return this.shardOf(template);
+    }
+
+    @Override
+    public void write(Tuple t) {
+        this.shardOf(t).write(t);
+    }
+
+    @Override
+    public void write(Tuple t, long lease) {
+        this.shardOf(t).write(t, lease);
+    }
+
+    /**
+     * Procédure writeAll. Les tuples sont regroupés par shard, et chaque
+     * groupe est envoyé en un seul appel distant. Si un shard rejette un
+     * tuple, les groupes suivants ne sont pas envoyés, et la
+     * {@link CapacityExceededException} compte tous les tuples écrits : ceux
+     * des groupes précédents, puis ceux du groupe rejeté. Ce ne sont pas
+     * forcément les premiers tuples du lot.
+     *
+     * @param ts les tuples à écrire, dans l'ordre
+     */
+    @Override
+    public void writeAll(Collection<Tuple> ts) {
+        Map<LindaClient, List<Tuple>> groups = new LinkedHashMap<>();
+        for (Tuple t : ts) {
+            LindaClient shard = this.shardOf(t);
+            List<Tuple> group = groups.get(shard);
+            if (group == null) {
+                group = new ArrayList<>();
+                groups.put(shard, group);
+            }
+            group.add(t);
+        }
+        int written = 0;
+        for (Map.Entry<LindaClient, List<Tuple>> group : groups.entrySet()) {
+            try {
+                group.getKey().writeAll(group.getValue());
+            } catch (CapacityExceededException ex) {
+                throw new CapacityExceededException(ex.getMessage(), written + ex.getWritten());
+            }
+            written += group.getValue().size();
+        }
+    }
+
+    @Override
+    public Tuple take(Tuple template) {
+        LindaClient shard = this.shardOfTemplate(template);
+        if (shard != null) {
+            return shard.take(template);
+        }
+        return this.join(this.eventAsync(eventMode.TAKE, eventTiming.IMMEDIATE, template));
+    }
+
+    @Override
+    public Tuple read(Tuple template) {
+        LindaClient shard = this.shardOfTemplate(template);
+        if (shard != null) {
+            return shard.read(template);
+        }
+        return this.join(this.eventAsync(eventMode.READ, eventTiming.IMMEDIATE, template));
+    }
+
+    @Override
+    public Tuple take(Tuple template, long timeout) {
+        LindaClient shard = this.shardOfTemplate(template);
+        if (shard != null) {
+            return shard.take(template, timeout);
+        }
+        return this.await(this.eventAsync(eventMode.TAKE, eventTiming.IMMEDIATE, template), timeout);
+    }
+
+    @Override
+    public Tuple read(Tuple template, long timeout) {
+        LindaClient shard = this.shardOfTemplate(template);
+        if (shard != null) {
+            return shard.read(template, timeout);
+        }
+        return this.await(this.eventAsync(eventMode.READ, eventTiming.IMMEDIATE, template), timeout);
+    }
+
+    /**
+     * Fonction tryTake. Un template sans valeur en premier champ essaie
+     * chaque shard, dans l'ordre.
+     */
+    @Override
+    public Tuple tryTake(Tuple template) {
+        LindaClient shard = this.shardOfTemplate(template);
+        if (shard != null) {
+            return shard.tryTake(template);
+        }
+        for (LindaClient s : this.shards) {
+            Tuple t = s.tryTake(template);
+            if (t != null) {
+                return t;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Fonction tryRead. Un template sans valeur en premier champ essaie
+     * chaque shard, dans l'ordre.
+     */
+    @Override
+    public Tuple tryRead(Tuple template) {
+        LindaClient shard = this.shardOfTemplate(template);
+        if (shard != null) {
+            return shard.tryRead(template);
+        }
+        for (LindaClient s : this.shards) {
+            Tuple t = s.tryRead(template);
+            if (t != null) {
+                return t;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public Collection<Tuple> takeAll(Tuple template) {
+        LindaClient shard = this.shardOfTemplate(template);
+        if (shard != null) {
+            return shard.takeAll(template);
+        }
+        Collection<Tuple> all = new ArrayList<>();
+        for (LindaClient s : this.shards) {
+            addAll(all, s.takeAll(template));
+        }
+        return all;
+    }
+
+    @Override
+    public Collection<Tuple> readAll(Tuple template) {
+        LindaClient shard = this.shardOfTemplate(template);
+        if (shard != null) {
+            return shard.readAll(template);
+        }
+        Collection<Tuple> all = new ArrayList<>();
+        for (LindaClient s : this.shards) {
+            addAll(all, s.readAll(template));
+        }
+        return all;
+    }
+
+    @Override
+    public Cursor readAllCursor(Tuple template) {
+        LindaClient shard = this.shardOfTemplate(template);
+        if (shard != null) {
+            return shard.readAllCursor(template);
+        }
+        return new ShardsCursor(template, false);
+    }
+
+    @Override
+    public Cursor takeAllCursor(Tuple template) {
+        LindaClient shard = this.shardOfTemplate(template);
+        if (shard != null) {
+            return shard.takeAllCursor(template);
+        }
+        return new ShardsCursor(template, true);
+    }
+
+    @Override
+    public Collection<Tuple> tryTakeN(Tuple template, int n) {
+        LindaClient shard = this.shardOfTemplate(template);
+        if (shard != null) {
+            return shard.tryTakeN(template, n);
+        }
+        Collection<Tuple> all = new ArrayList<>();
+        for (int i = 0; all.size() < n && i < this.shards.length; i++) {
+            addAll(all, this.shards[i].tryTakeN(template, n - all.size()));
+        }
+        return all;
+    }
+
+    @Override
+    public Collection<Tuple> takeN(Tuple template, int n) {
+        LindaClient shard = this.shardOfTemplate(template);
+        if (shard != null) {
+            return shard.takeN(template, n);
+        }
+        Collection<Tuple> all = this.tryTakeN(template, n);
+        while (all.size() < n) {
+            Tuple t = this.take(template);
+            if (t == null) {
+                break;
+            }
+            all.add(t);
+        }
+        return all;
+    }
+
+    /**
+     * Procédure eventRegister. Le callback est appelé par le Dispatcher quand
+     * l'un des shards concernés a déclenché l'évènement.
+     */
+    @Override
+    public void eventRegister(eventMode mode, eventTiming timing, final Tuple template, final Callback callback) {
+        Trace.event(Trace.Level.DEBUG, "eventRegister", mode, template);
+        this.eventAsync(mode, timing, template).whenCompleteAsync(new BiConsumer<Tuple, Throwable>() {
+            @Override
+            public void accept(Tuple tuple, Throwable ex) {
+                if (ex != null) {
+                    Logger.getLogger(ShardedLindaClient.class.getName()).log(Level.SEVERE, null, ex);
+                    return;
+                }
+                callback.call(tuple);
+            }
+        }, Dispatcher.callbacks());
+    }
+
+    /**
+     * Fonction subscribe. Un template sans valeur en premier champ est
+     * abonné auprès de chaque shard.
+     */
+    @Override
+    public Subscription subscribe(eventMode mode, Tuple template, Callback callback) {
+        LindaClient shard = this.shardOfTemplate(template);
+        if (shard != null) {
+            return shard.subscribe(mode, template, callback);
+        }
+        final List<Subscription> subscriptions = new ArrayList<>();
+        for (LindaClient s : this.shards) {
+            Subscription sub = s.subscribe(mode, template, callback);
+            if (sub != null) {
+                subscriptions.add(sub);
+            }
+        }
+        return new Subscription() {
+            @Override
+            public void cancel() {
+                for (Subscription sub : subscriptions) {
+                    sub.cancel();
+                }
+            }
+        };
+    }
+
+    @Override
+    public CompletableFuture<Tuple> takeAsync(Tuple template) {
+        return this.eventAsync(eventMode.TAKE, eventTiming.IMMEDIATE, template);
+    }
+
+    @Override
+    public CompletableFuture<Tuple> readAsync(Tuple template) {
+        return this.eventAsync(eventMode.READ, eventTiming.IMMEDIATE, template);
+    }
+
+    /**
+     * Fonction eventAsync. Un template sans valeur en premier champ est
+     * d'abord essayé sur chaque shard (timing immédiat), puis enregistré
+     * auprès de chaque shard : le premier tuple reçu complète le future et
+     * les autres évènements sont annulés. En mode take, un tuple pris par un
+     * autre shard au même instant est refusé par l'écouteur, et son serveur
+     * le remet lui-même en mémoire, avec son bail.
+     *
+     * @param mode le mode de l'évènement.
+     * @param timing le timing de l'évènement.
+     * @param template le template recherché.
+     * @return un future complété par le tuple trouvé.
+     */
+    @Override
+    public CompletableFuture<Tuple> eventAsync(eventMode mode, eventTiming timing, Tuple template) {
+        LindaClient shard = this.shardOfTemplate(template);
+        if (shard != null) {
+            return shard.eventAsync(mode, timing, template);
+        }
+        if (timing.equals(eventTiming.IMMEDIATE)) {
+            // un tuple présent est pris sans enregistrer d'évènement
+            Tuple t = mode.equals(eventMode.TAKE) ? this.tryTake(template) : this.tryRead(template);
+            if (t != null) {
+                return CompletableFuture.completedFuture(t);
+            }
+        }
+        // un seul future pour tous les shards : chacun annule son évènement
+        // dès que le future est complété
+        CompletableFuture<Tuple> result = new CompletableFuture<>();
+        for (LindaClient s : this.shards) {
+            s.eventAsync(mode, timing, template, result);
+        }
+        return result;
+    }
+
+    /**
+     * Ajoute la réponse d'un shard, null s'il est injoignable.
+     */
+    private static void addAll(Collection<Tuple> all, Collection<Tuple> part) {
+        if (part != null) {
+            all.addAll(part);
+        }
+    }
+
+    /**
+     * Attend le résultat d'un évènement.
+     *
+     * @param future le future de l'évènement
+     * @return le tuple trouvé, null en cas d'erreur
+     */
+    private Tuple join(CompletableFuture<Tuple> future) {
+        try {
+            return future.join();
+        } catch (CompletionException ex) {
+            Logger.getLogger(ShardedLindaClient.class.getName()).log(Level.SEVERE, null, ex);
+        }
+        return null;
+    }
+
+    /**
+     * Attend le résultat d'un évènement au plus <code>timeout</code>
+     * millisecondes, puis l'annule.
+     *
+     * @param future le future de l'évènement
+     * @param timeout le délai maximal d'attente, en millisecondes
+     * @return le tuple trouvé, null à l'échéance
+     */
+    private Tuple await(CompletableFuture<Tuple> future, long timeout) {
+        try {
+            return future.get(timeout, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException ex) {
+            // échéance : l'annulation annule les évènements de chaque shard
+            future.cancel(false);
+        } catch (InterruptedException ex) {
+            future.cancel(false);
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException ex) {
+            Logger.getLogger(ShardedLindaClient.class.getName()).log(Level.SEVERE, null, ex);
+        }
+        // le tuple a pu arriver entre l'échéance et l'annulation
+        return future.isCancelled() ? null : future.getNow(null);
+    }
+
+    /**
+     * Procédure flush. Envoie les write en attente de chaque shard.
+     */
+    public void flush() {
+        for (LindaClient s : this.shards) {
+            s.flush();
+        }
+    }
+
+    /**
+     * Procédure close. Ferme le client de chaque shard (voir
+     * {@link LindaClient#close()}).
+     */
+    public void close() {
+        for (LindaClient s : this.shards) {
+            s.close();
+        }
+    }
+
+    /**
+     * Fonction metrics. Récupère les mesures de chaque shard.
+     *
+     * @return les mesures des shards, dans l'ordre des serveurs (null pour un
+     * shard injoignable)
+     */
+    public List<MetricsSnapshot> metrics() {
+        List<MetricsSnapshot> list = new ArrayList<>(this.shards.length);
+        for (LindaClient s : this.shards) {
+            list.add(s.metrics());
+        }
+        return list;
+    }
+
+    @Override
+    public void debug(String prefix) {
+        for (int i = 0; i < this.shards.length; i++) {
+            this.shards[i].debug(prefix + " [shard " + i + "]");
+        }
+    }
+
+    /**
+     * Curseur d'un template sans premier champ concret : enchaîne les
+     * curseurs des shards, chacun ouvert quand le précédent est épuisé.
+     */
+    private final class ShardsCursor implements Cursor {
+
+        private final Tuple template;
+        private final boolean take;
+        private int next;
+        private Cursor current;
+
+        ShardsCursor(Tuple template, boolean take) {
+            this.template = template;
+            this.take = take;
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (this.current == null || !this.current.hasNext()) {
+                if (this.current != null) {
+                    this.current.close();
+                    this.current = null;
+                }
+                if (this.next == shards.length) {
+                    return false;
+                }
+                LindaClient shard = shards[this.next++];
+                this.current = this.take ? shard.takeAllCursor(this.template) : shard.readAllCursor(this.template);
+            }
+            return true;
+        }
+
+        @Override
+        public Tuple next() {
+            if (!this.hasNext()) {
+                throw new NoSuchElementException();
+            }
+            return this.current.next();
+        }
+
+        @Override
+        public void close() {
+            if (this.current != null) {
+                this.current.close();
+                this.current = null;
+            }
+            this.next = shards.length;
+        }
+    }
+}
@@ -0,0 +1,270 @@
+package linda.shm;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import linda.CompactTuple;
+import linda.Tuple;
+
+/**
+ * Limites de capacité d'un {@link CentralizedLinda} : un nombre maximal de
+ * tuples en mémoire pour tout l'espace, et pour chaque famille de tuples
+ * (les tuples correspondant à un template). Un tuple n'occupe une place que
+ * s'il est rangé en mémoire : un tuple consommé dès son écriture par un take
+ * en attente passe toujours. Quand un write trouve l'espace plein, la
+ * politique ({@link Policy}) décide de son sort.
+ * <p>
+ * Les places sont comptées par des compteurs atomiques, pris par le write
+ * sous le verrou de la partition du tuple et rendus par chaque retrait. Les
+ * writers bloqués attendent sur le moniteur des limites, qui n'est pris par
+ * un retrait que si un writer attend.
+ *
+ * @author Alexandra Jacquet
+ * @author Florian Vetu
+ */
+public class Capacity {
+
+    /**
+     * Sort d'un write quand l'espace est plein.
+     */
+    public enum Policy {
+        /**
+         * Le writer attend qu'un take libère une place
+         */
+        BLOCK,
+        /**
+         * Le write lève une {@link linda.CapacityExceededException}
+         */
+        REJECT,
+        /**
+         * Le plus ancien tuple de la famille pleine est enlevé pour faire
+         * place ; pour la limite globale, le plus ancien tuple de même arité
+         * et de même premier champ que le tuple écrit (à défaut, le write est
+         * rejeté)
+         */
+        EVICT_OLDEST
+    };
+
+    private final Policy policy;
+    /**
+     * La limite globale, null si l'espace n'est limité que par famille : pas
+     * de compteur partagé par tous les write
+     */
+    private final Limit global;
+    /**
+     * Les limites par famille
+     */
+    private final List<Limit> families;
+    /**
+     * Le nombre de writers bloqués
+     */
+    private final AtomicInteger waiting;
+
+    /**
+     * Crée les limites d'un espace.
+     *
+     * @param policy le sort d'un write quand l'espace est plein
+     * @param maxTuples le nombre maximal de tuples de l'espace,
+     * {@link Long#MAX_VALUE} pour ne limiter que des familles
+     */
+    public Capacity(Policy policy, long maxTuples) {
+        if (maxTuples < 1) {
+            throw new IllegalArgumentException("maxTuples < 1 : " + maxTuples);
+        }
+        this.policy = policy;
+        this.global = maxTuples == Long.MAX_VALUE ? null : new Limit(null, maxTuples);
+        this.families = new ArrayList<>();
+        this.waiting = new AtomicInteger();
+    }
+
+    /**
+     * Limite une famille de tuples. À donner avant la création de l'espace.
+     *
+     * @param template le template des tuples de la famille
+     * @param maxTuples le nombre maximal de tuples de la famille
+     * @return ces limites
+     */
+    public Capacity limit(Tuple template, long maxTuples) {
+        if (maxTuples < 1) {
+            throw new IllegalArgumentException("maxTuples < 1 : " + maxTuples);
+        }
+        this.families.add(new Limit(Matcher.compile(template), maxTuples));
+        return this;
+    }
+
+    /**
+     * @return le sort d'un write quand l'espace est plein
+     */
+    public Policy getPolicy() {
+        return this.policy;
+    }
+
+    /**
+     * @return le nombre de writers bloqués en attente de place
+     */
+    public int getWaitingWriters() {
+        return this.waiting.get();
+    }
+
+    /**
+     * Prend une place pour un tuple, dans l'espace et dans chacune de ses
+     * familles.
+     *
+     * @param t le tuple à ranger
+     * @return faux si une des limites est atteinte ; aucune place n'est
+     * alors prise
+     */
+    boolean tryAcquire(CompactTuple t) {
+        if (this.global != null && !this.global.tryAcquire()) {
+            return false;
+        }
+        for (int i = 0; i < this.families.size(); i++) {
+            Limit family = this.families.get(i);
+            if (family.matcher.matches(t) && !family.tryAcquire()) {
+                for (int j = 0; j < i; j++) {
+                    if (this.families.get(j).matcher.matches(t)) {
+                        this.families.get(j).used.decrementAndGet();
+                    }
+                }
+                if (this.global != null) {
+                    this.global.used.decrementAndGet();
+                }
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Compte un tuple relu du journal, sans vérifier les limites.
+     *
+     * @param t le tuple rangé
+     */
+    void restore(CompactTuple t) {
+        if (this.global != null) {
+            this.global.used.incrementAndGet();
+        }
+        for (Limit family : this.families) {
+            if (family.matcher.matches(t)) {
+                family.used.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Rend la place d'un tuple enlevé de la mémoire, et réveille les writers
+     * bloqués s'il y en a.
+     *
+     * @param t le tuple enlevé
+     */
+    void release(CompactTuple t) {
+        if (this.global != null) {
+            this.global.used.decrementAndGet();
+        }
+        for (Limit family : this.families) {
+            if (family.matcher.matches(t)) {
+                family.used.decrementAndGet();
+            }
+        }
+        if (this.waiting.get() > 0) {
+            synchronized (this) {
+                this.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * @param t un tuple à ranger
+     * @return le template des tuples à évincer pour lui faire place, null
+     * s'il y a de la place
+     */
+    Matcher exceeded(CompactTuple t) {
+        for (Limit family : this.families) {
+            if (family.matcher.matches(t) && family.full()) {
+                return family.matcher;
+            }
+        }
+        if (this.global != null && this.global.full()) {
+            // même arité et même premier champ que t
+            Serializable[] fields = new Serializable[t.size()];
+            for (int i = 0; i < fields.length; i++) {
+                fields[i] = i == 0 ? t.get(0) : Serializable.class;
+            }
+            return Matcher.compile(new Tuple(fields));
+        }
+        return null;
+    }
+
+    /**
+     * Décrit la limite atteinte par un tuple, pour un rejet.
+     *
+     * @param t le tuple rejeté
+     * @return la description
+     */
+    String describe(CompactTuple t) {
+        for (Limit family : this.families) {
+            if (family.matcher.matches(t) && family.full()) {
+                return "family " + family.matcher.getTemplate() + " full (" + family.max + " tuples), rejected " + t;
+            }
+        }
+        if (this.global == null) {
+            return "capacity exceeded, rejected " + t;
+        }
+        return "tuple space full (" + this.global.max + " tuples), rejected " + t;
+    }
+
+    /**
+     * Attend qu'il y ait de la place pour le tuple. La place n'est pas
+     * réservée : le write la prend en recommençant.
+     *
+     * @param t le tuple à ranger
+     * @throws InterruptedException si le writer est interrompu
+     */
+    void awaitSpace(CompactTuple t) throws InterruptedException {
+        synchronized (this) {
+            // compté avant le test : un retrait concurrent voit l'attente
+            this.waiting.incrementAndGet();
+            try {
+                while (this.exceeded(t) != null) {
+                    this.wait();
+                }
+            } finally {
+                this.waiting.decrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Une limite : un template (null pour l'espace entier), un maximum et le
+     * nombre de places prises.
+     */
+    private static final class Limit {
+
+        final Matcher matcher;
+        final long max;
+        final AtomicLong used;
+
+        Limit(Matcher matcher, long max) {
+            this.matcher = matcher;
+            this.max = max;
+            this.used = new AtomicLong();
+        }
+
+        boolean tryAcquire() {
+            long n;
+            do {
+                n = this.used.get();
+                if (n >= this.max) {
+                    return false;
+                }
+            } while (!this.used.compareAndSet(n, n + 1));
+            return true;
+        }
+
+        boolean full() {
+            return this.used.get() >= this.max;
+        }
+    }
+}
@@ -1,47 +1,232 @@
 package linda.shm;
 
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.concurrent.CopyOnWriteArrayList;
-import java.util.concurrent.locks.Condition;
-import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.BiConsumer;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import linda.AsyncLinda;
 import linda.Callback;
-import linda.Linda;
+import linda.CapacityExceededException;
+import linda.CompactTuple;
+import linda.Subscription;
+import linda.Trace;
 import linda.Tuple;
 
 /**
- * Shared memory implementation of Linda.
+ * Shared memory implementation of Linda. Les tuples sont stockés sous forme
+ * compacte ({@link CompactTuple}) et recopiés en {@link Tuple} à la lecture :
+ * un appelant ne peut pas modifier un tuple en mémoire.
  *
  * @author Alexandra Jacquet
  * @author Florian Vetu
  */
-public class CentralizedLinda implements Linda {
+public class CentralizedLinda implements AsyncLinda {
 
     /**
-     * La liste des tuples en mémoire
+     * Nombre de tuples pris à la fois par le curseur d'un takeAll en flux
      */
-    private List<Tuple> memory;
+    private static final int CURSOR_PAGE = 256;
     /**
-     * La liste des évènements take
+     * Les partitions de l'espace de tuples. Un tuple est rangé dans la
+     * partition désignée par son arité et le hash de son premier champ.
      */
-    private List<Event> registryTake;
+    private final Stripe[] stripes;
     /**
-     * La liste des évènements read
+     * Les mesures des opérations et de l'occupation de l'espace
      */
-    private List<Event> registryRead;
+    private final Metrics metrics;
+    /**
+     * Le journal des modifications, null si l'espace n'est pas persistant
+     */
+    private final Journal journal;
+    /**
+     * L'expiration des tuples à bail
+     */
+    private final LeaseReaper reaper;
+    /**
+     * Les limites de capacité, null si l'espace n'est pas limité
+     */
+    private final Capacity capacity;
 
     /**
-     * Crée la mémoire et les registres.
+     * Crée la mémoire et les registres, en une seule partition.
      */
     public CentralizedLinda() {
-        this.memory = new CopyOnWriteArrayList<>();
-        this.registryRead = new CopyOnWriteArrayList<>();
-        this.registryTake = new CopyOnWriteArrayList<>();
+        this(1);
+    }
+
+    /**
+     * Crée la mémoire et les registres, découpés en plusieurs partitions
+     * ayant chacune leur verrou. Les opérations portant sur des familles de
+     * tuples (arité et premier champ) différentes ne se bloquent alors pas
+     * mutuellement.
+     *
+     * @param nbStripes le nombre de partitions (au moins 1)
+     */
+    public CentralizedLinda(int nbStripes) {
+        this(nbStripes, (Journal) null);
+    }
+
+    /**
+     * Crée un espace de tuples persistant : l'espace est d'abord relu du
+     * journal, puis chaque modification y est ajoutée. Les évènements en
+     * attente ne sont pas persistants.
+     *
+     * @param nbStripes le nombre de partitions (au moins 1)
+     * @param journal le journal, null pour un espace en mémoire seulement
+     */
+    public CentralizedLinda(int nbStripes, Journal journal) {
+        this(nbStripes, journal, (TupleStorage[]) null, null);
+    }
+
+    /**
+     * Crée un espace de tuples limité : un write qui ne trouve pas de place
+     * attend, est rejeté ou évince un tuple, selon la politique des limites.
+     *
+     * @param nbStripes le nombre de partitions (au moins 1)
+     * @param capacity les limites de l'espace, null pour un espace illimité
+     */
+    public CentralizedLinda(int nbStripes, Capacity capacity) {
+        this(nbStripes, null, (TupleStorage[]) null, capacity);
+    }
+
+    /**
+     * Crée un espace de tuples dont les tuples sont stockés hors du tas Java
+     * ({@link OffHeapStore}), une mémoire par partition : pour les très grands
+     * espaces, dont les tuples rallongeraient chaque GC.
+     *
+     * @param nbStripes le nombre de partitions (au moins 1)
+     * @param journal le journal, null pour un espace en mémoire seulement
+     * @param offHeapDir le répertoire des segments des mémoires, un
+     * sous-répertoire par partition
+     * @throws IOException si les segments ne peuvent pas être créés
+     */
+    public CentralizedLinda(int nbStripes, Journal journal, Path offHeapDir) throws IOException {
+        this(nbStripes, journal, offHeapDir, null);
+    }
+
+    /**
+     * Crée un espace de tuples, avec toutes les options.
+     *
+     * @param nbStripes le nombre de partitions (au moins 1)
+     * @param journal le journal, null pour un espace en mémoire seulement
+     * @param offHeapDir le répertoire des segments des mémoires hors du tas,
+     * null pour des mémoires dans le tas
+     * @param capacity les limites de l'espace, null pour un espace illimité
+     * @throws IOException si les segments ne peuvent pas être créés
+     */
+    public CentralizedLinda(int nbStripes, Journal journal, Path offHeapDir, Capacity capacity) throws IOException {
+        this(nbStripes, journal, offHeapDir == null ? null : offHeapStores(nbStripes, offHeapDir), capacity);
+    }
+
+    /**
+     * @param memories les mémoires des partitions, null pour des
+     * {@link TupleStore}
+     */
+    private CentralizedLinda(int nbStripes, Journal journal, TupleStorage[] memories, Capacity capacity) {
+        if (nbStripes < 1) {
+            throw new IllegalArgumentException("nbStripes < 1 : " + nbStripes);
+        }
+        this.journal = journal;
+        this.capacity = capacity;
+        this.stripes = new Stripe[nbStripes];
+        for (int i = 0; i < nbStripes; i++) {
+            this.stripes[i] = new Stripe(journal, memories == null ? new TupleStore() : memories[i], capacity);
+        }
+        this.metrics = new Metrics(this.stripes);
+        this.reaper = new LeaseReaper(this, 10);
+        if (journal != null) {
+            for (CompactTuple t : journal.recovered()) {
+                this.stripeOf(t).restore(t);
+            }
+            journal.start(new Runnable() {
+                @Override
+                public void run() {
+                    checkpoint();
+                }
+            });
+        }
+    }
+
+    /**
+     * @return une mémoire hors du tas par partition
+     */
+    private static TupleStorage[] offHeapStores(int nbStripes, Path dir) throws IOException {
+        TupleStorage[] memories = new TupleStorage[Math.max(nbStripes, 0)];
+        for (int i = 0; i < memories.length; i++) {
+            memories[i] = new OffHeapStore(dir.resolve("stripe-" + i));
+        }
+        return memories;
+    }
+
+    /**
+     * @return les mesures de l'espace de tuples, toujours actives
+     */
+    public Metrics metrics() {
+        return this.metrics;
+    }
+
+    /**
+     * Écrit un instantané de l'espace dans le journal, qui supprime alors
+     * les journaux antérieurs. L'espace n'est figé que le temps de le copier.
+     * Appelé automatiquement par le journal ; sans effet si l'espace n'est
+     * pas persistant.
+     */
+    public synchronized void checkpoint() {
+        if (this.journal == null) {
+            return;
+        }
+        List<CompactTuple> all = new ArrayList<>();
+        long generation;
+        try {
+            for (Stripe stripe : this.stripes) {
+                stripe.lock();
+            }
+            try {
+                for (Stripe stripe : this.stripes) {
+                    for (CompactTuple t : stripe.all()) {
+                        // les tuples à bail ne sont pas journalisés
+                        if (t.getDeadline() == 0) {
+                            all.add(t);
+                        }
+                    }
+                }
+                generation = this.journal.rotate();
+            } finally {
+                for (int i = this.stripes.length - 1; i >= 0; i--) {
+                    this.stripes[i].unlock();
+                }
+            }
+            this.journal.snapshot(generation, all);
+        } catch (IOException ex) {
+            Logger.getLogger(CentralizedLinda.class.getName()).log(Level.SEVERE, null, ex);
+        }
+    }
+
+    /**
+     * Attend que les modifications faites par l'opération en cours soient
+     * durables, selon la politique du journal. Appelé verrous libérés.
+     */
+    private void commit() {
+        if (this.journal != null) {
+            this.journal.commit();
+        }
     }
 
     /**
@@ -49,48 +234,211 @@ public class CentralizedLinda implements Linda {
      * passé en paramètre. Appel le plus ancien callback en mode take qui match
      * le tuple passé en paramètre. Enlève les callbacks appelés des registres.
      * Si aucun callback en mode take n'a été appelé, enregistre le tuple en
-     * mémoire.
+     * mémoire. Seule la partition du tuple est verrouillée, et les callbacks
+     * sont appelés une fois le verrou libéré.
      *
      * @param t le tuple à écrire en mémoire
      * @see Tuple
      */
     @Override
     public void write(Tuple t) {
-        boolean taken;
+        this.write(CompactTuple.of(t), t);
+    }
 
-        // pour tous les  évènements en mode read du registre
-        for (Event readEvent : this.registryRead) {
-            // si le tuple à écrire correspond au template associé à l'évènement
-            if (readEvent.isMatching(t)) {
+    /**
+     * Procédure write d'un tuple déjà compact, par exemple reçu d'un client
+     * distant. Aucun {@link Tuple} n'est construit si aucun évènement n'est
+     * déclenché.
+     *
+     * @param t le tuple à écrire en mémoire
+     */
+    public void write(CompactTuple t) {
+        this.write(t, null);
+    }
+
+    /**
+     * @param c le tuple à écrire
+     * @param t le même tuple, passé aux callbacks ; construit si null
+     */
+    private void write(CompactTuple c, Tuple t) {
+        long start = System.nanoTime();
+        this.writeOne(c, t);
+        this.metrics.record(Metrics.Op.WRITE, start);
+    }
+
+    /**
+     * Écrit un tuple, attend que l'écriture soit durable, puis appelle les
+     * callbacks des évènements réclamés.
+     *
+     * @param c le tuple à écrire
+     * @param t le même tuple, passé aux callbacks ; construit si null
+     */
+    private void writeOne(CompactTuple c, Tuple t) {
+        List<Event> fired = this.store(c);
+        this.commit();
+        if (fired != null) {
+            this.unlink(fired);
+            if (t == null) {
+                t = c.toTuple();
+            }
+            for (Event event : fired) {
                 // appel du callback de l'évènement
-                readEvent.call(t);
-                // enlève l'évènement du registre
-                this.registryRead.remove(readEvent);
+                this.call(event.getCallback(), c, t);
             }
         }
+    }
 
-        taken = false;
-        Event takeEvent;
+    /**
+     * Procédure write à bail. Comme {@link #write(Tuple)}, mais le tuple
+     * expire <code>lease</code> millisecondes après l'écriture : il n'est
+     * alors plus vu par aucune opération, et il est enlevé de la mémoire au
+     * plus un top (10 ms) plus tard par la roue d'expiration, sans parcours
+     * de la mémoire. Les tuples à bail ne sont pas journalisés.
+     *
+     * @param t le tuple à écrire en mémoire
+     * @param lease la durée de vie du tuple, en millisecondes
+     */
+    @Override
+    public void write(Tuple t, long lease) {
+        this.write(CompactTuple.of(t), t, lease);
+    }
 
-        Iterator<Event> itEvent = this.registryTake.iterator();
-        // tant qu'il y a un évènement en mode take et que le tuple n'a pas été pris
-        while (itEvent.hasNext() && !taken) {
-            takeEvent = itEvent.next();
-            // si le tuple à écrire correspond au template associé à l'évènement
-            if (takeEvent.isMatching(t)) {
-                // appel du callback de l'évènement
-                takeEvent.call(t);
-                // enlève l'évènement du registre
-                this.registryTake.remove(takeEvent);
-                // on signifie qu'on a consommé le tuple pour arrêter de chercher
-                taken = true;
+    /**
+     * Procédure write à bail d'un tuple déjà compact, par exemple reçu d'un
+     * client distant.
+     *
+     * @param t le tuple à écrire en mémoire
+     * @param lease la durée de vie du tuple, en millisecondes
+     */
+    public void write(CompactTuple t, long lease) {
+        this.write(t, null, lease);
+    }
+
+    /**
+     * @param c le tuple à écrire
+     * @param t le même tuple, passé aux callbacks ; construit si null
+     * @param lease la durée de vie du tuple, en millisecondes
+     */
+    private void write(CompactTuple c, Tuple t, long lease) {
+        if (lease <= 0) {
+            throw new IllegalArgumentException("lease <= 0 : " + lease);
+        }
+        // une instance propre au tuple écrit, que la roue retrouve
+        c = c.withDeadline(System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(lease));
+        this.write(c, t);
+        this.reaper.schedule(c);
+    }
+
+    /**
+     * Écrit un tuple dans sa partition, en appliquant la politique des
+     * limites tant qu'il ne trouve pas de place.
+     *
+     * @param c le tuple à écrire
+     * @return les évènements réclamés, null si aucun
+     */
+    private List<Event> store(CompactTuple c) {
+        List<Event> fired;
+        while ((fired = this.stripeOf(c).write(c)) == Stripe.FULL) {
+            this.makeRoom(c);
+        }
+        return fired;
+    }
+
+    /**
+     * Applique la politique des limites à un tuple qui n'a pas trouvé de
+     * place : attend une place, rejette le tuple, ou évince le plus ancien
+     * tuple de la famille pleine. Le write recommence ensuite.
+     *
+     * @param t le tuple à ranger
+     * @throws CapacityExceededException si le tuple est rejeté
+     */
+    private void makeRoom(CompactTuple t) {
+        switch (this.capacity.getPolicy()) {
+            case BLOCK:
+                try {
+                    this.capacity.awaitSpace(t);
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    throw new CapacityExceededException("interrupted while waiting for space, rejected " + t);
+                }
+                break;
+            case EVICT_OLDEST:
+                Matcher family = this.capacity.exceeded(t);
+                if (family != null && this.find(eventMode.TAKE, family) == null) {
+                    // limite globale et aucun tuple de la famille du tuple
+                    throw new CapacityExceededException(this.capacity.describe(t));
+                }
+                break;
+            default:
+                if (this.capacity.exceeded(t) != null) {
+                    throw new CapacityExceededException(this.capacity.describe(t));
+                }
+        }
+    }
+
+    /**
+     * Enlève un tuple à bail expiré, appelé par la roue d'expiration.
+     *
+     * @param t le tuple, tel qu'écrit
+     */
+    void expire(CompactTuple t) {
+        this.stripeOf(t).expire(t);
+    }
+
+    /**
+     * Remet en mémoire un tuple pris qui n'a pas pu être livré (take annulé,
+     * tuple refusé par un client), tel qu'il avait été écrit : un tuple à
+     * bail garde son échéance et n'est pas journalisé. Un tuple déjà échu est
+     * abandonné.
+     *
+     * @param t le tuple, tel que pris
+     */
+    public void putBack(CompactTuple t) {
+        this.putBack(Collections.singletonList(t));
+    }
+
+    /**
+     * Remet en mémoire, dans l'ordre, des tuples pris qui n'ont pas pu être
+     * livrés (voir {@link #putBack(CompactTuple)}). La case d'un tuple à bail
+     * a pu être traitée par la roue d'expiration pendant qu'il était sorti
+     * de la mémoire : il y est programmé à nouveau, pour être enlevé, et sa
+     * place rendue, même s'il échoit pendant sa remise en mémoire.
+     *
+     * @param ts les tuples, tels que pris
+     */
+    public void putBack(List<CompactTuple> ts) {
+        List<CompactTuple> live = new ArrayList<>(ts.size());
+        for (CompactTuple t : ts) {
+            if (!t.isExpired()) {
+                live.add(t);
             }
         }
+        if (live.isEmpty()) {
+            return;
+        }
+        this.writeCompact(live);
+        for (CompactTuple t : live) {
+            if (t.getDeadline() != 0) {
+                this.reaper.schedule(t);
+            }
+        }
+    }
 
-        // si le tuple n'a pas été consommé, on ajoute le tuple dans la mémoire partagée
-        if (!taken) {
-            this.memory.add(t);
+    /**
+     * Appelle un callback en mesurant sa durée.
+     *
+     * @param callback le callback
+     * @param c le tuple tel que rangé, pour un {@link CompactCallback}
+     * @param t le même tuple, à lui passer
+     */
+    private void call(Callback callback, CompactTuple c, Tuple t) {
+        long start = System.nanoTime();
+        if (callback instanceof CompactCallback) {
+            ((CompactCallback) callback).call(c, t);
+        } else {
+            callback.call(t);
         }
+        this.metrics.record(Metrics.Op.CALLBACK, start);
     }
 
     /**
@@ -103,34 +451,21 @@ public class CentralizedLinda implements Linda {
      */
     @Override
     public Tuple take(Tuple template) {
-        // essai du take sur le template
-        Tuple tuple = this.tryTake(template);
-        // si un tuple en mémoire correspond au template
-        if (tuple != null) {
-            // fin de la procédure, on retourne le tuple
-            return tuple;
-        }
-        // si aucun tuple ne correspond au template
-        Lock lock = new ReentrantLock();
-        Condition cond = lock.newCondition();
-        TupleBack tb = new TupleBack(lock, cond);
-        // enregistrement du take en attente 
-        this.eventRegister(eventMode.TAKE, eventTiming.FUTURE, template, tb);
-        // prend le verrou
-        lock.lock();
-        try {
-            // met en attente
-            cond.await();
-        } catch (InterruptedException ex) {
+        long start = System.nanoTime();
+        Tuple tuple = this.take(Matcher.compile(template));
+        this.metrics.record(Metrics.Op.TAKE, start);
+        return tuple;
+    }
 
-            Logger.getLogger(CentralizedLinda.class.getName()).log(Level.SEVERE, null, ex);
-        } finally {
-            // debloque le verrou
-            lock.unlock();
-        }
-        // débloqué par un signal (si on a fait un write correspondant)
-        // renvoi le tuple qui a été pris et appelé dans le callback
-        return tb.getTuple();
+    /**
+     * Fonction take sur un template compilé, compilé une seule fois pour
+     * l'essai et pour l'évènement.
+     *
+     * @param matcher le template compilé
+     * @return le tuple pris
+     */
+    private Tuple take(Matcher matcher) {
+        return this.waitFor(eventMode.TAKE, matcher);
     }
 
     /**
@@ -143,34 +478,111 @@ public class CentralizedLinda implements Linda {
      */
     @Override
     public Tuple read(Tuple template) {
-        // essai du read
-        Tuple tuple = this.tryRead(template);
-        // si un tuple correspond
-        if (tuple != null) {
-            // renvoi le tuple
-            return tuple;
-        }
-        // si aucun tuple ne correspond pas
-        Lock lock = new ReentrantLock();
-        Condition cond = lock.newCondition();
-        TupleBack tb = new TupleBack(lock, cond);
-        // enregistrement du read en attente
-        this.eventRegister(eventMode.READ, eventTiming.FUTURE, template, tb);
-        // prend le verrou
-        lock.lock();
+        long start = System.nanoTime();
+        Tuple tuple = this.read(Matcher.compile(template));
+        this.metrics.record(Metrics.Op.READ, start);
+        return tuple;
+    }
+
+    /**
+     * Fonction read sur un template compilé.
+     *
+     * @param matcher le template compilé
+     * @return le tuple lu
+     */
+    private Tuple read(Matcher matcher) {
+        Tuple tuple = this.waitFor(eventMode.READ, matcher);
+        Trace.event(Trace.Level.DEBUG, "read", matcher.getTemplate(), tuple);
+        return tuple;
+    }
+
+    /**
+     * Prend ou lit un tuple correspondant au template, ou à défaut enregistre
+     * une attente et endort le thread courant jusqu'à ce qu'un write la
+     * déclenche. La recherche et l'enregistrement sont atomiques (voir
+     * {@link #findOrRegister}) : un seul parcours de la mémoire, pas de write
+     * manqué entre les deux. L'attente est elle-même l'évènement et son
+     * callback : un seul objet alloué, aucun verrou, et un write survenant
+     * avant l'endormissement ne peut pas être manqué.
+     *
+     * @param mode le mode de l'attente (read ou take)
+     * @param matcher le template attendu, compilé
+     * @return le tuple trouvé ou reçu, null si le thread a été interrompu
+     */
+    private Tuple waitFor(eventMode mode, Matcher matcher) {
+        Waiter waiter = new Waiter(matcher);
+        CompactTuple found = this.findOrRegister(mode, matcher, waiter);
+        if (found != null) {
+            if (mode == eventMode.TAKE) {
+                this.commit();
+            }
+            return found.toTuple();
+        }
+        Tuple tuple = waiter.await();
+        if (tuple == null) {
+            // interrompu avant tout write : l'attente annulée est retirée, le
+            // statut d'interruption reste posé pour l'appelant
+            this.unregister(mode, waiter);
+        }
+        return tuple;
+    }
+
+    /**
+     * Fonction take bornée. Comme {@link #take(Tuple)}, mais abandonne à
+     * l'échéance : l'évènement en attente est alors retiré directement de son
+     * paquet (pas de parcours des registres) et un tuple pris au même instant
+     * est remis en mémoire.
+     *
+     * @param template le template du take que l'on veut faire
+     * @param timeout le délai maximal d'attente, en millisecondes
+     * @return le tuple trouvé, null à l'échéance
+     */
+    @Override
+    public Tuple take(Tuple template, long timeout) {
+        long start = System.nanoTime();
+        Tuple tuple = this.await(this.asyncEvent(eventMode.TAKE, eventTiming.IMMEDIATE, template), timeout);
+        this.metrics.record(Metrics.Op.TAKE, start);
+        return tuple;
+    }
+
+    /**
+     * Fonction read bornée. Comme {@link #read(Tuple)}, mais abandonne à
+     * l'échéance en retirant l'évènement en attente.
+     *
+     * @param template le template du read que l'on veut faire
+     * @param timeout le délai maximal d'attente, en millisecondes
+     * @return le tuple trouvé, null à l'échéance
+     */
+    @Override
+    public Tuple read(Tuple template, long timeout) {
+        long start = System.nanoTime();
+        Tuple tuple = this.await(this.asyncEvent(eventMode.READ, eventTiming.IMMEDIATE, template), timeout);
+        this.metrics.record(Metrics.Op.READ, start);
+        return tuple;
+    }
+
+    /**
+     * Attend le résultat d'un évènement au plus <code>timeout</code>
+     * millisecondes, puis l'annule.
+     *
+     * @param future le future de l'évènement
+     * @param timeout le délai maximal d'attente, en millisecondes
+     * @return le tuple trouvé, null à l'échéance
+     */
+    private Tuple await(CompletableFuture<Tuple> future, long timeout) {
         try {
-            // met en attente
-            cond.await();
+            return future.get(timeout, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException ex) {
+            // échéance : l'annulation retire l'évènement des registres
+            future.cancel(false);
         } catch (InterruptedException ex) {
+            future.cancel(false);
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException ex) {
             Logger.getLogger(CentralizedLinda.class.getName()).log(Level.SEVERE, null, ex);
-        } finally {
-            // libère le verrou
-            lock.unlock();
         }
-        System.out.println("I read : " + tb.getTuple().toString());
-        // débloqué par un signal (si on a fait un write correspondant)
-        // renvoi le tuple qui a été pris et appelé dans le callback
-        return tb.getTuple();
+        // le tuple a pu arriver entre l'échéance et l'annulation
+        return future.isCancelled() ? null : future.getNow(null);
     }
 
     /**
@@ -182,20 +594,26 @@ public class CentralizedLinda implements Linda {
      */
     @Override
     public Tuple tryTake(Tuple template) {
-        synchronized (this.memory) {
-            // pour chaque tuple en mémoire partagée
-            for (Tuple tuple : this.memory) {
-                // si le tuple courant correspond 
-                if (tuple.matches(template)) {
-                    // enlève le premier tuple trouvé de la mémoire
-                    this.memory.remove(tuple);
-                    // retourne le tuple
-                    return tuple;
-                }
-            }
+        long start = System.nanoTime();
+        Tuple tuple = this.tryTake(Matcher.compile(template));
+        this.metrics.record(Metrics.Op.TRY_TAKE, start);
+        return tuple;
+    }
+
+    /**
+     * Fonction tryTake sur un template compilé, compilé une seule fois pour
+     * toutes les partitions parcourues.
+     *
+     * @param matcher le template compilé
+     * @return le tuple pris, null si aucun
+     */
+    private Tuple tryTake(Matcher matcher) {
+        CompactTuple tuple = this.find(eventMode.TAKE, matcher);
+        if (tuple == null) {
+            return null;
         }
-        // si aucun tuple n'a pas été trouvé : renvoi null
-        return null;
+        this.commit();
+        return tuple.toTuple();
     }
 
     /**
@@ -207,16 +625,119 @@ public class CentralizedLinda implements Linda {
      */
     @Override
     public Tuple tryRead(Tuple template) {
-        // pour chaque tuple de la mémoire
-        for (Tuple tuple : this.memory) {
-            // si le tuple courrant correspond au template
-            if (tuple.matches(template)) {
-                // retourne le premier tuple trouvé 
-                System.out.println("I try read : " + tuple.toString());
-                return tuple;
+        long start = System.nanoTime();
+        Tuple tuple = this.tryRead(Matcher.compile(template));
+        this.metrics.record(Metrics.Op.TRY_READ, start);
+        return tuple;
+    }
+
+    /**
+     * Fonction tryRead sur un template compilé.
+     *
+     * @param matcher le template compilé
+     * @return le tuple trouvé, null si aucun
+     */
+    private Tuple tryRead(Matcher matcher) {
+        CompactTuple found = this.find(eventMode.READ, matcher);
+        // si aucun tuple n'a pas été trouvé : renvoi null
+        Tuple tuple = found == null ? null : found.toTuple();
+        Trace.event(Trace.Level.TRACE, "tryRead", matcher.getTemplate(), tuple);
+        return tuple;
+    }
+
+    /**
+     * Cherche un tuple correspondant au template, et l'enlève en mode take.
+     * Si le premier champ du template est une valeur, une seule partition est
+     * concernée ; sinon on essaie chaque partition.
+     *
+     * @param mode read ou take
+     * @param matcher le template compilé
+     * @return le tuple trouvé, null si aucun
+     */
+    private CompactTuple find(eventMode mode, Matcher matcher) {
+        boolean take = mode.equals(eventMode.TAKE);
+        Stripe stripe = this.stripeOfTemplate(matcher.getTemplate());
+        if (stripe != null) {
+            return take ? stripe.tryTake(matcher) : stripe.tryRead(matcher);
+        }
+        for (Stripe s : this.stripes) {
+            CompactTuple found = take ? s.tryTake(matcher) : s.tryRead(matcher);
+            if (found != null) {
+                return found;
             }
         }
-        // si aucun tuple n'a pas été trouvé : renvoi null
+        return null;
+    }
+
+    /**
+     * Cherche un tuple correspondant au template et, s'il n'y en a pas,
+     * enregistre l'évènement, sans qu'un write puisse ranger en mémoire un
+     * tuple que l'évènement aurait dû recevoir : une attente n'a jamais
+     * besoin de réessayer.
+     * <p>
+     * Si le premier champ du template est une valeur, la seule partition
+     * concernée reste verrouillée de la recherche jusqu'à l'enregistrement.
+     * Sinon aucune partition n'est verrouillée plus longtemps qu'une
+     * opération : après un premier parcours infructueux, l'évènement est
+     * enregistré partout, puis la mémoire est parcourue à nouveau. Un tuple
+     * trouvé par ce second parcours n'est rendu que si l'évènement est
+     * encore réclamable ; s'il a été déclenché entre temps par un write, ce
+     * write lui livre son tuple, et le tuple pris par le parcours est remis
+     * en mémoire.
+     *
+     * @param mode read ou take
+     * @param matcher le template compilé
+     * @param event l'évènement à enregistrer si aucun tuple n'est trouvé
+     * @return le tuple trouvé (enlevé en mode take), null si l'évènement a
+     * été enregistré
+     */
+    private CompactTuple findOrRegister(eventMode mode, Matcher matcher, Event event) {
+        Stripe stripe = this.stripeOfTemplate(matcher.getTemplate());
+        if (stripe == null) {
+            return this.registerAndFind(mode, matcher, event);
+        }
+        stripe.lock();
+        try {
+            // les verrous de partition sont réentrants
+            CompactTuple found = this.find(mode, matcher);
+            if (found == null) {
+                this.register(mode, event);
+            }
+            return found;
+        } finally {
+            stripe.unlock();
+        }
+    }
+
+    /**
+     * {@link #findOrRegister} pour un template dont le premier champ n'est
+     * pas une valeur : parcourt les partitions une à une, et à défaut
+     * enregistre l'évènement dans toutes, puis les parcourt à nouveau.
+     *
+     * @param mode read ou take
+     * @param matcher le template compilé
+     * @param event l'évènement à enregistrer
+     * @return le tuple trouvé (enlevé en mode take), null si l'évènement est
+     * resté enregistré ou a été déclenché
+     */
+    private CompactTuple registerAndFind(eventMode mode, Matcher matcher, Event event) {
+        CompactTuple found = this.find(mode, matcher);
+        if (found != null) {
+            return found;
+        }
+        this.register(mode, event);
+        found = this.find(mode, matcher);
+        if (found == null) {
+            return null;
+        }
+        if (event.claim()) {
+            this.unregister(mode, event);
+            return found;
+        }
+        // déclenché par un write concurrent, qui lui livre son propre tuple
+        if (mode == eventMode.TAKE) {
+            this.putBack(found);
+        }
         return null;
     }
 
@@ -231,12 +752,11 @@ public class CentralizedLinda implements Linda {
      */
     @Override
     public Collection<Tuple> takeAll(Tuple template) {
-        Tuple tuple;
-        Collection<Tuple> list = new ArrayList();
-        while ((tuple = tryTake(template)) != null) {
-            list.add(tuple);
-        }
-        System.out.println("I take all : " + list.toString());
+        long start = System.nanoTime();
+        // un seul parcours des paquets candidats par partition
+        Collection<Tuple> list = this.tryTakeN(Matcher.compile(template), Integer.MAX_VALUE);
+        this.metrics.record(Metrics.Op.TAKE_ALL, start);
+        Trace.event(Trace.Level.DEBUG, "takeAll", template, list);
         return list;
     }
 
@@ -251,13 +771,256 @@ public class CentralizedLinda implements Linda {
      */
     @Override
     public Collection<Tuple> readAll(Tuple template) {
-        Collection<Tuple> list = new ArrayList();
-        for (Tuple tuple : this.memory) {
-            if (tuple.matches(template)) {
-                list.add(tuple);
+        long start = System.nanoTime();
+        List<CompactTuple> found = new ArrayList<>();
+        Matcher matcher = Matcher.compile(template);
+        Stripe stripe = this.stripeOfTemplate(template);
+        if (stripe != null) {
+            stripe.readAll(matcher, found);
+        } else {
+            for (Stripe s : this.stripes) {
+                s.readAll(matcher, found);
+            }
+        }
+        List<Tuple> list = toTuples(found);
+        this.metrics.record(Metrics.Op.READ_ALL, start);
+        Trace.event(Trace.Level.DEBUG, "readAll", template, list);
+        return list;
+    }
+
+    /**
+     * Fonction readAll en flux. Les partitions concernées sont parcourues
+     * l'une après l'autre au fil du curseur, sans liste de résultats ni
+     * verrou.
+     *
+     * @param template le template du read que l'on veut faire
+     * @return le curseur des tuples correspondant au template
+     */
+    @Override
+    public CompactCursor readAllCursor(Tuple template) {
+        Stripe stripe = this.stripeOfTemplate(template);
+        List<Stripe> list = stripe != null ? Collections.singletonList(stripe) : Arrays.asList(this.stripes);
+        return new ReadCursor(Matcher.compile(template), list.iterator());
+    }
+
+    /**
+     * Fonction takeAll en flux. Les tuples sont pris par pages de
+     * {@link #CURSOR_PAGE} au fil du curseur, ou par les pages demandées à
+     * {@link CompactCursor#next(int)} ; ceux de la page en cours sont
+     * réécrits si le curseur est fermé avant de les livrer.
+     *
+     * @param template le template du take que l'on veut faire
+     * @return le curseur des tuples correspondant au template
+     */
+    @Override
+    public CompactCursor takeAllCursor(Tuple template) {
+        return new TakeCursor(Matcher.compile(template));
+    }
+
+    /**
+     * Procédure writeAll. Les tuples sont regroupés par partition, puis
+     * chaque partition traite son groupe sous une seule prise de son verrou
+     * et un seul passage par ses registres par tuple. Les callbacks sont
+     * appelés ensuite, verrous libérés, dans l'ordre des tuples du lot.
+     *
+     * @param ts les tuples à écrire, dans l'ordre
+     */
+    @Override
+    public void writeAll(Collection<Tuple> ts) {
+        long start = System.nanoTime();
+        List<CompactTuple> compacts = new ArrayList<>(ts.size());
+        for (Tuple t : ts) {
+            compacts.add(CompactTuple.of(t));
+        }
+        this.writeCompact(compacts);
+        this.metrics.record(Metrics.Op.WRITE_ALL, start);
+    }
+
+    /**
+     * Procédure writeAll de tuples déjà compacts, par exemple reçus d'un
+     * client distant.
+     *
+     * @param ts les tuples à écrire, dans l'ordre
+     */
+    public void writeAll(CompactTuple[] ts) {
+        long start = System.nanoTime();
+        this.writeCompact(Arrays.asList(ts));
+        this.metrics.record(Metrics.Op.WRITE_ALL, start);
+    }
+
+    /**
+     * Les évènements sont appelés dans l'ordre des tuples du lot, comme pour
+     * une suite de write : ceux de chaque tuple dans l'ordre où sa partition
+     * les a réclamés. Dans un espace limité, chaque tuple peut attendre une
+     * place, être rejeté ou évincer un autre tuple : les tuples sont alors
+     * écrits un à un, dans l'ordre, et un rejet arrête le lot.
+     *
+     * @param ts les tuples à écrire, dans l'ordre
+     * @throws CapacityExceededException si un tuple est rejeté ; elle donne
+     * le nombre de tuples écrits avant lui
+     * @see #writeAll(Collection)
+     */
+    private void writeCompact(List<CompactTuple> ts) {
+        if (this.capacity != null) {
+            for (int i = 0; i < ts.size(); i++) {
+                try {
+                    this.writeOne(ts.get(i), null);
+                } catch (CapacityExceededException ex) {
+                    throw new CapacityExceededException(ex.getMessage(), i);
+                }
+            }
+            return;
+        }
+        List<Event> events = new ArrayList<>();
+        List<CompactTuple> tuples = new ArrayList<>();
+        if (this.stripes.length == 1) {
+            this.stripes[0].writeAll(ts, events, tuples);
+        } else {
+            Map<Stripe, List<Integer>> groups = new LinkedHashMap<>();
+            for (int i = 0; i < ts.size(); i++) {
+                Stripe stripe = this.stripeOf(ts.get(i));
+                List<Integer> group = groups.get(stripe);
+                if (group == null) {
+                    group = new ArrayList<>();
+                    groups.put(stripe, group);
+                }
+                group.add(i);
+            }
+            // rang dans le lot du tuple de chaque évènement réclamé
+            List<Integer> ranks = new ArrayList<>();
+            for (Map.Entry<Stripe, List<Integer>> group : groups.entrySet()) {
+                List<Integer> positions = group.getValue();
+                List<CompactTuple> ws = new ArrayList<>(positions.size());
+                for (Integer position : positions) {
+                    ws.add(ts.get(position));
+                }
+                int from = events.size();
+                group.getKey().writeAll(ws, events, tuples);
+                // les évènements d'un groupe suivent l'ordre de ses tuples
+                int j = 0;
+                for (int e = from; e < events.size(); e++) {
+                    while (ws.get(j) != tuples.get(e)) {
+                        j++;
+                    }
+                    ranks.add(positions.get(j));
+                }
+            }
+            sortByRank(events, tuples, ranks);
+        }
+        this.commit();
+        this.unlink(events);
+        Tuple t = null;
+        for (int i = 0; i < events.size(); i++) {
+            // les évènements d'un même tuple se suivent et partagent sa copie
+            if (i == 0 || tuples.get(i) != tuples.get(i - 1)) {
+                t = tuples.get(i).toTuple();
+            }
+            this.call(events.get(i).getCallback(), tuples.get(i), t);
+        }
+    }
+
+    /**
+     * Trie les évènements réclamés, et leurs tuples, par rang de leur tuple
+     * dans le lot. Le tri est stable : les évènements d'un même tuple gardent
+     * leur ordre.
+     *
+     * @param events les évènements réclamés
+     * @param tuples leurs tuples
+     * @param ranks les rangs de leurs tuples
+     */
+    private static void sortByRank(List<Event> events, List<CompactTuple> tuples, final List<Integer> ranks) {
+        List<Integer> order = new ArrayList<>(events.size());
+        for (int i = 0; i < events.size(); i++) {
+            order.add(i);
+        }
+        Collections.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                return Integer.compare(ranks.get(a), ranks.get(b));
+            }
+        });
+        List<Event> sortedEvents = new ArrayList<>(events.size());
+        List<CompactTuple> sortedTuples = new ArrayList<>(tuples.size());
+        for (Integer i : order) {
+            sortedEvents.add(events.get(i));
+            sortedTuples.add(tuples.get(i));
+        }
+        events.clear();
+        events.addAll(sortedEvents);
+        tuples.clear();
+        tuples.addAll(sortedTuples);
+    }
+
+    /**
+     * Fonction tryTakeN. Prend au plus n tuples sans bloquer, en un seul
+     * parcours par partition concernée.
+     *
+     * @param template le template des tuples à prendre
+     * @param n le nombre maximal de tuples
+     * @return les tuples pris, vide si aucun
+     */
+    @Override
+    public Collection<Tuple> tryTakeN(Tuple template, int n) {
+        long start = System.nanoTime();
+        Collection<Tuple> list = this.tryTakeN(Matcher.compile(template), n);
+        this.metrics.record(Metrics.Op.TRY_TAKE_N, start);
+        return list;
+    }
+
+    /**
+     * Fonction tryTakeN sur un template compilé.
+     *
+     * @param matcher le template compilé
+     * @param n le nombre maximal de tuples
+     * @return les tuples pris, vide si aucun
+     */
+    private Collection<Tuple> tryTakeN(Matcher matcher, int n) {
+        return toTuples(this.takeCompact(matcher, n));
+    }
+
+    /**
+     * Prend au plus n tuples sans bloquer, sous forme compacte.
+     *
+     * @param matcher le template compilé
+     * @param n le nombre maximal de tuples
+     * @return les tuples pris, vide si aucun
+     */
+    private List<CompactTuple> takeCompact(Matcher matcher, int n) {
+        List<CompactTuple> list = new ArrayList<>();
+        Stripe stripe = this.stripeOfTemplate(matcher.getTemplate());
+        if (stripe != null) {
+            stripe.tryTake(matcher, n, list);
+        } else {
+            for (int i = 0; list.size() < n && i < this.stripes.length; i++) {
+                this.stripes[i].tryTake(matcher, n - list.size(), list);
             }
         }
-        System.out.println("I read all : " + list.toString());
+        if (!list.isEmpty()) {
+            this.commit();
+        }
+        return list;
+    }
+
+    /**
+     * Fonction takeN. Prend n tuples, en bloquant pour ceux qui manquent.
+     * Les tuples sont pris au fur et à mesure, pas tous à la fois : deux takeN
+     * concurrents sur le même template peuvent chacun garder une partie des
+     * tuples et s'attendre l'un l'autre indéfiniment (par exemple deux takeN
+     * de 2 pour 3 tuples écrits).
+     *
+     * @param template le template des tuples à prendre
+     * @param n le nombre de tuples
+     * @return les n tuples pris
+     */
+    @Override
+    public Collection<Tuple> takeN(Tuple template, int n) {
+        long start = System.nanoTime();
+        Matcher matcher = Matcher.compile(template);
+        Collection<Tuple> list = this.tryTakeN(matcher, n);
+        while (list.size() < n) {
+            list.add(this.take(matcher));
+        }
+        this.metrics.record(Metrics.Op.TAKE_N, start);
         return list;
     }
 
@@ -274,42 +1037,182 @@ public class CentralizedLinda implements Linda {
      */
     @Override
     public void eventRegister(eventMode mode, eventTiming timing, Tuple template, Callback callback) {
-        // si c'est un évenement immédiat
-        if (timing.equals(eventTiming.IMMEDIATE)) {
-            // si c'est un read
-            if (mode.equals(eventMode.READ)) {
-                // essai d'un read
-                Tuple tuple = this.tryRead(template);
-                if (tuple == null) {
-                    // si aucun tuple à lire n'a été trouvé en mémoire : ajout de l'évenement en attente au registre
-                    this.registryRead.add(new Event(template, callback));
-                } else {
-                    // sinon appel le callback associé à l'évènement 
-                    callback.call(tuple);
+        long start = System.nanoTime();
+        this.registerEvent(mode, timing, Matcher.compile(template), callback);
+        this.metrics.record(Metrics.Op.EVENT_REGISTER, start);
+        Trace.event(Trace.Level.DEBUG, "eventRegister", mode, template);
+    }
+
+    /**
+     * Fonction subscribe. Enregistre un évènement persistant, qui reste dans
+     * les registres et est déclenché par chaque write qui le match jusqu'à
+     * son annulation : pas de ré-enregistrement, donc pas de write manqué.
+     *
+     * @param mode le mode de l'abonnement (read ou take)
+     * @param template le template des tuples à recevoir
+     * @param callback le callback appelé pour chaque tuple
+     * @return l'abonnement, pour l'annuler
+     */
+    @Override
+    public Subscription subscribe(final eventMode mode, Tuple template, Callback callback) {
+        long start = System.nanoTime();
+        final Event event = new Event(template, callback, true);
+        this.register(mode, event);
+        this.metrics.record(Metrics.Op.EVENT_REGISTER, start);
+        return new Subscription() {
+            @Override
+            public void cancel() {
+                if (event.cancel()) {
+                    unregister(mode, event);
+                }
+            }
+        };
+    }
+
+    /**
+     * Fonction takeAsync. Take non bloquant : aucun thread n'attend, seul un
+     * évènement est enregistré.
+     *
+     * @param template le template du take que l'on veut faire
+     * @return un future complété par le tuple pris
+     */
+    @Override
+    public CompletableFuture<Tuple> takeAsync(Tuple template) {
+        return this.eventAsync(eventMode.TAKE, eventTiming.IMMEDIATE, template);
+    }
+
+    /**
+     * Fonction readAsync. Read non bloquant : aucun thread n'attend, seul un
+     * évènement est enregistré.
+     *
+     * @param template le template du read que l'on veut faire
+     * @return un future complété par le tuple lu
+     */
+    @Override
+    public CompletableFuture<Tuple> readAsync(Tuple template) {
+        return this.eventAsync(eventMode.READ, eventTiming.IMMEDIATE, template);
+    }
+
+    /**
+     * Fonction eventAsync. Enregistre un évènement dont le callback complète
+     * le future renvoyé. Si le future est annulé (ou complété en erreur) avant
+     * l'évènement, celui-ci est enlevé des registres ; si un tuple pris arrive
+     * malgré tout après l'annulation, il est remis en mémoire, avec son bail.
+     *
+     * @param mode le mode de l'évènement (read ou take)
+     * @param timing le timing de l'évènement (immédiat ou futur)
+     * @param template le template du tuple à chercher
+     * @return un future complété par le tuple trouvé
+     */
+    @Override
+    public CompletableFuture<Tuple> eventAsync(eventMode mode, eventTiming timing, Tuple template) {
+        long start = System.nanoTime();
+        CompletableFuture<Tuple> future = this.asyncEvent(mode, timing, template);
+        this.metrics.record(Metrics.Op.EVENT_REGISTER, start);
+        return future;
+    }
+
+    /**
+     * Fonction eventAsync complétée par le tuple tel qu'il est rangé en
+     * mémoire, avec son échéance : pour un serveur, qui remet lui-même en
+     * mémoire par {@link #putBack(CompactTuple)} un tuple pris que son
+     * client refuse.
+     *
+     * @param mode le mode de l'évènement (read ou take)
+     * @param timing le timing de l'évènement (immédiat ou futur)
+     * @param template le template du tuple à chercher
+     * @return un future complété par le tuple trouvé
+     */
+    public CompletableFuture<CompactTuple> eventAsyncCompact(final eventMode mode, eventTiming timing, Tuple template) {
+        long start = System.nanoTime();
+        final CompletableFuture<CompactTuple> future = new CompletableFuture<>();
+        Event event = this.registerEvent(mode, timing, Matcher.compile(template), new CompactCallback() {
+            @Override
+            public void call(CompactTuple c, Tuple t) {
+                if (!future.complete(c) && mode.equals(eventMode.TAKE)) {
+                    // annulé entre temps : le tuple pris ne doit pas être perdu
+                    putBack(c);
                 }
-            } else {
-                // si c'est un take
-                // essai d'un take sur la mémoire partagée
-                Tuple tuple = this.tryTake(template);
-                if (tuple == null) {
-                    // si aucun tuple n'a été trouvé : enregistrement de l'evenement dans le registre des take
-                    this.registryTake.add(new Event(template, callback));
-                } else {
-                    // sinon appel le callback associé à l'évènement
-                    callback.call(tuple);
+            }
+        });
+        this.unregisterOnCancel(future, mode, event);
+        this.metrics.record(Metrics.Op.EVENT_REGISTER, start);
+        return future;
+    }
+
+    /**
+     * @see #eventAsync(eventMode, eventTiming, Tuple)
+     */
+    private CompletableFuture<Tuple> asyncEvent(final eventMode mode, eventTiming timing, Tuple template) {
+        final CompletableFuture<Tuple> future = new CompletableFuture<>();
+        Event event = this.registerEvent(mode, timing, Matcher.compile(template), new CompactCallback() {
+            @Override
+            public void call(CompactTuple c, Tuple t) {
+                if (!future.complete(t) && mode.equals(eventMode.TAKE)) {
+                    // annulé entre temps : le tuple pris ne doit pas être
+                    // perdu, ni son bail
+                    putBack(c);
                 }
             }
-        } else {
-            // si c'est un évenement futur
-            if (mode.equals(eventMode.READ)) {
-                // si c'est un read : enregistrement dans le registre des read en attente
-                this.registryRead.add(new Event(template, callback));
-            } else {
-                // si c'est un take : enregistrement dans le registre des take en attente
-                this.registryTake.add(new Event(template, callback));
+        });
+        this.unregisterOnCancel(future, mode, event);
+        return future;
+    }
+
+    /**
+     * Retire des registres l'évènement d'un future annulé (ou complété en
+     * erreur) avant d'avoir été déclenché.
+     *
+     * @param future le future de l'évènement
+     * @param mode le mode de l'évènement
+     * @param event l'évènement, null s'il a déjà été déclenché
+     */
+    private void unregisterOnCancel(final CompletableFuture<?> future, final eventMode mode, final Event event) {
+        if (event != null) {
+            future.whenComplete(new BiConsumer<Object, Throwable>() {
+                @Override
+                public void accept(Object t, Throwable ex) {
+                    // annulation : on retire l'évènement s'il n'a pas été déclenché
+                    if (future.isCompletedExceptionally() && event.claim()) {
+                        unregister(mode, event);
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * Essaie de satisfaire immédiatement l'évènement (timing immédiat), sinon
+     * l'enregistre dans les registres.
+     *
+     * @param mode le mode de l'évènement (read ou take)
+     * @param timing le timing de l'évènement (immédiat ou futur)
+     * @param matcher le template du tuple à chercher, compilé une fois pour
+     * l'essai et pour l'évènement
+     * @param callback le callback a appeler lors de l'évènement
+     * @return l'évènement enregistré, null si le callback a déjà été appelé
+     */
+    private Event registerEvent(eventMode mode, eventTiming timing, Matcher matcher, Callback callback) {
+        Event event = new Event(matcher, callback, false);
+        // si c'est un évenement immédiat
+        if (timing.equals(eventTiming.IMMEDIATE)) {
+            // read ou take sur la mémoire partagée, ou à défaut enregistrement
+            // de l'évènement, sans write intercalé
+            CompactTuple found = this.findOrRegister(mode, matcher, event);
+            if (found != null) {
+                if (mode == eventMode.TAKE) {
+                    this.commit();
+                }
+                // appel du callback associé à l'évènement, verrous libérés
+                this.call(callback, found, found.toTuple());
+                return null;
             }
+            return event;
         }
-        System.out.println("I registred : " + mode.name() + " " + template.toString());
+        // si c'est un évènement futur : enregistrement de l'évènement dans le
+        // registre du mode
+        this.register(mode, event);
+        return event;
     }
 
     /**
@@ -319,6 +1222,243 @@ public class CentralizedLinda implements Linda {
      */
     @Override
     public void debug(String prefix) {
-        System.out.println("Debug " + prefix + " : " + this.memory.toString());
+        List<CompactTuple> all = new ArrayList<>();
+        for (Stripe stripe : this.stripes) {
+            all.addAll(stripe.all());
+        }
+        System.out.println("Debug " + prefix + " : " + all.toString());
+    }
+
+    /**
+     * Enregistre un évènement en attente. Si le premier champ du template est
+     * une valeur, seule sa partition peut recevoir un tuple correspondant ;
+     * sinon l'évènement est enregistré dans toutes les partitions et sera
+     * réclamé par la première qui le déclenche.
+     *
+     * @param mode le mode de l'évènement
+     * @param event l'évènement à enregistrer
+     */
+    private void register(eventMode mode, Event event) {
+        // compté une seule fois, même s'il est enregistré dans chaque partition
+        event.park(this.metrics.parked(mode));
+        Stripe stripe = this.stripeOfTemplate(event.getTemplate());
+        if (stripe != null) {
+            stripe.register(mode, event);
+        } else {
+            for (Stripe s : this.stripes) {
+                s.register(mode, event);
+            }
+        }
+    }
+
+    /**
+     * Enlève un évènement en attente de la ou des partitions où il a été
+     * enregistré.
+     *
+     * @param mode le mode de l'évènement
+     * @param event l'évènement à enlever
+     */
+    private void unregister(eventMode mode, Event event) {
+        Stripe stripe = this.stripeOfTemplate(event.getTemplate());
+        if (stripe != null) {
+            stripe.unregister(mode, event);
+        } else {
+            for (Stripe s : this.stripes) {
+                s.unregister(mode, event);
+            }
+        }
+    }
+
+    /**
+     * Enlève tout de suite des autres partitions les copies des évènements
+     * réclamés enregistrés dans toutes les partitions (premier champ non
+     * valeur). Sans cela, une copie ne serait enlevée qu'au prochain write
+     * qui l'atteint, et les registres grossiraient sans limite. Appelé
+     * verrous libérés : une partition n'attend jamais le verrou d'une autre.
+     *
+     * @param fired les évènements réclamés
+     */
+    private void unlink(List<Event> fired) {
+        if (this.stripes.length == 1) {
+            return;
+        }
+        for (Event event : fired) {
+            if (!event.isPersistent() && this.stripeOfTemplate(event.getTemplate()) == null) {
+                for (Stripe s : this.stripes) {
+                    s.unlink(event);
+                }
+            }
+        }
+    }
+
+    /**
+     * @param ts des tuples compacts
+     * @return leurs copies en {@link Tuple}
+     */
+    private static List<Tuple> toTuples(List<CompactTuple> ts) {
+        List<Tuple> list = new ArrayList<>(ts.size());
+        for (CompactTuple t : ts) {
+            list.add(t.toTuple());
+        }
+        return list;
+    }
+
+    /**
+     * @param t un tuple
+     * @return la partition dans laquelle le tuple est rangé
+     */
+    private Stripe stripeOf(CompactTuple t) {
+        return this.stripeOf(t.size(), t.isEmpty() ? null : t.field(0));
+    }
+
+    /**
+     * @param arity l'arité d'un tuple
+     * @param first son premier champ, null s'il est vide
+     * @return la partition dans laquelle le tuple est rangé
+     */
+    private Stripe stripeOf(int arity, Object first) {
+        if (this.stripes.length == 1) {
+            return this.stripes[0];
+        }
+        int h = 31 * arity + (first == null ? 0 : first.hashCode());
+        // mélange des bits de poids fort, comme HashMap
+        h ^= (h >>> 16);
+        return this.stripes[(h & Integer.MAX_VALUE) % this.stripes.length];
+    }
+
+    /**
+     * @param template un template
+     * @return la seule partition pouvant contenir un tuple correspondant au
+     * template, ou null si le premier champ n'est pas une valeur
+     */
+    private Stripe stripeOfTemplate(Tuple template) {
+        if (this.stripes.length == 1) {
+            return this.stripes[0];
+        }
+        if (template.isEmpty() || TupleStore.isConcrete(template.getFirst())) {
+            return this.stripeOf(template.size(), template.isEmpty() ? null : template.getFirst());
+        }
+        return null;
+    }
+
+    /**
+     * Curseur d'un readAll en flux : enchaîne les parcours des partitions.
+     */
+    private static final class ReadCursor extends CompactCursor {
+
+        private final Matcher matcher;
+        private final Iterator<Stripe> stripes;
+        private Iterator<CompactTuple> current;
+        private boolean closed;
+
+        ReadCursor(Matcher matcher, Iterator<Stripe> stripes) {
+            this.matcher = matcher;
+            this.stripes = stripes;
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (!this.closed && (this.current == null || !this.current.hasNext())) {
+                this.release();
+                if (!this.stripes.hasNext()) {
+                    return false;
+                }
+                this.current = this.stripes.next().iterator(this.matcher);
+            }
+            return !this.closed;
+        }
+
+        @Override
+        public CompactTuple nextCompact() {
+            if (!this.hasNext()) {
+                throw new NoSuchElementException();
+            }
+            return this.current.next();
+        }
+
+        private void release() {
+            if (this.current instanceof Closeable) {
+                try {
+                    ((Closeable) this.current).close();
+                } catch (IOException ex) {
+                    Logger.getLogger(CentralizedLinda.class.getName()).log(Level.SEVERE, null, ex);
+                }
+            }
+            this.current = null;
+        }
+
+        @Override
+        public void close() {
+            this.release();
+            this.closed = true;
+        }
+    }
+
+    /**
+     * Curseur d'un takeAll en flux : prend la page suivante quand la
+     * précédente est livrée.
+     */
+    private final class TakeCursor extends CompactCursor {
+
+        private final Matcher matcher;
+        private List<CompactTuple> page;
+        private int p;
+        private boolean done;
+
+        TakeCursor(Matcher matcher) {
+            this.matcher = matcher;
+            this.page = Collections.emptyList();
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (this.p == this.page.size() && !this.done) {
+                this.page = takeCompact(this.matcher, CURSOR_PAGE);
+                this.p = 0;
+                this.done = this.page.size() < CURSOR_PAGE;
+            }
+            return this.p < this.page.size();
+        }
+
+        @Override
+        public CompactTuple nextCompact() {
+            if (!this.hasNext()) {
+                throw new NoSuchElementException();
+            }
+            return this.page.get(this.p++);
+        }
+
+        /**
+         * Prend juste les tuples qui manquent à la page en cours : pas de
+         * tuples pris d'avance pour un client distant.
+         */
+        @Override
+        public CompactTuple[] next(int max) {
+            List<CompactTuple> list = new ArrayList<>();
+            while (list.size() < max && this.p < this.page.size()) {
+                list.add(this.page.get(this.p++));
+            }
+            if (list.size() < max && !this.done) {
+                int n = max - list.size();
+                List<CompactTuple> taken = takeCompact(this.matcher, n);
+                this.done = taken.size() < n;
+                list.addAll(taken);
+            }
+            return list.toArray(new CompactTuple[list.size()]);
+        }
+
+        /**
+         * Remet en mémoire les tuples pris mais pas encore livrés, avec leur
+         * bail (voir {@link #putBack(List)}).
+         */
+        @Override
+        public void close() {
+            this.done = true;
+            if (this.p < this.page.size()) {
+                putBack(this.page.subList(this.p, this.page.size()));
+            }
+            this.page = Collections.emptyList();
+            this.p = 0;
+        }
     }
 }
@@ -0,0 +1,36 @@
+package linda.shm;
+
+import linda.Callback;
+import linda.CompactTuple;
+import linda.Tuple;
+
+/**
+ * Callback qui reçoit aussi le tuple tel qu'il est rangé en mémoire, avec
+ * son échéance. Un tuple pris que le callback ne peut pas livrer (take
+ * annulé, client disparu) est ainsi remis en mémoire par
+ * {@link CentralizedLinda#putBack(CompactTuple)} sans perdre son bail.
+ *
+ * @author Alexandra Jacquet
+ * @author Florian Vetu
+ */
+public abstract class CompactCallback implements Callback {
+
+    /**
+     * Appelé par l'espace lors de l'évènement.
+     *
+     * @param c le tuple tel qu'il était rangé en mémoire
+     * @param t le même tuple, à passer à l'application
+     */
+    public abstract void call(CompactTuple c, Tuple t);
+
+    /**
+     * Appelé hors d'un {@link CentralizedLinda}, sans tuple rangé : le tuple
+     * n'a pas d'échéance.
+     *
+     * @param t le tuple
+     */
+    @Override
+    public void call(Tuple t) {
+        this.call(CompactTuple.of(t), t);
+    }
+}
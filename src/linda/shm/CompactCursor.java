@@ -0,0 +1,44 @@
+package linda.shm;
+
+import java.util.ArrayList;
+import java.util.List;
+import linda.CompactTuple;
+import linda.Cursor;
+import linda.Tuple;
+
+/**
+ * Curseur d'un readAll ou d'un takeAll en flux d'un {@link CentralizedLinda}.
+ * Les tuples sont aussi livrés sous forme compacte, un par un ou par pages,
+ * par exemple pour être envoyés tels quels à un client distant.
+ *
+ * @author Alexandra Jacquet
+ * @author Florian Vetu
+ */
+public abstract class CompactCursor implements Cursor {
+
+    /**
+     * @return le tuple suivant, sous forme compacte
+     * @throws java.util.NoSuchElementException à la fin du curseur
+     */
+    public abstract CompactTuple nextCompact();
+
+    @Override
+    public Tuple next() {
+        return this.nextCompact().toTuple();
+    }
+
+    /**
+     * Rend une page de tuples.
+     *
+     * @param max le nombre maximal de tuples
+     * @return les tuples suivants, moins de max (voire aucun) seulement à la
+     * fin du curseur
+     */
+    public CompactTuple[] next(int max) {
+        List<CompactTuple> page = new ArrayList<>(Math.min(max, 1024));
+        while (page.size() < max && this.hasNext()) {
+            page.add(this.nextCompact());
+        }
+        return page.toArray(new CompactTuple[page.size()]);
+    }
+}
@@ -4,7 +4,11 @@
  */
 package linda.shm;
 
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
 import linda.Callback;
+import linda.CompactTuple;
 import linda.Tuple;
 
 /**
@@ -17,10 +21,32 @@ import linda.Tuple;
 public class Event {
 
     /**
-     * Stock un tuple et un callback
+     * Compteur donnant l'ordre d'enregistrement des évènements
      */
-    private Tuple motif;
+    private static final AtomicLong COUNTER = new AtomicLong();
+
+    /**
+     * Stock un template, compilé une fois pour toutes, et un callback
+     */
+    private final Matcher motif;
     private Callback callback;
+    /**
+     * Vrai dès que l'évènement a été réclamé par un write
+     */
+    private final AtomicBoolean fired;
+    /**
+     * Numéro d'ordre de l'évènement, croissant avec sa création
+     */
+    private volatile long order;
+    /**
+     * Vrai pour un abonnement, déclenché à chaque write jusqu'à annulation
+     */
+    private final boolean persistent;
+    /**
+     * Le compteur des évènements en attente qui compte celui-ci, décrémenté
+     * quand il est réclamé ou annulé. Null si l'évènement n'est pas compté.
+     */
+    private volatile LongAdder parked;
 
     /**
      * Construit un Event avec un template et un callback.
@@ -30,8 +56,145 @@ public class Event {
      * @see Tuple
      */
     public Event(Tuple motif, Callback callback) {
+        this(motif, callback, false);
+    }
+
+    /**
+     * Construit un Event avec un template et un callback, éventuellement
+     * persistant : un évènement persistant (abonnement) reste dans les
+     * registres et est déclenché par chaque write qui le match, jusqu'à son
+     * annulation.
+     *
+     * @param motif le template associé à l'évènement
+     * @param callback le callback appelé lors de l'évènement.
+     * @param persistent vrai pour un abonnement
+     * @see Tuple
+     */
+    public Event(Tuple motif, Callback callback, boolean persistent) {
+        this(Matcher.compile(motif), callback, persistent);
+    }
+
+    /**
+     * Construit un Event avec un template déjà compilé.
+     *
+     * @param motif le template compilé associé à l'évènement
+     * @param callback le callback appelé lors de l'évènement.
+     * @param persistent vrai pour un abonnement
+     */
+    public Event(Matcher motif, Callback callback, boolean persistent) {
         this.motif = motif;
         this.callback = callback;
+        this.fired = new AtomicBoolean(false);
+        this.order = COUNTER.getAndIncrement();
+        this.persistent = persistent;
+    }
+
+    /**
+     * Construit un évènement qui est son propre callback, pour qu'une attente
+     * n'alloue qu'un seul objet (voir {@link Waiter}).
+     *
+     * @param motif le template compilé associé à l'évènement
+     */
+    protected Event(Matcher motif) {
+        this(motif, null, false);
+        this.callback = (Callback) this;
+    }
+
+    /**
+     * @return vrai si l'évènement est un abonnement
+     */
+    public boolean isPersistent() {
+        return this.persistent;
+    }
+
+    /**
+     * Replace l'évènement après tous ceux déjà enregistrés : un abonnement
+     * take déclenché laisse ainsi passer les autres take en attente.
+     */
+    public void reorder() {
+        this.order = COUNTER.getAndIncrement();
+    }
+
+    /**
+     * @return le numéro d'ordre de l'évènement, pour départager les take en
+     * attente (le plus ancien d'abord)
+     */
+    public long getOrder() {
+        return this.order;
+    }
+
+    /**
+     * Réclame l'évènement. Un seul appelant peut réussir, ce qui garantit
+     * qu'un évènement n'est déclenché qu'une fois même si plusieurs write
+     * concurrents le trouvent dans le registre. Un abonnement peut être
+     * réclamé tant qu'il n'est pas annulé.
+     *
+     * @return vrai si l'appelant a obtenu l'évènement, faux s'il était déjà
+     * réclamé
+     */
+    public boolean claim() {
+        if (this.persistent) {
+            return !this.fired.get();
+        }
+        return this.settle();
+    }
+
+    /**
+     * Annule l'évènement : il ne sera plus déclenché.
+     *
+     * @return vrai si l'évènement était encore actif
+     */
+    public boolean cancel() {
+        return this.settle();
+    }
+
+    /**
+     * Marque l'évènement comme réclamé ou annulé, et le retire du compte des
+     * évènements en attente.
+     *
+     * @return vrai si l'évènement était encore actif
+     */
+    private boolean settle() {
+        if (!this.fired.compareAndSet(false, true)) {
+            return false;
+        }
+        LongAdder gauge = this.parked;
+        if (gauge != null) {
+            gauge.decrement();
+        }
+        return true;
+    }
+
+    /**
+     * Compte l'évènement parmi les évènements en attente, jusqu'à ce qu'il
+     * soit réclamé ou annulé. Appelé avant son enregistrement.
+     *
+     * @param gauge le compteur des évènements en attente
+     */
+    void park(LongAdder gauge) {
+        this.parked = gauge;
+        gauge.increment();
+    }
+
+    /**
+     * @return vrai si l'évènement a déjà été réclamé, ou annulé
+     */
+    public boolean isFired() {
+        return this.fired.get();
+    }
+
+    /**
+     * @return le template associé à l'évènement
+     */
+    public Tuple getTemplate() {
+        return this.motif.getTemplate();
+    }
+
+    /**
+     * @return le callback appelé lors de l'évènement
+     */
+    public Callback getCallback() {
+        return this.callback;
     }
 
     /**
@@ -41,8 +204,8 @@ public class Event {
      * @return vrai si le tuple match le template, faux sinon
      * @see Tuple
      */
-    public boolean isMatching(Tuple tuple) {
-        return tuple.matches(this.motif);
+    public boolean isMatching(CompactTuple tuple) {
+        return this.motif.matches(tuple);
     }
 
     /**
@@ -0,0 +1,272 @@
+package linda.shm;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import linda.CompactTuple;
+import linda.Tuple;
+
+/**
+ * Registre d'évènements en attente, indexé comme la mémoire de tuples. Un
+ * évènement dont le template a une valeur comme premier champ est rangé par
+ * arité et par cette valeur ; les autres sont rangés par arité et par la
+ * contrainte de classe de leur premier champ. Lors d'un write, seuls les
+ * évènements de ces paquets sont testés. Le registre est protégé par le verrou
+ * de la partition qui le possède.
+ *
+ * @author Alexandra Jacquet
+ * @author Florian Vetu
+ */
+public class EventRegistry {
+
+    /**
+     * Évènements à premier champ valeur : arité -> premier champ -> file
+     */
+    private final Map<Integer, Map<Object, Queue<Event>>> byValue;
+    /**
+     * Autres évènements : arité -> classe du premier champ -> file. Les
+     * templates dont le premier champ est un tuple sont rangés sous
+     * <code>Tuple.class</code>.
+     */
+    private final Map<Integer, Map<Class<?>, Queue<Event>>> byClass;
+
+    /**
+     * Crée un registre vide.
+     */
+    public EventRegistry() {
+        this.byValue = new HashMap<>();
+        this.byClass = new HashMap<>();
+    }
+
+    /**
+     * Ajoute un évènement en fin de sa file.
+     *
+     * @param event l'évènement à ajouter
+     */
+    public void add(Event event) {
+        Tuple template = event.getTemplate();
+        Integer arity = template.size();
+        if (template.isEmpty() || TupleStore.isConcrete(template.getFirst())) {
+            Map<Object, Queue<Event>> queues = this.byValue.get(arity);
+            if (queues == null) {
+                queues = new HashMap<>();
+                this.byValue.put(arity, queues);
+            }
+            append(queues, TupleStore.keyOf(template), event);
+        } else {
+            Map<Class<?>, Queue<Event>> queues = this.byClass.get(arity);
+            if (queues == null) {
+                queues = new HashMap<>();
+                this.byClass.put(arity, queues);
+            }
+            append(queues, classOf(template.getFirst()), event);
+        }
+    }
+
+    /**
+     * Enlève un évènement de sa file, par exemple quand il est annulé.
+     *
+     * @param event l'évènement à enlever
+     */
+    public void remove(Event event) {
+        Tuple template = event.getTemplate();
+        Integer arity = template.size();
+        if (template.isEmpty() || TupleStore.isConcrete(template.getFirst())) {
+            Map<Object, Queue<Event>> queues = this.byValue.get(arity);
+            if (queues != null && removeFrom(queues, TupleStore.keyOf(template), event)) {
+                this.byValue.remove(arity);
+            }
+        } else {
+            Map<Class<?>, Queue<Event>> queues = this.byClass.get(arity);
+            if (queues != null && removeFrom(queues, classOf(template.getFirst()), event)) {
+                this.byClass.remove(arity);
+            }
+        }
+    }
+
+    /**
+     * Réclame et enlève du registre tous les évènements qui match le tuple.
+     * Les abonnements réclamés restent dans le registre.
+     *
+     * @param t le tuple écrit
+     * @param fired la liste à compléter, ou null
+     * @return la liste des évènements réclamés, null si aucun
+     */
+    public List<Event> claimAll(CompactTuple t, List<Event> fired) {
+        for (Queue<Event> queue : this.candidates(t)) {
+            Iterator<Event> it = queue.iterator();
+            while (it.hasNext()) {
+                Event event = it.next();
+                if (event.isFired()) {
+                    // déjà déclenché depuis une autre partition
+                    it.remove();
+                } else if (event.isMatching(t) && event.claim()) {
+                    if (!event.isPersistent()) {
+                        it.remove();
+                    }
+                    if (fired == null) {
+                        fired = new ArrayList<>();
+                    }
+                    fired.add(event);
+                }
+            }
+        }
+        this.prune(t);
+        return fired;
+    }
+
+    /**
+     * Réclame et enlève du registre le plus ancien évènement qui match le
+     * tuple, tous paquets candidats confondus. Un abonnement réclamé est
+     * replacé en fin de sa file.
+     *
+     * @param t le tuple écrit
+     * @return l'évènement réclamé, null si aucun
+     */
+    public Event claimOldest(CompactTuple t) {
+        List<Queue<Event>> candidates = this.candidates(t);
+        Event oldest;
+        Queue<Event> oldestQueue;
+        do {
+            // tête matchante de chaque file, puis la plus ancienne
+            oldest = null;
+            oldestQueue = null;
+            for (Queue<Event> queue : candidates) {
+                Event head = firstMatching(queue, t);
+                if (head != null && (oldest == null || head.getOrder() < oldest.getOrder())) {
+                    oldest = head;
+                    oldestQueue = queue;
+                }
+            }
+            // un évènement partagé peut être réclamé entre temps par une autre partition
+        } while (oldest != null && !oldest.claim());
+        if (oldest != null) {
+            // l'évènement est en tête (ou presque) de sa file
+            oldestQueue.remove(oldest);
+            if (oldest.isPersistent()) {
+                // un abonnement repasse en fin de file
+                oldest.reorder();
+                oldestQueue.add(oldest);
+            }
+        }
+        this.prune(t);
+        return oldest;
+    }
+
+    /**
+     * @return vrai si le registre ne contient aucun évènement
+     */
+    public boolean isEmpty() {
+        return this.byValue.isEmpty() && this.byClass.isEmpty();
+    }
+
+    /**
+     * Parcourt une file jusqu'au premier évènement non réclamé qui match le
+     * tuple, en enlevant au passage les évènements déjà réclamés.
+     */
+    private static Event firstMatching(Queue<Event> queue, CompactTuple t) {
+        Iterator<Event> it = queue.iterator();
+        while (it.hasNext()) {
+            Event event = it.next();
+            if (event.isFired()) {
+                it.remove();
+            } else if (event.isMatching(t)) {
+                return event;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Liste les files pouvant contenir un évènement qui match le tuple : la
+     * file de son premier champ et celles dont la contrainte de classe accepte
+     * ce premier champ.
+     */
+    private List<Queue<Event>> candidates(CompactTuple t) {
+        List<Queue<Event>> res = new ArrayList<>(2);
+        Map<Object, Queue<Event>> values = this.byValue.get(t.size());
+        if (values != null) {
+            Queue<Event> queue = values.get(TupleStore.keyOf(t));
+            if (queue != null) {
+                res.add(queue);
+            }
+        }
+        Map<Class<?>, Queue<Event>> classes = this.byClass.get(t.size());
+        if (classes != null && !t.isEmpty()) {
+            Serializable first = t.field(0);
+            for (Map.Entry<Class<?>, Queue<Event>> entry : classes.entrySet()) {
+                if (Tuple.matches(first, entry.getKey())) {
+                    res.add(entry.getValue());
+                }
+            }
+        }
+        return res;
+    }
+
+    /**
+     * Enlève les files candidates du tuple devenues vides : la file de son
+     * premier champ et les files par classe de son arité (peu nombreuses).
+     */
+    private void prune(CompactTuple t) {
+        Integer arity = t.size();
+        Map<Object, Queue<Event>> values = this.byValue.get(arity);
+        if (values != null) {
+            Object key = TupleStore.keyOf(t);
+            Queue<Event> queue = values.get(key);
+            if (queue != null && queue.isEmpty()) {
+                values.remove(key);
+                if (values.isEmpty()) {
+                    this.byValue.remove(arity);
+                }
+            }
+        }
+        Map<Class<?>, Queue<Event>> classes = this.byClass.get(arity);
+        if (classes != null) {
+            Iterator<Queue<Event>> it = classes.values().iterator();
+            while (it.hasNext()) {
+                if (it.next().isEmpty()) {
+                    it.remove();
+                }
+            }
+            if (classes.isEmpty()) {
+                this.byClass.remove(arity);
+            }
+        }
+    }
+
+    /**
+     * Enlève l'évènement de la file de clé <code>key</code>, et la file si
+     * elle devient vide.
+     *
+     * @return vrai si plus aucune file n'est associée à l'arité
+     */
+    private static <K> boolean removeFrom(Map<K, Queue<Event>> queues, K key, Event event) {
+        Queue<Event> queue = queues.get(key);
+        if (queue != null && queue.remove(event) && queue.isEmpty()) {
+            queues.remove(key);
+        }
+        return queues.isEmpty();
+    }
+
+    private static <K> void append(Map<K, Queue<Event>> queues, K key, Event event) {
+        Queue<Event> queue = queues.get(key);
+        if (queue == null) {
+            queue = new ConcurrentLinkedQueue<>();
+            queues.put(key, queue);
+        }
+        queue.add(event);
+    }
+
+    /**
+     * @param field le premier champ (non valeur) d'un template
+     * @return la contrainte de classe correspondante
+     */
+    private static Class<?> classOf(Serializable field) {
+        return field instanceof Class ? (Class<?>) field : Tuple.class;
+    }
+}
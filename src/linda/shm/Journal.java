@@ -0,0 +1,639 @@
+package linda.shm;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+import linda.CompactTuple;
+import linda.TupleCodec;
+
+/**
+ * Journal d'écriture anticipée (write-ahead log) d'un
+ * {@link CentralizedLinda}. Chaque modification de la mémoire (un tuple
+ * rangé, un tuple enlevé) est ajoutée à un tampon, sous le verrou de sa
+ * partition ; un thread d'écriture vide le tampon dans le fichier du journal
+ * par lots (group commit). Les enregistrements sont encodés par
+ * {@link TupleCodec}, avec leur longueur et un CRC32 : un enregistrement
+ * incomplet ou corrompu en fin de fichier, après un arrêt brutal, est ignoré.
+ * <p>
+ * La politique de synchronisation ({@link Sync}) règle le compromis entre
+ * durabilité et débit. Périodiquement, l'espace entier est écrit dans un
+ * instantané (snapshot) et les journaux antérieurs sont supprimés : la
+ * reprise charge le dernier instantané puis rejoue les journaux suivants.
+ * <p>
+ * Un échec d'écriture du journal est définitif : la fin du fichier peut
+ * contenir un lot partiel, après lequel rien ne serait rejoué. Les
+ * opérations qui attendaient ce lot, et toutes les modifications suivantes,
+ * échouent alors avec une {@link UncheckedIOException} ; l'espace en mémoire
+ * peut contenir des modifications signalées en échec, et une reprise repart
+ * du dernier lot écrit.
+ * <p>
+ * Fichiers du répertoire : <code>snapshot-</code><i>g</i><code>.bin</code>,
+ * l'espace au début du journal <code>log-</code><i>g</i><code>.bin</code>.
+ *
+ * @author Alexandra Jacquet
+ * @author Florian Vetu
+ */
+public class Journal implements Closeable {
+
+    /**
+     * Politiques de synchronisation du journal sur le disque.
+     */
+    public enum Sync {
+        /**
+         * Le journal est écrit périodiquement, jamais forcé sur le disque :
+         * un arrêt du système peut perdre les dernières modifications.
+         */
+        NONE,
+        /**
+         * Le journal est écrit et forcé sur le disque périodiquement : au
+         * plus une période de modifications est perdue.
+         */
+        PERIODIC,
+        /**
+         * Une opération ne rend la main qu'une fois ses modifications forcées
+         * sur le disque. Les opérations concurrentes partagent le même
+         * fsync.
+         */
+        COMMIT
+    };
+
+    private static final byte WRITE = 1;
+    private static final byte TAKE = 2;
+    private static final int SNAPSHOT_MAGIC = 0x4C534E50;
+
+    private final Path dir;
+    private final Sync sync;
+    private final long periodMillis;
+    private final long snapshotEvery;
+
+    /**
+     * Les enregistrements en attente d'écriture, et le tampon d'encodage d'un
+     * enregistrement. Protégés par le moniteur du journal.
+     */
+    private Buffer pending;
+    private Buffer spare;
+    private final Buffer record;
+    private final CRC32 crc;
+    /**
+     * Nombre d'enregistrements ajoutés, et écrits (et forcés selon la
+     * politique)
+     */
+    private long appended;
+    private long synced;
+    private long sinceSnapshot;
+    private boolean checkpointing;
+    private boolean closed;
+    /**
+     * L'échec d'écriture qui a arrêté le journal, null tant qu'il n'y en a
+     * pas eu
+     */
+    private IOException failure;
+
+    /**
+     * Verrou des écritures dans le fichier, pris avant le moniteur du journal
+     */
+    private final Object io;
+    private FileChannel log;
+    private long generation;
+    /**
+     * Tuples de l'espace relus à l'ouverture, rendus une fois par
+     * {@link #recovered()}
+     */
+    private List<CompactTuple> recovered;
+    private Thread writer;
+
+    /**
+     * Ouvre le journal d'un répertoire, créé si besoin, et relit l'espace
+     * qu'il contient (voir {@link #recovered()}).
+     *
+     * @param dir le répertoire du journal
+     * @param sync la politique de synchronisation
+     * @param periodMillis la période d'écriture (politiques NONE et
+     * PERIODIC), en millisecondes
+     * @param snapshotEvery le nombre d'enregistrements déclenchant un
+     * instantané
+     * @throws IOException si le répertoire ne peut pas être lu ou écrit
+     */
+    public Journal(Path dir, Sync sync, long periodMillis, long snapshotEvery) throws IOException {
+        this.dir = dir;
+        this.sync = sync;
+        this.periodMillis = periodMillis;
+        this.snapshotEvery = snapshotEvery;
+        this.pending = new Buffer(1 << 16);
+        this.spare = new Buffer(1 << 16);
+        this.record = new Buffer(256);
+        this.crc = new CRC32();
+        this.io = new Object();
+        Files.createDirectories(dir);
+        this.recovered = this.recover();
+        this.log = FileChannel.open(this.logFile(this.generation),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+    }
+
+    /**
+     * Ouvre le journal d'un répertoire avec la politique COMMIT, une période
+     * de 10 ms et un instantané tous les million d'enregistrements.
+     *
+     * @param dir le répertoire du journal
+     * @throws IOException si le répertoire ne peut pas être lu ou écrit
+     */
+    public Journal(Path dir) throws IOException {
+        this(dir, Sync.COMMIT, 10, 1000000);
+    }
+
+    /**
+     * @return les tuples relus à l'ouverture, dans l'ordre d'écriture. Vide
+     * au second appel.
+     */
+    synchronized List<CompactTuple> recovered() {
+        List<CompactTuple> list = this.recovered;
+        this.recovered = new ArrayList<>();
+        return list;
+    }
+
+    /**
+     * Lance le thread d'écriture.
+     *
+     * @param checkpoint l'instantané à déclencher tous les
+     * <code>snapshotEvery</code> enregistrements
+     */
+    synchronized void start(final Runnable checkpoint) {
+        if (this.writer != null) {
+            throw new IllegalStateException("journal already in use: " + this.dir);
+        }
+        this.writer = new Thread("linda-journal") {
+            @Override
+            public void run() {
+                while (awaitBatch()) {
+                    flush();
+                    if (snapshotDue()) {
+                        // hors du thread d'écriture, qui continue les commits
+                        new Thread("linda-snapshot") {
+                            @Override
+                            public void run() {
+                                try {
+                                    checkpoint.run();
+                                } finally {
+                                    checkpointDone();
+                                }
+                            }
+                        }.start();
+                    }
+                }
+            }
+        };
+        this.writer.setDaemon(true);
+        this.writer.start();
+        Runtime.getRuntime().addShutdownHook(new Thread() {
+            @Override
+            public void run() {
+                close();
+            }
+        });
+    }
+
+    /**
+     * Journalise un tuple rangé en mémoire. Appelé sous le verrou de la
+     * partition du tuple.
+     *
+     * @param t le tuple
+     */
+    void written(CompactTuple t) {
+        this.append(WRITE, t);
+    }
+
+    /**
+     * Journalise un tuple enlevé de la mémoire. Appelé sous le verrou de la
+     * partition du tuple.
+     *
+     * @param t le tuple
+     */
+    void taken(CompactTuple t) {
+        this.append(TAKE, t);
+    }
+
+    /**
+     * Vérifie que le journal peut encore recevoir des modifications. Appelé
+     * avant de modifier la mémoire, pour qu'une opération échoue sans effet
+     * autant que possible.
+     *
+     * @throws UncheckedIOException si une écriture du journal a échoué
+     */
+    synchronized void check() {
+        if (this.failure != null) {
+            throw this.failed();
+        }
+    }
+
+    /**
+     * @return l'exception signalant l'échec du journal
+     */
+    private UncheckedIOException failed() {
+        return new UncheckedIOException("journal failed: " + this.dir, this.failure);
+    }
+
+    private synchronized void append(byte type, CompactTuple t) {
+        if (this.closed) {
+            return;
+        }
+        if (this.failure != null) {
+            throw this.failed();
+        }
+        boolean first = this.pending.size() == 0;
+        try {
+            this.record.reset();
+            TupleCodec.encode(t, this.record.out);
+            this.crc.reset();
+            this.crc.update(type);
+            this.crc.update(this.record.bytes());
+            DataOutputStream out = this.pending.out;
+            out.writeByte(type);
+            out.writeInt(this.record.size());
+            out.writeInt((int) this.crc.getValue());
+            this.record.writeTo(out);
+        } catch (IOException ex) {
+            Logger.getLogger(Journal.class.getName()).log(Level.SEVERE, null, ex);
+            return;
+        }
+        this.appended++;
+        this.sinceSnapshot++;
+        if (first && this.sync == Sync.COMMIT) {
+            // premier enregistrement du lot : réveille le thread d'écriture
+            this.notifyAll();
+        }
+    }
+
+    /**
+     * Attend que les modifications journalisées jusqu'ici soient forcées sur
+     * le disque, avec la politique COMMIT. Appelé verrous de partition
+     * libérés ; sans effet avec les autres politiques.
+     *
+     * @throws UncheckedIOException si l'écriture de ces modifications a
+     * échoué
+     */
+    void commit() {
+        if (this.sync != Sync.COMMIT) {
+            return;
+        }
+        synchronized (this) {
+            long target = this.appended;
+            boolean interrupted = false;
+            while (this.synced < target && !this.closed && this.failure == null) {
+                try {
+                    this.wait();
+                } catch (InterruptedException ex) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+            if (this.synced < target && this.failure != null) {
+                throw this.failed();
+            }
+        }
+    }
+
+    /**
+     * Attend le prochain lot : le premier enregistrement avec la politique
+     * COMMIT, la fin de la période sinon.
+     *
+     * @return faux si le journal est fermé ou arrêté par un échec
+     */
+    private synchronized boolean awaitBatch() {
+        try {
+            if (this.sync == Sync.COMMIT) {
+                while (this.pending.size() == 0 && !this.closed) {
+                    this.wait();
+                }
+            } else if (!this.closed) {
+                this.wait(this.periodMillis);
+            }
+        } catch (InterruptedException ex) {
+            return false;
+        }
+        return !this.closed && this.failure == null;
+    }
+
+    /**
+     * Écrit le lot en attente dans le fichier du journal, et le force sur le
+     * disque selon la politique. Les enregistrements ajoutés pendant
+     * l'écriture forment le lot suivant. Un échec arrête le journal : le lot
+     * n'est pas compté comme écrit, et les commits qui l'attendaient
+     * échouent.
+     */
+    private void flush() {
+        synchronized (this.io) {
+            Buffer batch;
+            long target;
+            synchronized (this) {
+                if (this.closed || this.failure != null) {
+                    return;
+                }
+                batch = this.pending;
+                this.pending = this.spare;
+                this.spare = batch;
+                target = this.appended;
+            }
+            try {
+                if (batch.size() > 0) {
+                    ByteBuffer bb = batch.bytes();
+                    while (bb.hasRemaining()) {
+                        this.log.write(bb);
+                    }
+                    if (this.sync != Sync.NONE) {
+                        this.log.force(false);
+                    }
+                }
+            } catch (IOException ex) {
+                Logger.getLogger(Journal.class.getName()).log(Level.SEVERE, "journal write failed, journal stopped", ex);
+                synchronized (this) {
+                    this.failure = ex;
+                    this.notifyAll();
+                }
+                return;
+            } finally {
+                batch.reset();
+            }
+            synchronized (this) {
+                this.synced = target;
+                this.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * @return vrai si un instantané doit être lancé ; il est alors considéré
+     * en cours
+     */
+    private synchronized boolean snapshotDue() {
+        if (this.checkpointing || this.sinceSnapshot < this.snapshotEvery) {
+            return false;
+        }
+        this.checkpointing = true;
+        return true;
+    }
+
+    private synchronized void checkpointDone() {
+        this.checkpointing = false;
+    }
+
+    /**
+     * Termine le journal courant et en commence un nouveau. Appelé avec les
+     * verrous de toutes les partitions, au moment où l'espace est copié pour
+     * l'instantané : l'instantané est l'état au début du nouveau journal.
+     *
+     * @return le numéro du nouveau journal, à donner à
+     * {@link #snapshot(long, List)}
+     * @throws IOException si le nouveau journal ne peut pas être créé
+     */
+    long rotate() throws IOException {
+        synchronized (this.io) {
+            if (this.closed) {
+                throw new IOException("journal closed: " + this.dir);
+            }
+            this.flush();
+            synchronized (this) {
+                if (this.failure != null) {
+                    throw new IOException("journal failed: " + this.dir, this.failure);
+                }
+            }
+            if (this.sync == Sync.NONE) {
+                this.log.force(false);
+            }
+            this.log.close();
+            synchronized (this) {
+                this.generation++;
+                this.sinceSnapshot = 0;
+                this.log = FileChannel.open(this.logFile(this.generation),
+                        StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+                return this.generation;
+            }
+        }
+    }
+
+    /**
+     * Écrit l'instantané de l'espace au début du journal
+     * <code>generation</code>, puis supprime les journaux et instantanés
+     * devenus inutiles. L'instantané est écrit dans un fichier temporaire
+     * renommé une fois complet : un instantané présent est toujours entier.
+     *
+     * @param generation le numéro rendu par {@link #rotate()}
+     * @param tuples les tuples de l'espace à cet instant
+     * @throws IOException si l'instantané ne peut pas être écrit
+     */
+    void snapshot(long generation, List<CompactTuple> tuples) throws IOException {
+        Path tmp = this.dir.resolve("snapshot-" + generation + ".tmp");
+        try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel), 1 << 16));
+            out.writeInt(SNAPSHOT_MAGIC);
+            out.writeInt(tuples.size());
+            for (CompactTuple t : tuples) {
+                TupleCodec.encode(t, out);
+            }
+            out.flush();
+            channel.force(true);
+        }
+        Files.move(tmp, this.snapshotFile(generation), StandardCopyOption.ATOMIC_MOVE);
+        for (Map.Entry<Long, Path> file : this.files("log-").entrySet()) {
+            if (file.getKey() < generation) {
+                Files.deleteIfExists(file.getValue());
+            }
+        }
+        for (Map.Entry<Long, Path> file : this.files("snapshot-").entrySet()) {
+            if (file.getKey() < generation) {
+                Files.deleteIfExists(file.getValue());
+            }
+        }
+    }
+
+    /**
+     * Relit le dernier instantané complet et rejoue les journaux suivants.
+     * Les tuples sont comptés par valeur : un take rejoué annule un write du
+     * même tuple sans parcourir l'espace.
+     *
+     * @return les tuples de l'espace
+     */
+    private List<CompactTuple> recover() throws IOException {
+        Map<CompactTuple, int[]> counts = new LinkedHashMap<>();
+        TreeMap<Long, Path> snapshots = this.files("snapshot-");
+        long first = 0;
+        if (!snapshots.isEmpty()) {
+            first = snapshots.lastKey();
+            try (InputStream in = new BufferedInputStream(Files.newInputStream(snapshots.lastEntry().getValue()), 1 << 16)) {
+                DataInputStream data = new DataInputStream(in);
+                if (data.readInt() != SNAPSHOT_MAGIC) {
+                    throw new IOException("not a snapshot: " + snapshots.lastEntry().getValue());
+                }
+                for (int n = data.readInt(); n > 0; n--) {
+                    count(counts, TupleCodec.decodeCompact(data), 1);
+                }
+            }
+        }
+        this.generation = first;
+        for (Map.Entry<Long, Path> file : this.files("log-").entrySet()) {
+            if (file.getKey() >= first) {
+                this.replay(file.getValue(), counts);
+                // jamais d'ajout à un journal dont la fin peut être incomplète
+                this.generation = file.getKey() + 1;
+            }
+        }
+        List<CompactTuple> list = new ArrayList<>(counts.size());
+        for (Map.Entry<CompactTuple, int[]> entry : counts.entrySet()) {
+            for (int i = 0; i < entry.getValue()[0]; i++) {
+                list.add(entry.getKey());
+            }
+        }
+        return list;
+    }
+
+    /**
+     * Rejoue un journal, jusqu'à sa fin ou jusqu'au premier enregistrement
+     * incomplet ou corrompu.
+     */
+    private void replay(Path file, Map<CompactTuple, int[]> counts) throws IOException {
+        byte[] payload = new byte[256];
+        CRC32 check = new CRC32();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file), 1 << 16))) {
+            while (true) {
+                byte type;
+                int length;
+                int sum;
+                try {
+                    type = in.readByte();
+                    length = in.readInt();
+                    sum = in.readInt();
+                    if ((type != WRITE && type != TAKE) || length < 0 || length > (1 << 26)) {
+                        throw new EOFException();
+                    }
+                    if (payload.length < length) {
+                        payload = new byte[Math.max(length, 2 * payload.length)];
+                    }
+                    in.readFully(payload, 0, length);
+                } catch (EOFException ex) {
+                    return;
+                }
+                check.reset();
+                check.update(type);
+                check.update(payload, 0, length);
+                if ((int) check.getValue() != sum) {
+                    Logger.getLogger(Journal.class.getName()).log(Level.WARNING, "corrupted record in {0}, replay stopped", file);
+                    return;
+                }
+                CompactTuple t = TupleCodec.decodeCompact(new DataInputStream(new ByteArrayInputStream(payload, 0, length)));
+                count(counts, t, type == WRITE ? 1 : -1);
+            }
+        }
+    }
+
+    private static void count(Map<CompactTuple, int[]> counts, CompactTuple t, int delta) {
+        int[] n = counts.get(t);
+        if (n == null) {
+            if (delta < 0) {
+                return;
+            }
+            n = new int[1];
+            counts.put(t, n);
+        }
+        n[0] += delta;
+        if (n[0] <= 0) {
+            counts.remove(t);
+        }
+    }
+
+    /**
+     * @param prefix "log-" ou "snapshot-"
+     * @return les fichiers du répertoire de ce préfixe, par numéro croissant
+     */
+    private TreeMap<Long, Path> files(String prefix) throws IOException {
+        TreeMap<Long, Path> files = new TreeMap<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(this.dir, prefix + "*.bin")) {
+            for (Path p : stream) {
+                String name = p.getFileName().toString();
+                try {
+                    files.put(Long.parseLong(name.substring(prefix.length(), name.length() - 4)), p);
+                } catch (NumberFormatException ex) {
+                    // fichier étranger au journal
+                }
+            }
+        }
+        return files;
+    }
+
+    private Path logFile(long generation) {
+        return this.dir.resolve("log-" + generation + ".bin");
+    }
+
+    private Path snapshotFile(long generation) {
+        return this.dir.resolve("snapshot-" + generation + ".bin");
+    }
+
+    /**
+     * Écrit les enregistrements en attente, force le journal sur le disque et
+     * le ferme. Les modifications suivantes ne sont plus journalisées.
+     */
+    @Override
+    public void close() {
+        synchronized (this.io) {
+            if (this.closed) {
+                return;
+            }
+            this.flush();
+            boolean failed;
+            synchronized (this) {
+                this.closed = true;
+                failed = this.failure != null;
+                this.notifyAll();
+            }
+            try {
+                if (!failed) {
+                    this.log.force(false);
+                }
+                this.log.close();
+            } catch (IOException ex) {
+                Logger.getLogger(Journal.class.getName()).log(Level.SEVERE, null, ex);
+            }
+        }
+    }
+
+    /**
+     * Tampon d'enregistrements, écrit dans le fichier sans copie.
+     */
+    private static class Buffer extends ByteArrayOutputStream {
+
+        final DataOutputStream out = new DataOutputStream(this);
+
+        Buffer(int size) {
+            super(size);
+        }
+
+        ByteBuffer bytes() {
+            return ByteBuffer.wrap(this.buf, 0, this.count);
+        }
+    }
+}
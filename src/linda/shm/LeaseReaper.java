@@ -0,0 +1,210 @@
+package linda.shm;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import linda.CompactTuple;
+
+/**
+ * Expiration des tuples à bail d'un {@link CentralizedLinda}, par une roue
+ * temporelle hiérarchique : quatre niveaux de 256 cases, la case d'un tuple
+ * étant choisie d'après son échéance en nombre de tops (10 ms par défaut).
+ * Une case du premier niveau contient les tuples d'un même top, une case du
+ * niveau <i>n</i> ceux de 256<sup><i>n</i></sup> tops consécutifs, redistribués
+ * dans les niveaux inférieurs quand la roue atteint leur plage. Programmer un
+ * tuple et le retirer à l'échéance coûtent donc un temps constant, sans
+ * parcours ni tri des tuples en attente ; les échéances au-delà de la
+ * dernière roue (plus d'un an) sont gardées à part et redistribuées à chaque
+ * tour complet.
+ * <p>
+ * Le thread d'expiration n'est lancé qu'à la première programmation, et
+ * s'endort tant que la roue est vide.
+ *
+ * @author Alexandra Jacquet
+ * @author Florian Vetu
+ */
+class LeaseReaper {
+
+    private static final int BITS = 8;
+    private static final int SLOTS = 1 << BITS;
+    private static final int MASK = SLOTS - 1;
+    private static final int LEVELS = 4;
+
+    private final CentralizedLinda linda;
+    private final long tickNanos;
+    /**
+     * Date du top 0, sur l'échelle de {@link System#nanoTime()}
+     */
+    private final long origin;
+    /**
+     * Les cases, par niveau, créées au premier besoin
+     */
+    private final List<CompactTuple>[][] wheels;
+    private final List<CompactTuple> overflow;
+    /**
+     * Le dernier top traité
+     */
+    private long now;
+    /**
+     * Le nombre de tuples programmés
+     */
+    private int size;
+    private Thread thread;
+
+    /**
+     * Crée la roue d'un espace de tuples.
+     *
+     * @param linda l'espace dont les tuples expirent
+     * @param tickMillis la durée d'un top, en millisecondes : la précision
+     * de l'expiration
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    LeaseReaper(CentralizedLinda linda, long tickMillis) {
+        this.linda = linda;
+        this.tickNanos = TimeUnit.MILLISECONDS.toNanos(tickMillis);
+        this.origin = System.nanoTime();
+        this.wheels = new List[LEVELS][SLOTS];
+        this.overflow = new ArrayList<>();
+    }
+
+    /**
+     * Programme l'expiration d'un tuple à son échéance
+     * ({@link CompactTuple#getDeadline()}).
+     *
+     * @param t le tuple à bail, tel qu'écrit
+     */
+    synchronized void schedule(CompactTuple t) {
+        if (this.thread == null) {
+            this.start();
+        }
+        if (this.size == 0) {
+            // roue vide : inutile de rattraper les tops écoulés un à un
+            this.now = this.currentTick();
+            this.notifyAll();
+        }
+        // la case du top courant a déjà été traitée
+        this.place(t, this.now + 1);
+        this.size++;
+    }
+
+    /**
+     * Range un tuple dans la case de son échéance : au niveau le plus bas
+     * dont la plage courante contient l'échéance.
+     *
+     * @param earliest le premier top dont la case n'a pas encore été
+     * traitée : une échéance antérieure y est ramenée
+     */
+    private void place(CompactTuple t, long earliest) {
+        long due = (t.getDeadline() - this.origin + this.tickNanos - 1) / this.tickNanos;
+        if (due < earliest) {
+            due = earliest;
+        }
+        for (int level = 0; level < LEVELS; level++) {
+            int shift = BITS * (level + 1);
+            if ((due >>> shift) == (this.now >>> shift)) {
+                this.slot(level, (int) (due >>> (BITS * level)) & MASK).add(t);
+                return;
+            }
+        }
+        this.overflow.add(t);
+    }
+
+    private List<CompactTuple> slot(int level, int index) {
+        List<CompactTuple> slot = this.wheels[level][index];
+        if (slot == null) {
+            slot = new ArrayList<>();
+            this.wheels[level][index] = slot;
+        }
+        return slot;
+    }
+
+    /**
+     * Avance la roue d'un top : redistribue les cases des niveaux supérieurs
+     * dont la plage commence, puis rend les tuples de la case du top.
+     *
+     * @param due la liste à compléter avec les tuples expirés
+     */
+    private void advance(List<CompactTuple> due) {
+        this.now++;
+        if ((this.now & ((1L << (BITS * LEVELS)) - 1)) == 0) {
+            List<CompactTuple> far = new ArrayList<>(this.overflow);
+            this.overflow.clear();
+            for (CompactTuple t : far) {
+                this.place(t, this.now);
+            }
+        }
+        for (int level = LEVELS - 1; level > 0; level--) {
+            if ((this.now & ((1L << (BITS * level)) - 1)) == 0) {
+                int index = (int) (this.now >>> (BITS * level)) & MASK;
+                List<CompactTuple> slot = this.wheels[level][index];
+                if (slot != null) {
+                    this.wheels[level][index] = null;
+                    // la case du top courant est lue juste après
+                    for (CompactTuple t : slot) {
+                        this.place(t, this.now);
+                    }
+                }
+            }
+        }
+        int index = (int) this.now & MASK;
+        List<CompactTuple> slot = this.wheels[0][index];
+        if (slot != null) {
+            this.wheels[0][index] = null;
+            due.addAll(slot);
+        }
+    }
+
+    /**
+     * @return le top courant
+     */
+    private long currentTick() {
+        return (System.nanoTime() - this.origin) / this.tickNanos;
+    }
+
+    /**
+     * Attend le prochain top échu, avance la roue jusqu'à lui et rend les
+     * tuples expirés.
+     *
+     * @return les tuples expirés
+     */
+    private synchronized List<CompactTuple> awaitDue() throws InterruptedException {
+        while (true) {
+            if (this.size == 0) {
+                this.wait();
+                continue;
+            }
+            long target = this.currentTick();
+            if (this.now < target) {
+                List<CompactTuple> due = new ArrayList<>();
+                while (this.now < target) {
+                    this.advance(due);
+                }
+                this.size -= due.size();
+                return due;
+            }
+            long sleep = this.origin + (this.now + 1) * this.tickNanos - System.nanoTime();
+            TimeUnit.NANOSECONDS.timedWait(this, Math.max(sleep, 1));
+        }
+    }
+
+    private void start() {
+        this.thread = new Thread("linda-reaper") {
+            @Override
+            public void run() {
+                try {
+                    while (true) {
+                        // retraits hors du moniteur : les write continuent
+                        // de programmer leurs tuples
+                        for (CompactTuple t : awaitDue()) {
+                            linda.expire(t);
+                        }
+                    }
+                } catch (InterruptedException ex) {
+                    // arrêt de la roue
+                }
+            }
+        };
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+}
@@ -0,0 +1,272 @@
+package linda.shm;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import linda.CompactTuple;
+import linda.Tuple;
+
+/**
+ * Template compilé. Le template est analysé une seule fois : ses champs sont
+ * rangés en valeurs, contraintes de classe et sous-templates compilés, et le
+ * test d'un tuple se réduit à une comparaison d'arité puis à trois boucles
+ * sur des tableaux, sans <code>instanceof</code> sur le template. Un template
+ * sans aucun champ non valeur compare d'abord le hash du tuple. Les règles de
+ * correspondance sont celles de {@link Tuple#matches(Tuple)}.
+ *
+ * @author Alexandra Jacquet
+ * @author Florian Vetu
+ */
+public abstract class Matcher {
+
+    /**
+     * Le template compilé
+     */
+    private final Tuple template;
+    /**
+     * L'arité du template
+     */
+    protected final int arity;
+
+    private Matcher(Tuple template) {
+        this.template = template;
+        this.arity = template.size();
+    }
+
+    /**
+     * Compile un template.
+     *
+     * @param template le template
+     * @return le matcher du template
+     */
+    public static Matcher compile(Tuple template) {
+        boolean exact = true;
+        for (Serializable field : template) {
+            if (field == null) {
+                // un champ null ne match rien (Tuple.matches appelle equals)
+                return new None(template);
+            }
+            exact &= TupleStore.isConcrete(field);
+        }
+        return exact ? new Exact(template) : new Fields(template);
+    }
+
+    /**
+     * @return le template compilé
+     */
+    public Tuple getTemplate() {
+        return this.template;
+    }
+
+    /**
+     * @param t un tuple
+     * @return vrai si le tuple match le template
+     */
+    public abstract boolean matches(CompactTuple t);
+
+    /**
+     * @param t un tuple, par exemple un champ tuple d'un tuple en mémoire
+     * @return vrai si le tuple match le template
+     */
+    public abstract boolean matches(Tuple t);
+
+    /**
+     * Test préalable sur le seul hash d'un tuple, pour ne décoder un tuple
+     * stocké sous forme encodée que s'il peut correspondre.
+     *
+     * @param hash le hash d'un tuple (celui de {@link CompactTuple})
+     * @return faux si aucun tuple de ce hash ne match le template
+     */
+    boolean mayMatch(int hash) {
+        return true;
+    }
+
+    /**
+     * Template contenant un champ null.
+     */
+    private static final class None extends Matcher {
+
+        None(Tuple template) {
+            super(template);
+        }
+
+        @Override
+        public boolean matches(CompactTuple t) {
+            return false;
+        }
+
+        @Override
+        public boolean matches(Tuple t) {
+            return false;
+        }
+    }
+
+    /**
+     * Template dont tous les champs sont des valeurs.
+     */
+    private static final class Exact extends Matcher {
+
+        private final Serializable[] values;
+        private final int hash;
+
+        Exact(Tuple template) {
+            super(template);
+            this.values = template.toArray(new Serializable[this.arity]);
+            // même hash qu'un CompactTuple égal
+            this.hash = Arrays.hashCode(this.values);
+        }
+
+        @Override
+        boolean mayMatch(int hash) {
+            return hash == this.hash;
+        }
+
+        @Override
+        public boolean matches(CompactTuple t) {
+            if (t.size() != this.arity || t.hashCode() != this.hash) {
+                return false;
+            }
+            for (int i = 0; i < this.arity; i++) {
+                if (!this.values[i].equals(t.field(i))) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public boolean matches(Tuple t) {
+            if (t.size() != this.arity) {
+                return false;
+            }
+            int i = 0;
+            for (Serializable field : t) {
+                if (!this.values[i++].equals(field)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Template quelconque : les valeurs, souvent les plus sélectives, sont
+     * testées en premier, puis les classes, puis les sous-templates.
+     */
+    private static final class Fields extends Matcher {
+
+        private final int[] valuePos;
+        private final Serializable[] values;
+        private final int[] classPos;
+        private final Class<?>[] classes;
+        private final int[] nestedPos;
+        private final Matcher[] nested;
+        /**
+         * Champ de template de chaque position, dans l'ordre : valeur, classe
+         * ou sous-template compilé
+         */
+        private final Object[] fields;
+
+        Fields(Tuple template) {
+            super(template);
+            List<Integer> vp = new ArrayList<>();
+            List<Serializable> vs = new ArrayList<>();
+            List<Integer> cp = new ArrayList<>();
+            List<Class<?>> cs = new ArrayList<>();
+            List<Integer> np = new ArrayList<>();
+            List<Matcher> ns = new ArrayList<>();
+            this.fields = new Object[this.arity];
+            int i = 0;
+            for (Serializable field : template) {
+                if (field instanceof Class) {
+                    cp.add(i);
+                    cs.add((Class<?>) field);
+                    this.fields[i] = field;
+                } else if (field instanceof Tuple) {
+                    np.add(i);
+                    ns.add(compile((Tuple) field));
+                    this.fields[i] = ns.get(ns.size() - 1);
+                } else {
+                    vp.add(i);
+                    vs.add(field);
+                    this.fields[i] = field;
+                }
+                i++;
+            }
+            this.valuePos = toArray(vp);
+            this.values = vs.toArray(new Serializable[vs.size()]);
+            this.classPos = toArray(cp);
+            this.classes = cs.toArray(new Class<?>[cs.size()]);
+            this.nestedPos = toArray(np);
+            this.nested = ns.toArray(new Matcher[ns.size()]);
+        }
+
+        @Override
+        public boolean matches(CompactTuple t) {
+            if (t.size() != this.arity) {
+                return false;
+            }
+            for (int i = 0; i < this.values.length; i++) {
+                if (!this.values[i].equals(t.field(this.valuePos[i]))) {
+                    return false;
+                }
+            }
+            for (int i = 0; i < this.classes.length; i++) {
+                if (!matchesClass(this.classes[i], t.field(this.classPos[i]))) {
+                    return false;
+                }
+            }
+            for (int i = 0; i < this.nested.length; i++) {
+                Serializable field = t.field(this.nestedPos[i]);
+                if (!(field instanceof Tuple) || !this.nested[i].matches((Tuple) field)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public boolean matches(Tuple t) {
+            // tuple imbriqué : parcouru une seule fois, dans l'ordre, sans copie
+            if (t.size() != this.arity) {
+                return false;
+            }
+            int i = 0;
+            for (Serializable field : t) {
+                Object f = this.fields[i++];
+                if (f instanceof Matcher) {
+                    if (!(field instanceof Tuple) || !((Matcher) f).matches((Tuple) field)) {
+                        return false;
+                    }
+                } else if (f instanceof Class) {
+                    if (!matchesClass((Class<?>) f, field)) {
+                        return false;
+                    }
+                } else if (!f.equals(field)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Règle de {@link Tuple#matches(Serializable, Serializable)} pour un
+         * champ de template classe.
+         */
+        private static boolean matchesClass(Class<?> c, Serializable field) {
+            if (field instanceof Class) {
+                return c.isAssignableFrom((Class<?>) field);
+            }
+            return c.isInstance(field);
+        }
+
+        private static int[] toArray(List<Integer> list) {
+            int[] res = new int[list.size()];
+            for (int i = 0; i < res.length; i++) {
+                res[i] = list.get(i);
+            }
+            return res;
+        }
+    }
+}
@@ -0,0 +1,246 @@
+package linda.shm;
+
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongBinaryOperator;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import linda.Linda.eventMode;
+
+/**
+ * Mesures d'un {@link CentralizedLinda} : nombre d'appels et histogramme des
+ * durées de chaque opération, durée des callbacks, tuples en mémoire par
+ * arité et évènements en attente. Les compteurs sont des {@link LongAdder} :
+ * une mesure coûte deux appels à {@link System#nanoTime()} et quelques
+ * incréments sans contention, ce qui permet de la laisser active en
+ * production. Les valeurs sont lues à la demande, par {@link #snapshot()} ou
+ * par JMX (voir {@link #register(String)}).
+ *
+ * @author Alexandra Jacquet
+ * @author Florian Vetu
+ */
+public class Metrics implements MetricsMXBean {
+
+    /**
+     * Les opérations mesurées.
+     */
+    public enum Op {
+        WRITE("write"), WRITE_ALL("writeAll"), TAKE("take"), READ("read"),
+        TRY_TAKE("tryTake"), TRY_READ("tryRead"), TAKE_ALL("takeAll"),
+        READ_ALL("readAll"), TRY_TAKE_N("tryTakeN"), TAKE_N("takeN"),
+        EVENT_REGISTER("eventRegister"), CALLBACK("callback");
+
+        /**
+         * Le nom de l'opération dans les mesures
+         */
+        private final String label;
+
+        private Op(String label) {
+            this.label = label;
+        }
+
+        public String getLabel() {
+            return this.label;
+        }
+    }
+
+    /**
+     * Nombre de classes de l'histogramme : la classe i compte les durées de
+     * moins de 2^i nanosecondes.
+     */
+    static final int BUCKETS = 40;
+
+    private static final LongBinaryOperator MAX = new LongBinaryOperator() {
+        @Override
+        public long applyAsLong(long left, long right) {
+            return Math.max(left, right);
+        }
+    };
+
+    /**
+     * Les partitions mesurées, pour compter les tuples en mémoire
+     */
+    private final Stripe[] stripes;
+    private final Histogram[] histograms;
+    private final LongAdder parkedReads;
+    private final LongAdder parkedTakes;
+    private ObjectName name;
+
+    /**
+     * @param stripes les partitions de l'espace de tuples mesuré
+     */
+    Metrics(Stripe[] stripes) {
+        this.stripes = stripes;
+        this.histograms = new Histogram[Op.values().length];
+        for (int i = 0; i < this.histograms.length; i++) {
+            this.histograms[i] = new Histogram();
+        }
+        this.parkedReads = new LongAdder();
+        this.parkedTakes = new LongAdder();
+    }
+
+    /**
+     * Enregistre la durée d'une opération.
+     *
+     * @param op l'opération
+     * @param start l'instant de début, donné par {@link System#nanoTime()}
+     */
+    void record(Op op, long start) {
+        this.histograms[op.ordinal()].add(System.nanoTime() - start);
+    }
+
+    /**
+     * @param mode un mode d'évènement
+     * @return le compteur des évènements en attente de ce mode
+     */
+    LongAdder parked(eventMode mode) {
+        return mode.equals(eventMode.READ) ? this.parkedReads : this.parkedTakes;
+    }
+
+    /**
+     * @return l'état courant des mesures
+     */
+    public MetricsSnapshot snapshot() {
+        Map<Integer, Long> byArity = this.getTuplesByArity();
+        long count = 0;
+        for (long n : byArity.values()) {
+            count += n;
+        }
+        Map<String, MetricsSnapshot.Operation> ops = new LinkedHashMap<>();
+        for (Op op : Op.values()) {
+            ops.put(op.getLabel(), this.histograms[op.ordinal()].snapshot());
+        }
+        return new MetricsSnapshot(System.currentTimeMillis(), count, byArity,
+                this.parkedReads.sum(), this.parkedTakes.sum(), ops);
+    }
+
+    @Override
+    public MetricsSnapshot getSnapshot() {
+        return this.snapshot();
+    }
+
+    @Override
+    public long getTupleCount() {
+        long count = 0;
+        for (Stripe stripe : this.stripes) {
+            count += stripe.size();
+        }
+        return count;
+    }
+
+    @Override
+    public Map<Integer, Long> getTuplesByArity() {
+        Map<Integer, Long> byArity = new TreeMap<>();
+        for (Stripe stripe : this.stripes) {
+            stripe.countByArity(byArity);
+        }
+        return byArity;
+    }
+
+    @Override
+    public long getParkedReads() {
+        return this.parkedReads.sum();
+    }
+
+    @Override
+    public long getParkedTakes() {
+        return this.parkedTakes.sum();
+    }
+
+    /**
+     * Remet à zéro les compteurs et histogrammes des opérations. Les tuples
+     * et évènements en attente, qui sont des états, ne sont pas concernés.
+     */
+    @Override
+    public void reset() {
+        for (Histogram h : this.histograms) {
+            h.reset();
+        }
+    }
+
+    /**
+     * Enregistre les mesures auprès du serveur JMX de la plateforme, sous le
+     * nom <code>linda:type=Linda,name=</code><i>name</i>.
+     *
+     * @param name le nom de l'espace de tuples
+     * @return le nom JMX
+     * @throws JMException si le nom est invalide ou déjà pris
+     */
+    public synchronized ObjectName register(String name) throws JMException {
+        this.unregister();
+        ObjectName on = new ObjectName("linda:type=Linda,name=" + ObjectName.quote(name));
+        ManagementFactory.getPlatformMBeanServer().registerMBean(this, on);
+        this.name = on;
+        return on;
+    }
+
+    /**
+     * Retire les mesures du serveur JMX, si elles y ont été enregistrées.
+     *
+     * @throws JMException
+     */
+    public synchronized void unregister() throws JMException {
+        if (this.name != null) {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            if (server.isRegistered(this.name)) {
+                server.unregisterMBean(this.name);
+            }
+            this.name = null;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return this.snapshot().toString();
+    }
+
+    /**
+     * Histogramme des durées d'une opération, en classes de puissances de 2
+     * nanosecondes.
+     */
+    private static class Histogram {
+
+        private final LongAdder[] buckets;
+        private final LongAdder total;
+        private final LongAccumulator max;
+
+        Histogram() {
+            this.buckets = new LongAdder[BUCKETS];
+            for (int i = 0; i < BUCKETS; i++) {
+                this.buckets[i] = new LongAdder();
+            }
+            this.total = new LongAdder();
+            this.max = new LongAccumulator(MAX, 0);
+        }
+
+        void add(long nanos) {
+            int i = Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(nanos));
+            this.buckets[i].increment();
+            this.total.add(nanos);
+            this.max.accumulate(nanos);
+        }
+
+        void reset() {
+            for (LongAdder bucket : this.buckets) {
+                bucket.reset();
+            }
+            this.total.reset();
+            this.max.reset();
+        }
+
+        MetricsSnapshot.Operation snapshot() {
+            long[] counts = new long[BUCKETS];
+            long count = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                counts[i] = this.buckets[i].sum();
+                count += counts[i];
+            }
+            return new MetricsSnapshot.Operation(count, this.total.sum(), this.max.get(), counts);
+        }
+    }
+}
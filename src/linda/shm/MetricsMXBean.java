@@ -0,0 +1,43 @@
+package linda.shm;
+
+import java.util.Map;
+
+/**
+ * Interface JMX des mesures d'un {@link CentralizedLinda}.
+ *
+ * @author Alexandra Jacquet
+ * @author Florian Vetu
+ * @see Metrics
+ */
+public interface MetricsMXBean {
+
+    /**
+     * @return toutes les mesures, lues au même moment
+     */
+    public MetricsSnapshot getSnapshot();
+
+    /**
+     * @return le nombre de tuples en mémoire
+     */
+    public long getTupleCount();
+
+    /**
+     * @return le nombre de tuples en mémoire, par arité
+     */
+    public Map<Integer, Long> getTuplesByArity();
+
+    /**
+     * @return le nombre d'évènements read (et d'abonnements read) en attente
+     */
+    public long getParkedReads();
+
+    /**
+     * @return le nombre d'évènements take (et d'abonnements take) en attente
+     */
+    public long getParkedTakes();
+
+    /**
+     * Remet à zéro les compteurs et histogrammes des opérations.
+     */
+    public void reset();
+}
@@ -0,0 +1,196 @@
+package linda.shm;
+
+import java.io.Serializable;
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * Les mesures d'un {@link CentralizedLinda} à un instant donné. Immuable et
+ * sérialisable : un serveur peut la renvoyer à un client.
+ *
+ * @author Alexandra Jacquet
+ * @author Florian Vetu
+ * @see Metrics#snapshot()
+ */
+public class MetricsSnapshot implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final long time;
+    private final long tupleCount;
+    private final Map<Integer, Long> tuplesByArity;
+    private final long parkedReads;
+    private final long parkedTakes;
+    private final Map<String, Operation> operations;
+
+    MetricsSnapshot(long time, long tupleCount, Map<Integer, Long> tuplesByArity,
+            long parkedReads, long parkedTakes, Map<String, Operation> operations) {
+        this.time = time;
+        this.tupleCount = tupleCount;
+        this.tuplesByArity = Collections.unmodifiableMap(tuplesByArity);
+        this.parkedReads = parkedReads;
+        this.parkedTakes = parkedTakes;
+        this.operations = Collections.unmodifiableMap(operations);
+    }
+
+    /**
+     * @return l'instant de la mesure, en millisecondes depuis l'epoch
+     */
+    public long getTime() {
+        return this.time;
+    }
+
+    /**
+     * @return le nombre de tuples en mémoire
+     */
+    public long getTupleCount() {
+        return this.tupleCount;
+    }
+
+    /**
+     * @return le nombre de tuples en mémoire, par arité croissante
+     */
+    public Map<Integer, Long> getTuplesByArity() {
+        return this.tuplesByArity;
+    }
+
+    /**
+     * @return le nombre d'évènements read en attente
+     */
+    public long getParkedReads() {
+        return this.parkedReads;
+    }
+
+    /**
+     * @return le nombre d'évènements take en attente
+     */
+    public long getParkedTakes() {
+        return this.parkedTakes;
+    }
+
+    /**
+     * @return les mesures de chaque opération, par nom (write, take, ...,
+     * callback)
+     */
+    public Map<String, Operation> getOperations() {
+        return this.operations;
+    }
+
+    /**
+     * @param op le nom d'une opération, par exemple "take"
+     * @return ses mesures, null si le nom est inconnu
+     */
+    public Operation getOperation(String op) {
+        return this.operations.get(op);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("tuples=").append(this.tupleCount).append(' ').append(this.tuplesByArity);
+        sb.append(" parkedReads=").append(this.parkedReads);
+        sb.append(" parkedTakes=").append(this.parkedTakes);
+        for (Map.Entry<String, Operation> op : this.operations.entrySet()) {
+            if (op.getValue().getCount() > 0) {
+                sb.append("\n  ").append(op.getKey()).append(' ').append(op.getValue());
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Nombre d'appels et durées d'une opération. Les quantiles sont les
+     * bornes supérieures des classes de l'histogramme (des puissances de 2),
+     * donc précis à un facteur 2 près.
+     */
+    public static class Operation implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        private final long count;
+        private final long totalNanos;
+        private final long maxNanos;
+        /**
+         * Classes de l'histogramme : buckets[i] compte les durées de moins de
+         * 2^i nanosecondes (et d'au moins 2^(i-1))
+         */
+        private final long[] buckets;
+
+        Operation(long count, long totalNanos, long maxNanos, long[] buckets) {
+            this.count = count;
+            this.totalNanos = totalNanos;
+            this.maxNanos = maxNanos;
+            this.buckets = buckets;
+        }
+
+        /**
+         * @return le nombre d'appels
+         */
+        public long getCount() {
+            return this.count;
+        }
+
+        /**
+         * @return la durée cumulée des appels, en nanosecondes
+         */
+        public long getTotalNanos() {
+            return this.totalNanos;
+        }
+
+        /**
+         * @return la durée moyenne d'un appel, en nanosecondes
+         */
+        public long getMeanNanos() {
+            return this.count == 0 ? 0 : this.totalNanos / this.count;
+        }
+
+        /**
+         * @return la durée du plus long appel, en nanosecondes
+         */
+        public long getMaxNanos() {
+            return this.maxNanos;
+        }
+
+        public long getP50Nanos() {
+            return this.quantile(0.5);
+        }
+
+        public long getP99Nanos() {
+            return this.quantile(0.99);
+        }
+
+        public long getP999Nanos() {
+            return this.quantile(0.999);
+        }
+
+        /**
+         * @return une copie des classes de l'histogramme
+         */
+        public long[] getBuckets() {
+            return this.buckets.clone();
+        }
+
+        /**
+         * @param q un quantile, entre 0 et 1
+         * @return la borne supérieure de la classe contenant ce quantile, en
+         * nanosecondes (au plus la durée maximale)
+         */
+        public long quantile(double q) {
+            long rank = (long) Math.ceil(q * this.count);
+            long seen = 0;
+            for (int i = 0; i < this.buckets.length; i++) {
+                seen += this.buckets[i];
+                if (seen >= rank && seen > 0) {
+                    return Math.min(1L << i, this.maxNanos);
+                }
+            }
+            return this.maxNanos;
+        }
+
+        @Override
+        public String toString() {
+            return "count=" + this.count + " mean=" + this.getMeanNanos() + "ns p50=" + this.getP50Nanos()
+                    + "ns p99=" + this.getP99Nanos() + "ns max=" + this.maxNanos + "ns";
+        }
+    }
+}
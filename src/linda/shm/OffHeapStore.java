@@ -0,0 +1,780 @@
+package linda.shm;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import linda.CompactTuple;
+import linda.Tuple;
+import linda.TupleCodec;
+
+/**
+ * Mémoire de tuples hors du tas Java. Les tuples sont encodés par
+ * {@link TupleCodec} dans des segments de fichiers projetés en mémoire
+ * ({@link MappedByteBuffer}) ; le tas ne contient que l'index, de même forme
+ * que celui de {@link TupleStore} (arité, classe puis valeur du premier
+ * champ), dont chaque paquet est un tableau de références (segment et
+ * position) et de hash. Un tuple n'occupe donc que 12 octets du tas, hors
+ * premier champ, et le coût d'un GC ne dépend plus du nombre de tuples.
+ * <p>
+ * Un tuple n'est décodé que s'il peut correspondre au template : le paquet
+ * filtre déjà le premier champ, et un template sans classe ni sous-template
+ * compare d'abord le hash. Les segments sont remplis à la suite ; un segment
+ * dont tous les tuples ont été enlevés est réutilisé. La mémoire n'est pas
+ * persistante (voir {@link Journal}) : les segments d'un lancement précédent
+ * sont effacés à l'ouverture.
+ * <p>
+ * Toutes les opérations, lectures comprises, sont synchronisées sur la
+ * mémoire : un segment peut être réutilisé dès que son dernier tuple est
+ * enlevé.
+ *
+ * @author Alexandra Jacquet
+ * @author Florian Vetu
+ */
+public class OffHeapStore implements TupleStorage, Closeable {
+
+    /**
+     * Taille par défaut d'un segment : 64 Mo
+     */
+    public static final int DEFAULT_SEGMENT_SIZE = 64 << 20;
+    /**
+     * Référence d'un emplacement vide d'un paquet
+     */
+    private static final long EMPTY = -1;
+    /**
+     * Nombre de tuples décodés par page d'un parcours
+     */
+    private static final int PAGE = 256;
+
+    private final Path dir;
+    private final int segmentSize;
+    /**
+     * Les segments, et le nombre de tuples présents dans chacun
+     */
+    private final List<MappedByteBuffer> segments;
+    private int[] live;
+    /**
+     * Les segments vidés, à réutiliser
+     */
+    private final Deque<Integer> free;
+    /**
+     * Le segment en cours de remplissage et sa première position libre
+     */
+    private int current;
+    private int position;
+
+    /**
+     * L'index : arité -> classe du premier champ -> premier champ -> tuples.
+     */
+    private final Map<Integer, Map<Class<?>, Map<Object, Bucket>>> index;
+    /**
+     * Le nombre de tuples, par arité
+     */
+    private final Map<Integer, long[]> counts;
+    /**
+     * Tampon d'encodage, et lecteur d'un enregistrement
+     */
+    private final Buffer encoder;
+    private final SegmentInput decoder;
+
+    /**
+     * Crée une mémoire vide dont les segments sont des fichiers du
+     * répertoire, créé si besoin.
+     *
+     * @param dir le répertoire des segments, propre à cette mémoire
+     * @param segmentSize la taille d'un segment, en octets ; un tuple encodé
+     * ne peut pas dépasser cette taille
+     * @throws IOException si le répertoire ne peut pas être écrit
+     */
+    public OffHeapStore(Path dir, int segmentSize) throws IOException {
+        if (segmentSize < 64) {
+            throw new IllegalArgumentException("segmentSize < 64 : " + segmentSize);
+        }
+        this.dir = dir;
+        this.segmentSize = segmentSize;
+        this.segments = new ArrayList<>();
+        this.live = new int[4];
+        this.free = new ArrayDeque<>();
+        this.index = new HashMap<>();
+        this.counts = new HashMap<>();
+        this.encoder = new Buffer();
+        this.decoder = new SegmentInput();
+        Files.createDirectories(dir);
+        try (DirectoryStream<Path> stale = Files.newDirectoryStream(dir, "segment-*.bin")) {
+            for (Path p : stale) {
+                Files.delete(p);
+            }
+        }
+        this.current = this.newSegment();
+    }
+
+    /**
+     * Crée une mémoire vide, en segments de {@link #DEFAULT_SEGMENT_SIZE}
+     * octets.
+     *
+     * @param dir le répertoire des segments, propre à cette mémoire
+     * @throws IOException si le répertoire ne peut pas être écrit
+     */
+    public OffHeapStore(Path dir) throws IOException {
+        this(dir, DEFAULT_SEGMENT_SIZE);
+    }
+
+    /**
+     * Encode le tuple à la suite du segment courant et l'ajoute au paquet
+     * correspondant à son arité et à son premier champ.
+     *
+     * @param t le tuple à ajouter
+     */
+    @Override
+    public synchronized void add(CompactTuple t) {
+        this.encoder.reset();
+        try {
+            TupleCodec.encode(t, this.encoder.out);
+        } catch (IOException ex) {
+            throw new IllegalArgumentException("cannot encode " + t, ex);
+        }
+        int length = this.encoder.size();
+        if (length + 4 > this.segmentSize) {
+            throw new IllegalArgumentException("tuple larger than a segment (" + length + " bytes)");
+        }
+        if (this.position + 4 + length > this.segmentSize) {
+            this.switchSegment();
+        }
+        ByteBuffer b = this.segments.get(this.current).duplicate();
+        b.position(this.position);
+        b.putInt(length);
+        b.put(this.encoder.bytes());
+        long ref = ((long) this.current << 32) | this.position;
+        this.position += 4 + length;
+        this.live[this.current]++;
+
+        Object key = TupleStore.keyOf(t);
+        Map<Class<?>, Map<Object, Bucket>> byClass = this.index.get(t.size());
+        if (byClass == null) {
+            byClass = new HashMap<>();
+            this.index.put(t.size(), byClass);
+        }
+        Map<Object, Bucket> byValue = byClass.get(key.getClass());
+        if (byValue == null) {
+            byValue = new HashMap<>();
+            byClass.put(key.getClass(), byValue);
+        }
+        Bucket bucket = byValue.get(key);
+        if (bucket == null) {
+            bucket = new Bucket();
+            byValue.put(key, bucket);
+        }
+        bucket.add(ref, t.hashCode(), t.getDeadline());
+        this.count(t.size())[0]++;
+    }
+
+    @Override
+    public synchronized CompactTuple find(Matcher matcher) {
+        for (Bucket bucket : this.buckets(matcher.getTemplate())) {
+            for (int i = bucket.head; i < bucket.tail; i++) {
+                CompactTuple t = this.decode(bucket, i, matcher);
+                if (t != null) {
+                    return t;
+                }
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public synchronized List<CompactTuple> findAll(Matcher matcher) {
+        List<CompactTuple> list = new ArrayList<>();
+        for (Bucket bucket : this.buckets(matcher.getTemplate())) {
+            for (int i = bucket.head; i < bucket.tail; i++) {
+                CompactTuple t = this.decode(bucket, i, matcher);
+                if (t != null) {
+                    list.add(t);
+                }
+            }
+        }
+        return list;
+    }
+
+    /**
+     * Parcours par pages de {@link #PAGE} tuples décodés, chacune lue sous le
+     * verrou de la mémoire : entre deux pages, le paquet parcouru peut être
+     * modifié, et sa position est recalée à chaque regroupement.
+     *
+     * @param matcher le template recherché, compilé
+     * @return le parcours, à fermer s'il est abandonné
+     */
+    @Override
+    public synchronized Iterator<CompactTuple> iterator(Matcher matcher) {
+        return new Scan(matcher, this.buckets(matcher.getTemplate()));
+    }
+
+    @Override
+    public synchronized CompactTuple take(Matcher matcher) {
+        for (Bucket bucket : this.buckets(matcher.getTemplate())) {
+            for (int i = bucket.head; i < bucket.tail; i++) {
+                CompactTuple t = this.decode(bucket, i, matcher);
+                if (t != null) {
+                    this.remove(bucket, i, t);
+                    return t;
+                }
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public synchronized int take(Matcher matcher, int n, List<CompactTuple> list) {
+        int taken = 0;
+        for (Bucket bucket : this.buckets(matcher.getTemplate())) {
+            for (int i = bucket.head; taken < n && i < bucket.tail; i++) {
+                CompactTuple t = this.decode(bucket, i, matcher);
+                if (t != null) {
+                    this.remove(bucket, i, t);
+                    list.add(t);
+                    taken++;
+                }
+            }
+            if (taken == n) {
+                break;
+            }
+        }
+        return taken;
+    }
+
+    /**
+     * Enlève un tuple dont le bail a expiré. Le paquet du tuple est parcouru
+     * depuis le plus ancien tuple jusqu'à celui-ci, en enlevant au passage
+     * les autres tuples expirés. Rien n'est parcouru si le paquet n'a plus de
+     * tuple à bail.
+     *
+     * @param t le tuple expiré, tel qu'ajouté
+     * @param removed la liste à compléter avec les tuples enlevés
+     */
+    @Override
+    public synchronized void expire(CompactTuple t, List<CompactTuple> removed) {
+        Map<Class<?>, Map<Object, Bucket>> byClass = this.index.get(t.size());
+        Object key = TupleStore.keyOf(t);
+        Map<Object, Bucket> byValue = byClass == null ? null : byClass.get(key.getClass());
+        Bucket bucket = byValue == null ? null : byValue.get(key);
+        if (bucket == null || bucket.leased == 0) {
+            return;
+        }
+        long now = System.nanoTime();
+        for (int i = bucket.head; i < bucket.tail; i++) {
+            long deadline = bucket.deadlines[i];
+            if (bucket.refs[i] == EMPTY || deadline == 0 || now - deadline < 0) {
+                continue;
+            }
+            CompactTuple tuple = this.read(bucket.refs[i]).withDeadline(deadline);
+            this.remove(bucket, i, tuple);
+            removed.add(tuple);
+            if (deadline == t.getDeadline() && tuple.equals(t)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Décode l'emplacement <code>i</code> du paquet s'il est occupé, non
+     * expiré, et que son hash peut correspondre au template.
+     *
+     * @return le tuple s'il match le template, null sinon
+     */
+    private CompactTuple decode(Bucket bucket, int i, Matcher matcher) {
+        long ref = bucket.refs[i];
+        if (ref == EMPTY || !matcher.mayMatch(bucket.hashes[i])) {
+            return null;
+        }
+        long deadline = bucket.deadline(i);
+        if (deadline != 0 && System.nanoTime() - deadline >= 0) {
+            return null;
+        }
+        CompactTuple t = this.read(ref);
+        if (!matcher.matches(t)) {
+            return null;
+        }
+        return deadline == 0 ? t : t.withDeadline(deadline);
+    }
+
+    /**
+     * @param ref la référence d'un tuple
+     * @return le tuple décodé
+     */
+    private CompactTuple read(long ref) {
+        ByteBuffer segment = this.segments.get((int) (ref >>> 32));
+        int offset = (int) ref;
+        int length = segment.getInt(offset);
+        this.decoder.wrap(segment, offset + 4, length);
+        try {
+            return TupleCodec.decodeCompact(this.decoder.in);
+        } catch (IOException ex) {
+            throw new IllegalStateException("corrupted off-heap record at " + ref, ex);
+        }
+    }
+
+    /**
+     * Enlève le tuple de l'emplacement <code>i</code> du paquet. Le segment
+     * du tuple est réutilisé s'il ne contient plus aucun tuple, et le paquet
+     * vidé est enlevé de l'index.
+     */
+    private void remove(Bucket bucket, int i, CompactTuple t) {
+        int segment = (int) (bucket.refs[i] >>> 32);
+        bucket.remove(i);
+        if (--this.live[segment] == 0 && segment != this.current) {
+            this.free.push(segment);
+        }
+        this.count(t.size())[0]--;
+        if (bucket.size == 0) {
+            Object key = TupleStore.keyOf(t);
+            Map<Class<?>, Map<Object, Bucket>> byClass = this.index.get(t.size());
+            Map<Object, Bucket> byValue = byClass.get(key.getClass());
+            byValue.remove(key);
+            if (byValue.isEmpty()) {
+                byClass.remove(key.getClass());
+                if (byClass.isEmpty()) {
+                    this.index.remove(t.size());
+                }
+            }
+        }
+    }
+
+    /**
+     * Passe au segment suivant : un segment vidé s'il y en a, un nouveau
+     * segment sinon.
+     */
+    private void switchSegment() {
+        if (this.live[this.current] == 0) {
+            // le segment plein a déjà été entièrement vidé
+            this.position = 0;
+            return;
+        }
+        Integer reused = this.free.poll();
+        try {
+            this.current = reused != null ? reused : this.newSegment();
+        } catch (IOException ex) {
+            throw new IllegalStateException("cannot create off-heap segment in " + this.dir, ex);
+        }
+        this.position = 0;
+    }
+
+    /**
+     * Crée et projette en mémoire un nouveau segment. Le fichier est effacé
+     * à l'arrêt de la JVM.
+     *
+     * @return le numéro du segment
+     */
+    private int newSegment() throws IOException {
+        int number = this.segments.size();
+        Path file = this.dir.resolve("segment-" + number + ".bin");
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            // la projection reste valide après la fermeture du canal
+            this.segments.add(channel.map(FileChannel.MapMode.READ_WRITE, 0, this.segmentSize));
+        }
+        file.toFile().deleteOnExit();
+        if (number == this.live.length) {
+            this.live = Arrays.copyOf(this.live, 2 * number);
+        }
+        return number;
+    }
+
+    /**
+     * Liste les paquets pouvant contenir un tuple correspondant au template.
+     *
+     * @param template le template recherché
+     * @return les paquets candidats
+     */
+    private List<Bucket> buckets(Tuple template) {
+        List<Bucket> res = new ArrayList<>();
+        Map<Class<?>, Map<Object, Bucket>> byClass = this.index.get(template.size());
+        if (byClass == null) {
+            return res;
+        }
+        if (template.isEmpty() || TupleStore.isConcrete(template.getFirst())) {
+            // premier champ valeur : un seul paquet possible
+            Object key = TupleStore.keyOf(template);
+            Map<Object, Bucket> byValue = byClass.get(key.getClass());
+            if (byValue != null) {
+                Bucket bucket = byValue.get(key);
+                if (bucket != null) {
+                    res.add(bucket);
+                }
+            }
+        } else {
+            // premier champ classe ou tuple : on filtre par classe puis par clé
+            Serializable first = template.getFirst();
+            for (Map.Entry<Class<?>, Map<Object, Bucket>> byValue : byClass.entrySet()) {
+                if (TupleStore.mayMatch(byValue.getKey(), first)) {
+                    for (Map.Entry<Object, Bucket> bucket : byValue.getValue().entrySet()) {
+                        if (Tuple.matches((Serializable) bucket.getKey(), first)) {
+                            res.add(bucket.getValue());
+                        }
+                    }
+                }
+            }
+        }
+        return res;
+    }
+
+    /**
+     * @return le compteur de tuples de l'arité, créé au premier besoin
+     */
+    private long[] count(int arity) {
+        long[] count = this.counts.get(arity);
+        if (count == null) {
+            count = new long[1];
+            this.counts.put(arity, count);
+        }
+        return count;
+    }
+
+    @Override
+    public synchronized void countByArity(Map<Integer, Long> byArity) {
+        for (Map.Entry<Integer, long[]> count : this.counts.entrySet()) {
+            long n = count.getValue()[0];
+            if (n > 0) {
+                Long previous = byArity.get(count.getKey());
+                byArity.put(count.getKey(), previous == null ? n : previous + n);
+            }
+        }
+    }
+
+    @Override
+    public synchronized long size() {
+        long size = 0;
+        for (long[] count : this.counts.values()) {
+            size += count[0];
+        }
+        return size;
+    }
+
+    @Override
+    public synchronized List<CompactTuple> all() {
+        List<CompactTuple> all = new ArrayList<>();
+        for (Map<Class<?>, Map<Object, Bucket>> byClass : this.index.values()) {
+            for (Map<Object, Bucket> byValue : byClass.values()) {
+                for (Bucket bucket : byValue.values()) {
+                    for (int i = bucket.head; i < bucket.tail; i++) {
+                        long deadline = bucket.deadline(i);
+                        if (bucket.refs[i] != EMPTY && (deadline == 0 || System.nanoTime() - deadline < 0)) {
+                            CompactTuple t = this.read(bucket.refs[i]);
+                            all.add(deadline == 0 ? t : t.withDeadline(deadline));
+                        }
+                    }
+                }
+            }
+        }
+        return all;
+    }
+
+    /**
+     * Vide la mémoire et efface ses segments. Les projections restent en
+     * mémoire jusqu'à leur passage au GC.
+     */
+    @Override
+    public synchronized void close() {
+        this.index.clear();
+        this.counts.clear();
+        this.free.clear();
+        this.segments.clear();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(this.dir, "segment-*.bin")) {
+            for (Path p : files) {
+                Files.delete(p);
+            }
+        } catch (IOException ex) {
+            Logger.getLogger(OffHeapStore.class.getName()).log(Level.SEVERE, null, ex);
+        }
+    }
+
+    /**
+     * @return la représentation de tous les tuples en mémoire.
+     */
+    @Override
+    public String toString() {
+        return this.all().toString();
+    }
+
+    /**
+     * Parcours des paquets candidats d'un template.
+     */
+    private final class Scan implements Iterator<CompactTuple>, Closeable {
+
+        private final Matcher matcher;
+        private final List<Bucket> buckets;
+        private final List<CompactTuple> page;
+        /**
+         * Le paquet parcouru, où la position est inscrite ; null entre deux
+         * paquets ou à la fin
+         */
+        private Bucket bucket;
+        private int index;
+        private final int[] position;
+        private int p;
+
+        Scan(Matcher matcher, List<Bucket> buckets) {
+            this.matcher = matcher;
+            this.buckets = buckets;
+            this.page = new ArrayList<>();
+            this.position = new int[1];
+        }
+
+        @Override
+        public boolean hasNext() {
+            return this.p < this.page.size() || this.fill();
+        }
+
+        @Override
+        public CompactTuple next() {
+            if (!this.hasNext()) {
+                throw new NoSuchElementException();
+            }
+            return this.page.get(this.p++);
+        }
+
+        /**
+         * Décode la page suivante.
+         *
+         * @return false à la fin du parcours
+         */
+        private boolean fill() {
+            synchronized (OffHeapStore.this) {
+                this.page.clear();
+                this.p = 0;
+                while (this.page.size() < PAGE) {
+                    if (this.bucket != null && this.position[0] < this.bucket.tail) {
+                        CompactTuple t = decode(this.bucket, this.position[0]++, this.matcher);
+                        if (t != null) {
+                            this.page.add(t);
+                        }
+                    } else {
+                        this.release();
+                        if (this.index == this.buckets.size()) {
+                            break;
+                        }
+                        this.bucket = this.buckets.get(this.index++);
+                        this.position[0] = this.bucket.head;
+                        this.bucket.open(this.position);
+                    }
+                }
+                return !this.page.isEmpty();
+            }
+        }
+
+        private void release() {
+            if (this.bucket != null) {
+                this.bucket.close(this.position);
+                this.bucket = null;
+            }
+        }
+
+        @Override
+        public void close() {
+            synchronized (OffHeapStore.this) {
+                this.release();
+                this.index = this.buckets.size();
+                this.page.clear();
+                this.p = 0;
+            }
+        }
+    }
+
+    /**
+     * Paquet de tuples : références, hash et dates d'expiration, dans l'ordre
+     * d'ajout. Un retrait laisse un emplacement vide, sauté par les
+     * parcours ; les emplacements vides sont récupérés quand le tableau est
+     * plein. Le tableau des dates n'est créé qu'au premier tuple à bail.
+     */
+    private static final class Bucket {
+
+        long[] refs = new long[4];
+        int[] hashes = new int[4];
+        long[] deadlines;
+        /**
+         * Le nombre de tuples à bail du paquet
+         */
+        int leased;
+        /**
+         * Premier emplacement occupé, premier emplacement libre en fin
+         */
+        int head;
+        int tail;
+        /**
+         * Le nombre d'emplacements occupés
+         */
+        int size;
+        /**
+         * Les positions des parcours en cours dans le paquet, recalées par
+         * {@link #compact()} ; null sans parcours
+         */
+        List<int[]> cursors;
+
+        void open(int[] position) {
+            if (this.cursors == null) {
+                this.cursors = new ArrayList<>(1);
+            }
+            this.cursors.add(position);
+        }
+
+        void close(int[] position) {
+            for (int i = 0; i < this.cursors.size(); i++) {
+                if (this.cursors.get(i) == position) {
+                    this.cursors.remove(i);
+                    break;
+                }
+            }
+            if (this.cursors.isEmpty()) {
+                this.cursors = null;
+            }
+        }
+
+        void add(long ref, int hash, long deadline) {
+            if (this.tail == this.refs.length) {
+                this.compact();
+            }
+            this.refs[this.tail] = ref;
+            this.hashes[this.tail] = hash;
+            if (deadline != 0) {
+                if (this.deadlines == null) {
+                    this.deadlines = new long[this.refs.length];
+                }
+                this.deadlines[this.tail] = deadline;
+                this.leased++;
+            }
+            this.tail++;
+            this.size++;
+        }
+
+        long deadline(int i) {
+            return this.deadlines == null ? 0 : this.deadlines[i];
+        }
+
+        void remove(int i) {
+            this.refs[i] = EMPTY;
+            if (this.deadlines != null && this.deadlines[i] != 0) {
+                this.deadlines[i] = 0;
+                this.leased--;
+            }
+            this.size--;
+            while (this.head < this.tail && this.refs[this.head] == EMPTY) {
+                this.head++;
+            }
+        }
+
+        /**
+         * Regroupe les emplacements occupés au début du tableau, agrandi s'il
+         * est plus qu'à moitié occupé.
+         */
+        private void compact() {
+            long[] r = this.refs;
+            int[] h = this.hashes;
+            long[] d = this.deadlines;
+            if (2 * this.size > r.length) {
+                r = new long[2 * r.length];
+                h = new int[2 * h.length];
+                d = d == null ? null : new long[2 * d.length];
+            }
+            if (this.cursors != null) {
+                // une position devient le nombre d'emplacements occupés avant elle
+                for (int[] position : this.cursors) {
+                    int live = 0;
+                    for (int i = this.head; i < Math.min(position[0], this.tail); i++) {
+                        if (this.refs[i] != EMPTY) {
+                            live++;
+                        }
+                    }
+                    position[0] = live;
+                }
+            }
+            int j = 0;
+            for (int i = this.head; i < this.tail; i++) {
+                if (this.refs[i] != EMPTY) {
+                    r[j] = this.refs[i];
+                    h[j] = this.hashes[i];
+                    if (d != null) {
+                        d[j] = this.deadlines[i];
+                    }
+                    j++;
+                }
+            }
+            if (d != null) {
+                Arrays.fill(d, j, d.length, 0);
+            }
+            this.refs = r;
+            this.hashes = h;
+            this.deadlines = d;
+            this.head = 0;
+            this.tail = j;
+        }
+    }
+
+    /**
+     * Tampon d'encodage, copié dans le segment sans copie intermédiaire.
+     */
+    private static final class Buffer extends ByteArrayOutputStream {
+
+        final DataOutputStream out = new DataOutputStream(this);
+
+        Buffer() {
+            super(256);
+        }
+
+        ByteBuffer bytes() {
+            return ByteBuffer.wrap(this.buf, 0, this.count);
+        }
+    }
+
+    /**
+     * Lecture d'un enregistrement d'un segment, sans le copier.
+     */
+    private static final class SegmentInput extends InputStream {
+
+        final DataInputStream in = new DataInputStream(this);
+        private ByteBuffer segment;
+        private int position;
+        private int end;
+
+        void wrap(ByteBuffer segment, int offset, int length) {
+            this.segment = segment;
+            this.position = offset;
+            this.end = offset + length;
+        }
+
+        @Override
+        public int read() {
+            return this.position < this.end ? this.segment.get(this.position++) & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (this.position >= this.end) {
+                return -1;
+            }
+            int n = Math.min(len, this.end - this.position);
+            for (int i = 0; i < n; i++) {
+                b[off + i] = this.segment.get(this.position++);
+            }
+            return n;
+        }
+    }
+}
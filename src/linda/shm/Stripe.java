@@ -0,0 +1,418 @@
+package linda.shm;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+import linda.CompactTuple;
+import linda.Linda.eventMode;
+
+/**
+ * Une partition de l'espace de tuples. Chaque partition a sa propre mémoire,
+ * ses propres registres d'évènements en attente et son propre verrou : deux
+ * familles de tuples rangées dans des partitions différentes ne se disputent
+ * jamais le même verrou.
+ *
+ * @author Alexandra Jacquet
+ * @author Florian Vetu
+ */
+public class Stripe {
+
+    /**
+     * Rendu par {@link #write(CompactTuple)} quand le tuple n'a pas pu être
+     * rangé faute de place : aucun évènement n'a été réclamé.
+     */
+    static final List<Event> FULL = Collections.unmodifiableList(new ArrayList<Event>(0));
+
+    /**
+     * Le verrou de la partition, pris par les modifications
+     */
+    private final ReentrantLock lock;
+    /**
+     * Les tuples de la partition
+     */
+    private final TupleStorage memory;
+    /**
+     * Les évènements take en attente
+     */
+    private final EventRegistry registryTake;
+    /**
+     * Les évènements read en attente
+     */
+    private final EventRegistry registryRead;
+    /**
+     * Le journal des modifications de la mémoire, null si l'espace n'est pas
+     * persistant
+     */
+    private final Journal journal;
+    /**
+     * Les limites de capacité de l'espace, null s'il n'est pas limité
+     */
+    private final Capacity capacity;
+
+    /**
+     * Crée une partition vide.
+     */
+    public Stripe() {
+        this(null);
+    }
+
+    /**
+     * Crée une partition vide dont les modifications de la mémoire sont
+     * journalisées.
+     *
+     * @param journal le journal, null pour ne pas journaliser
+     */
+    public Stripe(Journal journal) {
+        this(journal, new TupleStore());
+    }
+
+    /**
+     * Crée une partition vide dans une mémoire donnée, par exemple hors du
+     * tas ({@link OffHeapStore}).
+     *
+     * @param journal le journal, null pour ne pas journaliser
+     * @param memory la mémoire de la partition, vide
+     */
+    public Stripe(Journal journal, TupleStorage memory) {
+        this(journal, memory, null);
+    }
+
+    /**
+     * Crée une partition vide d'un espace limité.
+     *
+     * @param journal le journal, null pour ne pas journaliser
+     * @param memory la mémoire de la partition, vide
+     * @param capacity les limites de l'espace, partagées par ses partitions ;
+     * null s'il n'est pas limité
+     */
+    public Stripe(Journal journal, TupleStorage memory, Capacity capacity) {
+        this.journal = journal;
+        this.capacity = capacity;
+        this.lock = new ReentrantLock();
+        this.memory = memory;
+        this.registryRead = new EventRegistry();
+        this.registryTake = new EventRegistry();
+    }
+
+    /**
+     * Réclame les évènements read qui match le tuple et le plus ancien
+     * évènement take qui le match. Si aucun take n'a été réclamé, enregistre le
+     * tuple en mémoire. Les callbacks ne sont pas appelés ici mais renvoyés à
+     * l'appelant, qui les appelle une fois le verrou libéré.
+     *
+     * @param t le tuple à écrire
+     * @return les évènements réclamés, à appeler avec t. Null si aucun,
+     * {@link #FULL} si le tuple n'a pas pu être rangé faute de place.
+     */
+    public List<Event> write(CompactTuple t) {
+        this.lock.lock();
+        try {
+            return this.dispatch(t);
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Écrit plusieurs tuples sous une seule prise du verrou. Chaque tuple est
+     * traité comme par {@link #write(CompactTuple)}, dans l'ordre de la liste ; les
+     * évènements réclamés et leurs tuples sont ajoutés deux à deux aux listes
+     * <code>events</code> et <code>tuples</code>. S'arrête au premier tuple
+     * qui ne peut pas être rangé faute de place.
+     *
+     * @param ts les tuples à écrire
+     * @param events les évènements réclamés
+     * @param tuples les tuples avec lesquels appeler ces évènements
+     * @return le nombre de tuples écrits
+     */
+    public int writeAll(List<CompactTuple> ts, List<Event> events, List<CompactTuple> tuples) {
+        this.lock.lock();
+        try {
+            int written = 0;
+            for (CompactTuple t : ts) {
+                List<Event> fired = this.dispatch(t);
+                if (fired == FULL) {
+                    break;
+                }
+                written++;
+                if (fired != null) {
+                    for (Event event : fired) {
+                        events.add(event);
+                        tuples.add(t);
+                    }
+                }
+            }
+            return written;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Réclame les évènements du tuple, ou le range en mémoire. Appelé sous le
+     * verrou.
+     */
+    private List<Event> dispatch(CompactTuple t) {
+        if (this.journal != null && t.getDeadline() == 0) {
+            // un journal arrêté fait échouer le write avant tout effet
+            this.journal.check();
+        }
+        // le plus ancien évènement take qui match consomme le tuple ; sinon
+        // le tuple doit avoir sa place, avant de réclamer quoi que ce soit
+        Event takeEvent = this.registryTake.claimOldest(t);
+        if (takeEvent == null && this.capacity != null && !this.capacity.tryAcquire(t)) {
+            return FULL;
+        }
+
+        // tous les évènements read qui match, parmi les seuls paquets candidats
+        List<Event> fired = this.registryRead.claimAll(t, null);
+
+        if (takeEvent != null) {
+            if (fired == null) {
+                fired = new ArrayList<>();
+            }
+            fired.add(takeEvent);
+            return fired;
+        }
+
+        // si le tuple n'a pas été consommé, on l'ajoute à la mémoire
+        this.memory.add(t);
+        if (this.journal != null && t.getDeadline() == 0) {
+            // les tuples à bail ne survivent pas à un redémarrage
+            this.journal.written(t);
+        }
+        return fired;
+    }
+
+    /**
+     * Range en mémoire un tuple relu du journal, sans évènement ni
+     * journalisation.
+     *
+     * @param t le tuple
+     */
+    void restore(CompactTuple t) {
+        this.lock.lock();
+        try {
+            this.memory.add(t);
+            if (this.capacity != null) {
+                this.capacity.restore(t);
+            }
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Take non bloquant dans la partition.
+     *
+     * @param matcher le template recherché, compilé
+     * @return le tuple enlevé, null si aucun
+     */
+    public CompactTuple tryTake(Matcher matcher) {
+        this.lock.lock();
+        try {
+            CompactTuple t = this.memory.take(matcher);
+            if (t != null) {
+                this.removed(t);
+            }
+            return t;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Take non bloquant d'au plus <code>n</code> tuples, sous une seule prise
+     * du verrou.
+     *
+     * @param matcher le template recherché, compilé
+     * @param n le nombre maximal de tuples
+     * @param list la liste à compléter
+     * @return le nombre de tuples pris
+     */
+    public int tryTake(Matcher matcher, int n, List<CompactTuple> list) {
+        this.lock.lock();
+        try {
+            int from = list.size();
+            int taken = this.memory.take(matcher, n, list);
+            for (int i = from; i < list.size(); i++) {
+                this.removed(list.get(i));
+            }
+            return taken;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Enlève un tuple dont le bail a expiré, s'il est encore en mémoire.
+     *
+     * D'autres tuples expirés peuvent être enlevés au passage.
+     *
+     * @param t le tuple expiré, tel qu'écrit
+     * @return le nombre de tuples enlevés
+     */
+    public int expire(CompactTuple t) {
+        this.lock.lock();
+        try {
+            List<CompactTuple> removed = new ArrayList<>(1);
+            this.memory.expire(t, removed);
+            if (this.capacity != null) {
+                for (CompactTuple r : removed) {
+                    this.capacity.release(r);
+                }
+            }
+            return removed.size();
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Journalise un tuple pris et rend sa place. Appelé sous le verrou.
+     */
+    private void removed(CompactTuple t) {
+        if (this.journal != null && t.getDeadline() == 0) {
+            this.journal.taken(t);
+        }
+        if (this.capacity != null) {
+            this.capacity.release(t);
+        }
+    }
+
+    /**
+     * Read non bloquant dans la partition, sans verrou.
+     *
+     * @param matcher le template recherché, compilé
+     * @return le tuple trouvé, null si aucun
+     */
+    public CompactTuple tryRead(Matcher matcher) {
+        return this.memory.find(matcher);
+    }
+
+    /**
+     * Ajoute à la liste tous les tuples de la partition qui match le template.
+     *
+     * @param matcher le template recherché, compilé
+     * @param list la liste à compléter
+     */
+    public void readAll(Matcher matcher, List<CompactTuple> list) {
+        list.addAll(this.memory.findAll(matcher));
+    }
+
+    /**
+     * Parcours paresseux des tuples de la partition qui match le template,
+     * sans le verrou de la partition (voir {@link TupleStorage#iterator}).
+     *
+     * @param matcher le template recherché, compilé
+     * @return le parcours
+     */
+    public Iterator<CompactTuple> iterator(Matcher matcher) {
+        return this.memory.iterator(matcher);
+    }
+
+    /**
+     * Enregistre un évènement en attente dans le registre de la partition.
+     *
+     * @param mode le mode de l'évènement
+     * @param event l'évènement
+     */
+    public void register(eventMode mode, Event event) {
+        this.lock.lock();
+        try {
+            if (mode.equals(eventMode.READ)) {
+                this.registryRead.add(event);
+            } else {
+                this.registryTake.add(event);
+            }
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Enlève un évènement en attente du registre de la partition.
+     *
+     * @param mode le mode de l'évènement
+     * @param event l'évènement
+     */
+    public void unregister(eventMode mode, Event event) {
+        this.lock.lock();
+        try {
+            if (mode.equals(eventMode.READ)) {
+                this.registryRead.remove(event);
+            } else {
+                this.registryTake.remove(event);
+            }
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Enlève un évènement réclamé par une autre partition, quel que soit son
+     * mode : la copie enregistrée ici ne pourra plus être déclenchée.
+     *
+     * @param event l'évènement réclamé
+     */
+    void unlink(Event event) {
+        this.lock.lock();
+        try {
+            this.registryRead.remove(event);
+            this.registryTake.remove(event);
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Prend le verrou de la partition, pour enchaîner plusieurs opérations
+     * sans write intercalé. Le verrou est réentrant : les méthodes de la
+     * partition restent utilisables.
+     */
+    void lock() {
+        this.lock.lock();
+    }
+
+    /**
+     * Libère le verrou pris par {@link #lock()}.
+     */
+    void unlock() {
+        this.lock.unlock();
+    }
+
+    /**
+     * @return la liste de tous les tuples de la partition.
+     */
+    public List<CompactTuple> all() {
+        return this.memory.all();
+    }
+
+    /**
+     * @return le nombre de tuples de la partition
+     */
+    public long size() {
+        return this.memory.size();
+    }
+
+    /**
+     * Ajoute à <code>byArity</code> le nombre de tuples de la partition de
+     * chaque arité.
+     *
+     * @param byArity arité -> nombre de tuples, à compléter
+     */
+    public void countByArity(Map<Integer, Long> byArity) {
+        this.memory.countByArity(byArity);
+    }
+
+    /**
+     * @return la représentation des tuples de la partition.
+     */
+    @Override
+    public String toString() {
+        return this.memory.toString();
+    }
+}
@@ -0,0 +1,101 @@
+package linda.shm;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import linda.CompactTuple;
+
+/**
+ * Mémoire de tuples d'une partition. Deux implantations : {@link TupleStore},
+ * les tuples étant des objets du tas Java, et {@link OffHeapStore}, les tuples
+ * étant encodés hors du tas, dans des segments de fichiers projetés en
+ * mémoire. Les modifications sont faites sous le verrou de la partition.
+ *
+ * @author Alexandra Jacquet
+ * @author Florian Vetu
+ */
+public interface TupleStorage {
+
+    /**
+     * Ajoute un tuple.
+     *
+     * @param t le tuple à ajouter
+     */
+    void add(CompactTuple t);
+
+    /**
+     * Cherche un tuple correspondant au template, sans l'enlever.
+     *
+     * @param matcher le template recherché, compilé
+     * @return le premier tuple trouvé, null si aucun
+     */
+    CompactTuple find(Matcher matcher);
+
+    /**
+     * Cherche tous les tuples correspondant au template, sans les enlever.
+     *
+     * @param matcher le template recherché, compilé
+     * @return la liste des tuples trouvés, vide si aucun
+     */
+    List<CompactTuple> findAll(Matcher matcher);
+
+    /**
+     * Parcours paresseux des tuples correspondant au template, sans les
+     * enlever : les tuples sont cherchés au fil du parcours, sans liste de
+     * résultats. Les tuples ajoutés ou enlevés pendant le parcours peuvent
+     * être vus ou non, mais aucun tuple n'est rendu deux fois. Un parcours
+     * abandonné avant sa fin est fermé s'il est {@link java.io.Closeable}.
+     *
+     * @param matcher le template recherché, compilé
+     * @return le parcours
+     */
+    Iterator<CompactTuple> iterator(Matcher matcher);
+
+    /**
+     * Cherche le plus ancien tuple correspondant au template et l'enlève.
+     * Les tuples expirés sont ignorés par toutes les recherches.
+     *
+     * @param matcher le template recherché, compilé
+     * @return le tuple enlevé, null si aucun
+     */
+    CompactTuple take(Matcher matcher);
+
+    /**
+     * Cherche au plus <code>n</code> tuples correspondant au template et les
+     * enlève.
+     *
+     * @param matcher le template recherché, compilé
+     * @param n le nombre maximal de tuples à enlever
+     * @param list la liste à compléter avec les tuples enlevés
+     * @return le nombre de tuples enlevés
+     */
+    int take(Matcher matcher, int n, List<CompactTuple> list);
+
+    /**
+     * Enlève un tuple dont le bail a expiré (voir
+     * {@link CompactTuple#getDeadline()}), sans parcourir toute la mémoire.
+     * D'autres tuples expirés peuvent être enlevés au passage. Les tuples
+     * expirés ne sont déjà plus vus par les autres opérations.
+     *
+     * @param t le tuple expiré, tel qu'ajouté
+     * @param removed la liste à compléter avec les tuples enlevés
+     */
+    void expire(CompactTuple t, List<CompactTuple> removed);
+
+    /**
+     * Ajoute à <code>byArity</code> le nombre de tuples de chaque arité.
+     *
+     * @param byArity arité -> nombre de tuples, à compléter
+     */
+    void countByArity(Map<Integer, Long> byArity);
+
+    /**
+     * @return le nombre de tuples
+     */
+    long size();
+
+    /**
+     * @return la liste de tous les tuples
+     */
+    List<CompactTuple> all();
+}
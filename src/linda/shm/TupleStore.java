@@ -0,0 +1,447 @@
+package linda.shm;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.LongAdder;
+import linda.CompactTuple;
+import linda.Tuple;
+
+/**
+ * Mémoire de tuples indexée. Les tuples sont rangés par arité, puis par classe
+ * du premier champ, puis par valeur du premier champ. Un template dont le
+ * premier champ est une valeur ne parcourt que le paquet de cette valeur ; un
+ * template dont le premier champ est une classe (ou un tuple) ne parcourt que
+ * les paquets dont la clé peut correspondre. Chaque paquet est une file
+ * chaînée concurrente : un ajout n'alloue qu'un noeud et un retrait se fait
+ * sur place par l'itérateur. Les lectures se font sans verrou et ne voient
+ * jamais de copie partielle, les modifications sont synchronisées sur la
+ * mémoire. Les tuples sont stockés sous forme compacte et immuable
+ * ({@link CompactTuple}) : un tableau par tuple plutôt qu'une liste chaînée.
+ *
+ * @author Alexandra Jacquet
+ * @author Florian Vetu
+ */
+public class TupleStore implements TupleStorage {
+
+    /**
+     * Clé des tuples vides.
+     */
+    private static final Object NO_KEY = new Object();
+
+    /**
+     * L'index : arité -> classe du premier champ -> premier champ -> tuples.
+     */
+    private final Map<Integer, Map<Class<?>, Map<Object, Queue<CompactTuple>>>> index;
+    /**
+     * Le nombre de tuples en mémoire, par arité : compter les paquets à la
+     * demande coûterait un parcours de chaque file.
+     */
+    private final Map<Integer, LongAdder> counts;
+    /**
+     * Les tuples à bail présents en mémoire, par identité : un tuple déjà
+     * enlevé n'est pas cherché par {@link #expire(CompactTuple)}.
+     */
+    private final Set<CompactTuple> leased;
+
+    /**
+     * Crée une mémoire vide.
+     */
+    public TupleStore() {
+        this.index = new ConcurrentHashMap<>();
+        this.counts = new ConcurrentHashMap<>();
+        this.leased = Collections.newSetFromMap(new IdentityHashMap<CompactTuple, Boolean>());
+    }
+
+    /**
+     * Ajoute un tuple dans le paquet correspondant à son arité et à son
+     * premier champ.
+     *
+     * @param t le tuple à ajouter
+     */
+    @Override
+    public synchronized void add(CompactTuple t) {
+        Object key = keyOf(t);
+        Map<Class<?>, Map<Object, Queue<CompactTuple>>> byClass = this.index.get(t.size());
+        if (byClass == null) {
+            byClass = new ConcurrentHashMap<>();
+            this.index.put(t.size(), byClass);
+        }
+        Map<Object, Queue<CompactTuple>> byValue = byClass.get(key.getClass());
+        if (byValue == null) {
+            byValue = new ConcurrentHashMap<>();
+            byClass.put(key.getClass(), byValue);
+        }
+        Queue<CompactTuple> bucket = byValue.get(key);
+        if (bucket == null) {
+            bucket = new ConcurrentLinkedQueue<>();
+            byValue.put(key, bucket);
+        }
+        bucket.add(t);
+        this.count(t.size()).increment();
+        if (t.getDeadline() != 0) {
+            this.leased.add(t);
+        }
+    }
+
+    /**
+     * Cherche un tuple correspondant au template, sans l'enlever.
+     *
+     * @param matcher le template recherché, compilé
+     * @return le premier tuple trouvé, null si aucun
+     */
+    @Override
+    public CompactTuple find(Matcher matcher) {
+        for (Queue<CompactTuple> bucket : this.buckets(matcher.getTemplate())) {
+            for (CompactTuple tuple : bucket) {
+                if (matcher.matches(tuple) && !tuple.isExpired()) {
+                    return tuple;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Cherche tous les tuples correspondant au template, sans les enlever.
+     *
+     * @param matcher le template recherché, compilé
+     * @return la liste des tuples trouvés, vide si aucun
+     */
+    @Override
+    public List<CompactTuple> findAll(Matcher matcher) {
+        List<CompactTuple> list = new ArrayList<>();
+        for (Queue<CompactTuple> bucket : this.buckets(matcher.getTemplate())) {
+            for (CompactTuple tuple : bucket) {
+                if (matcher.matches(tuple) && !tuple.isExpired()) {
+                    list.add(tuple);
+                }
+            }
+        }
+        return list;
+    }
+
+    /**
+     * Parcours paresseux des paquets candidats, par leurs itérateurs
+     * faiblement cohérents : sans verrou, comme {@link #find(Matcher)}.
+     *
+     * @param matcher le template recherché, compilé
+     * @return le parcours
+     */
+    @Override
+    public Iterator<CompactTuple> iterator(final Matcher matcher) {
+        final Iterator<Queue<CompactTuple>> buckets = this.buckets(matcher.getTemplate()).iterator();
+        return new Iterator<CompactTuple>() {
+            private Iterator<CompactTuple> bucket = Collections.emptyIterator();
+            private CompactTuple next;
+
+            @Override
+            public boolean hasNext() {
+                while (this.next == null) {
+                    if (this.bucket.hasNext()) {
+                        CompactTuple tuple = this.bucket.next();
+                        if (matcher.matches(tuple) && !tuple.isExpired()) {
+                            this.next = tuple;
+                        }
+                    } else if (buckets.hasNext()) {
+                        this.bucket = buckets.next().iterator();
+                    } else {
+                        return false;
+                    }
+                }
+                return true;
+            }
+
+            @Override
+            public CompactTuple next() {
+                if (!this.hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                CompactTuple tuple = this.next;
+                this.next = null;
+                return tuple;
+            }
+        };
+    }
+
+    /**
+     * Cherche un tuple correspondant au template et l'enlève de la mémoire.
+     * Les paquets vidés sont enlevés de l'index.
+     *
+     * @param matcher le template recherché, compilé
+     * @return le tuple enlevé, null si aucun
+     */
+    @Override
+    public synchronized CompactTuple take(Matcher matcher) {
+        for (Queue<CompactTuple> bucket : this.buckets(matcher.getTemplate())) {
+            Iterator<CompactTuple> it = bucket.iterator();
+            while (it.hasNext()) {
+                CompactTuple tuple = it.next();
+                if (matcher.matches(tuple) && !tuple.isExpired()) {
+                    // retrait sur place, sans reparcourir le paquet
+                    it.remove();
+                    this.count(tuple.size()).decrement();
+                    this.unlease(tuple);
+                    if (bucket.isEmpty()) {
+                        this.prune(tuple);
+                    }
+                    return tuple;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Cherche au plus <code>n</code> tuples correspondant au template et les
+     * enlève de la mémoire, en un seul parcours des paquets candidats.
+     *
+     * @param matcher le template recherché, compilé
+     * @param n le nombre maximal de tuples à enlever
+     * @param list la liste à compléter avec les tuples enlevés
+     * @return le nombre de tuples enlevés
+     */
+    @Override
+    public synchronized int take(Matcher matcher, int n, List<CompactTuple> list) {
+        int taken = 0;
+        for (Queue<CompactTuple> bucket : this.buckets(matcher.getTemplate())) {
+            Iterator<CompactTuple> it = bucket.iterator();
+            CompactTuple tuple = null;
+            while (taken < n && it.hasNext()) {
+                tuple = it.next();
+                if (matcher.matches(tuple) && !tuple.isExpired()) {
+                    it.remove();
+                    this.unlease(tuple);
+                    list.add(tuple);
+                    taken++;
+                }
+            }
+            if (tuple != null && bucket.isEmpty()) {
+                this.prune(tuple);
+            }
+            if (taken == n) {
+                break;
+            }
+        }
+        if (taken > 0) {
+            this.count(matcher.getTemplate().size()).add(-taken);
+        }
+        return taken;
+    }
+
+    /**
+     * Enlève un tuple dont le bail a expiré. Le paquet du tuple est parcouru
+     * depuis le plus ancien tuple jusqu'à celui-ci, en enlevant au passage
+     * les autres tuples expirés : avec des baux de même durée, le tuple est
+     * en tête de son paquet. Rien n'est parcouru si le tuple a déjà été pris.
+     *
+     * @param t le tuple expiré, tel qu'ajouté
+     * @param removed la liste à compléter avec les tuples enlevés
+     */
+    @Override
+    public synchronized void expire(CompactTuple t, List<CompactTuple> removed) {
+        if (!this.leased.contains(t)) {
+            return;
+        }
+        Object key = keyOf(t);
+        Queue<CompactTuple> bucket = this.index.get(t.size()).get(key.getClass()).get(key);
+        Iterator<CompactTuple> it = bucket.iterator();
+        boolean found = false;
+        while (!found && it.hasNext()) {
+            CompactTuple tuple = it.next();
+            if (tuple.isExpired()) {
+                it.remove();
+                this.count(tuple.size()).decrement();
+                this.leased.remove(tuple);
+                removed.add(tuple);
+                found = tuple == t;
+            }
+        }
+        if (bucket.isEmpty()) {
+            this.prune(t);
+        }
+    }
+
+    /**
+     * @param t un tuple enlevé de la mémoire
+     */
+    private void unlease(CompactTuple t) {
+        if (t.getDeadline() != 0) {
+            this.leased.remove(t);
+        }
+    }
+
+    /**
+     * Enlève de l'index le paquet (vide) du tuple, ainsi que les niveaux
+     * supérieurs devenus vides.
+     *
+     * @param t un tuple du paquet vidé
+     */
+    private void prune(CompactTuple t) {
+        Object key = keyOf(t);
+        Map<Class<?>, Map<Object, Queue<CompactTuple>>> byClass = this.index.get(t.size());
+        Map<Object, Queue<CompactTuple>> byValue = byClass.get(key.getClass());
+        byValue.remove(key);
+        if (byValue.isEmpty()) {
+            byClass.remove(key.getClass());
+            if (byClass.isEmpty()) {
+                this.index.remove(t.size());
+            }
+        }
+    }
+
+    /**
+     * Liste les paquets pouvant contenir un tuple correspondant au template.
+     *
+     * @param template le template recherché
+     * @return les paquets candidats
+     */
+    private List<Queue<CompactTuple>> buckets(Tuple template) {
+        List<Queue<CompactTuple>> res = new ArrayList<>();
+        Map<Class<?>, Map<Object, Queue<CompactTuple>>> byClass = this.index.get(template.size());
+        if (byClass == null) {
+            return res;
+        }
+        if (template.isEmpty() || isConcrete(template.getFirst())) {
+            // premier champ valeur : un seul paquet possible
+            Object key = keyOf(template);
+            Map<Object, Queue<CompactTuple>> byValue = byClass.get(key.getClass());
+            if (byValue != null) {
+                Queue<CompactTuple> bucket = byValue.get(key);
+                if (bucket != null) {
+                    res.add(bucket);
+                }
+            }
+        } else {
+            // premier champ classe ou tuple : on filtre par classe puis par clé
+            Serializable first = template.getFirst();
+            for (Map.Entry<Class<?>, Map<Object, Queue<CompactTuple>>> byValue : byClass.entrySet()) {
+                if (mayMatch(byValue.getKey(), first)) {
+                    for (Map.Entry<Object, Queue<CompactTuple>> bucket : byValue.getValue().entrySet()) {
+                        if (Tuple.matches((Serializable) bucket.getKey(), first)) {
+                            res.add(bucket.getValue());
+                        }
+                    }
+                }
+            }
+        }
+        return res;
+    }
+
+    /**
+     * @param t un tuple
+     * @return la clé d'index du tuple (son premier champ)
+     */
+    static Object keyOf(Tuple t) {
+        return t.isEmpty() ? NO_KEY : t.getFirst();
+    }
+
+    /**
+     * @param t un tuple
+     * @return la clé d'index du tuple (son premier champ)
+     */
+    static Object keyOf(CompactTuple t) {
+        return t.isEmpty() ? NO_KEY : t.field(0);
+    }
+
+    /**
+     * @param field un champ de template
+     * @return vrai si le champ est une valeur (ni une classe ni un tuple)
+     */
+    static boolean isConcrete(Serializable field) {
+        return !(field instanceof Class) && !(field instanceof Tuple);
+    }
+
+    /**
+     * Vérifie si une valeur de classe <code>keyClass</code> peut correspondre
+     * au champ de template (non valeur) <code>field</code>.
+     *
+     * @param keyClass la classe d'un premier champ en mémoire
+     * @param field le premier champ du template
+     * @return faux si aucune valeur de cette classe ne peut correspondre
+     */
+    static boolean mayMatch(Class<?> keyClass, Serializable field) {
+        if (field instanceof Class) {
+            return keyClass == Class.class || ((Class<?>) field).isAssignableFrom(keyClass);
+        }
+        return Tuple.class.isAssignableFrom(keyClass);
+    }
+
+    /**
+     * @return le compteur de tuples de l'arité, créé au premier besoin
+     */
+    private LongAdder count(int arity) {
+        LongAdder count = this.counts.get(arity);
+        if (count == null) {
+            count = new LongAdder();
+            this.counts.put(arity, count);
+        }
+        return count;
+    }
+
+    /**
+     * Ajoute à <code>byArity</code> le nombre de tuples en mémoire de chaque
+     * arité.
+     *
+     * @param byArity arité -> nombre de tuples, à compléter
+     */
+    @Override
+    public void countByArity(Map<Integer, Long> byArity) {
+        for (Map.Entry<Integer, LongAdder> count : this.counts.entrySet()) {
+            long n = count.getValue().sum();
+            if (n > 0) {
+                Long previous = byArity.get(count.getKey());
+                byArity.put(count.getKey(), previous == null ? n : previous + n);
+            }
+        }
+    }
+
+    /**
+     * @return le nombre de tuples en mémoire
+     */
+    @Override
+    public long size() {
+        long size = 0;
+        for (LongAdder count : this.counts.values()) {
+            size += count.sum();
+        }
+        return size;
+    }
+
+    /**
+     * @return la liste de tous les tuples en mémoire.
+     */
+    @Override
+    public List<CompactTuple> all() {
+        List<CompactTuple> all = new ArrayList<>();
+        for (Map<Class<?>, Map<Object, Queue<CompactTuple>>> byClass : this.index.values()) {
+            for (Map<Object, Queue<CompactTuple>> byValue : byClass.values()) {
+                for (Queue<CompactTuple> bucket : byValue.values()) {
+                    for (CompactTuple tuple : bucket) {
+                        if (!tuple.isExpired()) {
+                            all.add(tuple);
+                        }
+                    }
+                }
+            }
+        }
+        return all;
+    }
+
+    /**
+     * @return la représentation de tous les tuples en mémoire.
+     */
+    @Override
+    public String toString() {
+        return this.all().toString();
+    }
+}
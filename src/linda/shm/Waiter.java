@@ -0,0 +1,77 @@
+package linda.shm;
+
+import java.util.concurrent.locks.LockSupport;
+import linda.Callback;
+import linda.Trace;
+import linda.Tuple;
+
+/**
+ * Évènement d'un take ou d'un read bloquant, qui est aussi son propre
+ * callback : une attente n'alloue que ce noeud, sans verrou ni condition. Le
+ * callback dépose le tuple puis réveille le thread en attente par
+ * {@link LockSupport#unpark(Thread)} ; un réveil donné avant que le thread ne
+ * s'endorme n'est pas perdu, puisque le thread revérifie le tuple avant
+ * chaque {@link LockSupport#park(Object)}.
+ *
+ * @author Alexandra Jacquet
+ * @author Florian Vetu
+ */
+class Waiter extends Event implements Callback {
+
+    /**
+     * Le thread en attente
+     */
+    private final Thread thread;
+    /**
+     * Le tuple reçu, null tant que l'évènement n'a pas été déclenché
+     */
+    private volatile Tuple tuple;
+
+    /**
+     * Crée l'attente du thread courant.
+     *
+     * @param motif le template attendu, compilé
+     */
+    Waiter(Matcher motif) {
+        super(motif);
+        this.thread = Thread.currentThread();
+    }
+
+    /**
+     * Dépose le tuple et réveille le thread en attente.
+     *
+     * @param t le tuple trouvé
+     */
+    @Override
+    public void call(Tuple t) {
+        Trace.event(Trace.Level.TRACE, "callback", t);
+        this.tuple = t;
+        LockSupport.unpark(this.thread);
+    }
+
+    /**
+     * Attend le tuple. Si le thread est interrompu, l'attente est annulée,
+     * sauf si l'évènement a déjà été réclamé par un write : le tuple est alors
+     * en route et l'attente continue, pour ne pas le perdre. L'interruption
+     * reste signalée au thread dans les deux cas.
+     *
+     * @return le tuple reçu, null si l'attente a été annulée
+     */
+    Tuple await() {
+        boolean interrupted = false;
+        Tuple t;
+        while ((t = this.tuple) == null) {
+            LockSupport.park(this);
+            if (Thread.interrupted()) {
+                interrupted = true;
+                if (this.cancel()) {
+                    break;
+                }
+            }
+        }
+        if (interrupted) {
+            this.thread.interrupt();
+        }
+        return t;
+    }
+}
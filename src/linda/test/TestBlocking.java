@@ -0,0 +1,126 @@
+package linda.test;
+
+import java.util.concurrent.atomic.AtomicLong;
+import linda.Tuple;
+import linda.shm.CentralizedLinda;
+
+/**
+ * take bloquant sous concurrence, sur un espace partitionné. Toutes les
+ * attentes sont bornées : un réveil perdu fait échouer le test au lieu de le
+ * bloquer.
+ *
+ * @author Alexandra Jacquet
+ * @author Florian Vetu
+ */
+public class TestBlocking {
+
+    private static final int STRIPES = 8;
+    private static final int ROUNDS = 200000;
+    private static final int PAIRS = 4;
+    private static final int PER_PRODUCER = 50000;
+    /**
+     * Attente maximale d'un take, en millisecondes
+     */
+    private static final long TIMEOUT = 5000;
+
+    public static void main(String[] a) throws InterruptedException {
+        // ---------- test 1 : ping-pong avec un thread écho -----------
+        System.out.println("---------- test1 ping-pong ----------");
+        check("test1 ping-pong", pingPong(new Tuple("pong", 1)));
+
+        // ---------- test 2 : ping-pong, pong attendu sans valeur -----------
+        System.out.println("---------- test2 ping-pong sans valeur ----------");
+        check("test2 ping-pong sans valeur", pingPong(new Tuple(String.class, 1)));
+
+        // ---------- test 3 : producteurs et consommateurs sans valeur -----------
+        System.out.println("---------- test3 producteurs/consommateurs ----------");
+        check("test3 producteurs/consommateurs", producersConsumers());
+        System.exit(0);
+    }
+
+    /**
+     * Joue {@link #ROUNDS} allers-retours avec un thread écho.
+     *
+     * @param pong le template du pong attendu
+     * @return vrai si aucun pong n'a manqué
+     */
+    private static boolean pingPong(Tuple pong) throws InterruptedException {
+        final CentralizedLinda linda = new CentralizedLinda(STRIPES);
+        final Tuple ping = new Tuple("ping", 1);
+        Thread echo = new Thread() {
+            @Override
+            public void run() {
+                for (int i = 0; i < ROUNDS; i++) {
+                    if (linda.take(ping, TIMEOUT) == null) {
+                        return;
+                    }
+                    linda.write(new Tuple("pong", 1));
+                }
+            }
+        };
+        echo.start();
+        long start = System.nanoTime();
+        boolean ok = true;
+        for (int i = 0; i < ROUNDS && ok; i++) {
+            linda.write(ping);
+            ok = linda.take(pong, TIMEOUT) != null;
+        }
+        echo.join();
+        System.out.println(ROUNDS + " allers-retours en " + (System.nanoTime() - start) / 1000000 + " ms");
+        return ok;
+    }
+
+    /**
+     * {@link #PAIRS} producteurs écrivent des tuples <code>[ i%4 n ]</code>,
+     * numérotés de 0 à N-1, que {@link #PAIRS} consommateurs prennent avec un
+     * template sans valeur : les tuples sont répartis dans toutes les
+     * partitions.
+     *
+     * @return vrai si chaque tuple a été pris exactement une fois
+     */
+    private static boolean producersConsumers() throws InterruptedException {
+        final CentralizedLinda linda = new CentralizedLinda(STRIPES);
+        final AtomicLong sum = new AtomicLong();
+        final AtomicLong missed = new AtomicLong();
+        Thread[] threads = new Thread[2 * PAIRS];
+        for (int p = 0; p < PAIRS; p++) {
+            final int base = p * PER_PRODUCER;
+            threads[p] = new Thread() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < PER_PRODUCER; i++) {
+                        linda.write(new Tuple(i % 4, base + i));
+                    }
+                }
+            };
+            threads[PAIRS + p] = new Thread() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < PER_PRODUCER; i++) {
+                        Tuple t = linda.take(new Tuple(Integer.class, Integer.class), TIMEOUT);
+                        if (t == null) {
+                            missed.incrementAndGet();
+                            return;
+                        }
+                        sum.addAndGet((Integer) t.get(1));
+                    }
+                }
+            };
+        }
+        long start = System.nanoTime();
+        for (Thread t : threads) {
+            t.start();
+        }
+        for (Thread t : threads) {
+            t.join();
+        }
+        System.out.println(PAIRS + "x" + PAIRS + " threads en " + (System.nanoTime() - start) / 1000000 + " ms");
+        long n = (long) PAIRS * PER_PRODUCER;
+        return missed.get() == 0 && sum.get() == n * (n - 1) / 2
+                && linda.tryTake(new Tuple(Integer.class, Integer.class)) == null;
+    }
+
+    private static void check(String test, boolean ok) {
+        System.out.println(test + (ok ? " OK" : " FAILED"));
+    }
+}
@@ -0,0 +1,191 @@
+package linda.test;
+
+import java.rmi.RemoteException;
+import java.util.Arrays;
+import java.util.Collection;
+import linda.CapacityExceededException;
+import linda.Tuple;
+import linda.server.LindaClient;
+import linda.server.LindaServer;
+import linda.shm.Capacity;
+import linda.shm.CentralizedLinda;
+
+/**
+ * Espaces limités, avec chacune des politiques de {@link Capacity} : rejet,
+ * éviction du plus ancien tuple, attente d'une place. Les deux derniers tests
+ * passent par un serveur sur le port 8097.
+ *
+ * @author Alexandra Jacquet
+ * @author Florian Vetu
+ */
+public class TestCapacity {
+
+    private static final int PORT = 8097;
+
+    public static void main(String[] a) throws RemoteException, InterruptedException {
+        // ---------- test 1 : REJECT -----------
+        System.out.println("---------- test1 reject ----------");
+        CentralizedLinda linda = new CentralizedLinda(4, new Capacity(Capacity.Policy.REJECT, 3));
+        for (int i = 0; i < 3; i++) {
+            linda.write(new Tuple("a", i));
+        }
+        boolean rejected = false;
+        try {
+            linda.write(new Tuple("a", 9));
+        } catch (CapacityExceededException ex) {
+            rejected = ex.getWritten() == 0;
+        }
+        linda.take(new Tuple("a", 0));
+        linda.write(new Tuple("a", 9));
+        check("test1 reject", rejected && linda.readAll(new Tuple("a", Integer.class)).size() == 3);
+
+        // ---------- test 2 : un write consommé par un take en attente passe -----------
+        System.out.println("---------- test2 take en attente ----------");
+        final CentralizedLinda full = linda;
+        Thread taker = new Thread() {
+            @Override
+            public void run() {
+                full.take(new Tuple("b"));
+            }
+        };
+        taker.start();
+        Thread.sleep(100);
+        linda.write(new Tuple("b"));
+        taker.join(1000);
+        check("test2 take en attente", !taker.isAlive());
+
+        // ---------- test 3 : writeAll rejeté en cours de lot -----------
+        System.out.println("---------- test3 writeAll ----------");
+        linda.takeAll(new Tuple("a", Integer.class));
+        int written = -1;
+        try {
+            linda.writeAll(Arrays.asList(new Tuple("c", 1), new Tuple("c", 2), new Tuple("c", 3), new Tuple("c", 4)));
+        } catch (CapacityExceededException ex) {
+            written = ex.getWritten();
+        }
+        check("test3 writeAll", written == 3 && linda.readAll(new Tuple("c", Integer.class)).size() == 3
+                && linda.tryRead(new Tuple("c", 4)) == null);
+
+        // ---------- test 4 : EVICT_OLDEST par famille -----------
+        System.out.println("---------- test4 evict famille ----------");
+        linda = new CentralizedLinda(4, new Capacity(Capacity.Policy.EVICT_OLDEST, Long.MAX_VALUE)
+                .limit(new Tuple("status", Integer.class), 2));
+        for (int i = 0; i < 5; i++) {
+            linda.write(new Tuple("status", i));
+            linda.write(new Tuple("other", i));
+        }
+        Collection<Tuple> status = linda.readAll(new Tuple("status", Integer.class));
+        check("test4 evict famille", status.size() == 2 && status.contains(new Tuple("status", 3))
+                && status.contains(new Tuple("status", 4))
+                && linda.readAll(new Tuple("other", Integer.class)).size() == 5);
+
+        // ---------- test 5 : EVICT_OLDEST global -----------
+        System.out.println("---------- test5 evict global ----------");
+        linda = new CentralizedLinda(1, new Capacity(Capacity.Policy.EVICT_OLDEST, 3));
+        for (int i = 0; i < 6; i++) {
+            linda.write(new Tuple("s", i));
+        }
+        boolean kept = linda.readAll(new Tuple("s", Integer.class)).size() == 3 && linda.tryRead(new Tuple("s", 5)) != null;
+        // aucun tuple de sa famille à évincer : rejeté
+        rejected = false;
+        try {
+            linda.write(new Tuple("new"));
+        } catch (CapacityExceededException ex) {
+            rejected = true;
+        }
+        check("test5 evict global", kept && rejected);
+
+        // ---------- test 6 : BLOCK, producteur et consommateur -----------
+        System.out.println("---------- test6 block ----------");
+        final CentralizedLinda bounded = new CentralizedLinda(4, new Capacity(Capacity.Policy.BLOCK, 100));
+        final int n = 50000;
+        Thread producer = new Thread() {
+            @Override
+            public void run() {
+                for (int i = 0; i < n; i++) {
+                    bounded.write(new Tuple("p", i));
+                }
+            }
+        };
+        producer.start();
+        int got = 0;
+        long max = 0;
+        while (got < n) {
+            got += bounded.takeN(new Tuple("p", Integer.class), 50).size();
+            max = Math.max(max, bounded.metrics().getTupleCount());
+        }
+        producer.join();
+        check("test6 block", max <= 100);
+
+        // ---------- test 7 : BLOCK, réveil par un takeAll -----------
+        System.out.println("---------- test7 block takeAll ----------");
+        final CentralizedLinda small = new CentralizedLinda(1, new Capacity(Capacity.Policy.BLOCK, 2));
+        small.write(new Tuple(1));
+        small.write(new Tuple(2));
+        Thread writer = new Thread() {
+            @Override
+            public void run() {
+                small.write(new Tuple(3));
+            }
+        };
+        writer.start();
+        Thread.sleep(100);
+        boolean blocked = writer.isAlive();
+        small.takeAll(new Tuple(Integer.class));
+        writer.join(1000);
+        check("test7 block takeAll", blocked && !writer.isAlive());
+
+        // ---------- test 8 : REJECT à distance, client pipeliné -----------
+        System.out.println("---------- test8 reject client pipeliné ----------");
+        System.setProperty("linda.capacity", "2");
+        System.setProperty("linda.capacity.policy", "reject");
+        LindaServer.start(PORT, "linda");
+        LindaClient client = new LindaClient("rmi://127.0.0.1:" + PORT + "/linda", 100, 1000);
+        for (int i = 1; i <= 4; i++) {
+            client.write(new Tuple(i));
+        }
+        written = -1;
+        try {
+            client.flush();
+        } catch (CapacityExceededException ex) {
+            written = ex.getWritten();
+        }
+        // le tuple rejeté est abandonné, le suivant reste en attente : toute
+        // opération du client pipeliné l'enverrait, la place est faite par un
+        // autre client
+        LindaClient other = new LindaClient("rmi://127.0.0.1:" + PORT + "/linda");
+        other.take(new Tuple(1));
+        boolean sent = client.flush();
+        check("test8 reject client pipeliné", written == 2 && sent && other.tryRead(new Tuple(3)) == null
+                && other.tryRead(new Tuple(4)) != null);
+
+        // ---------- test 9 : rejets rendus au writeAll qui les cause -----------
+        System.out.println("---------- test9 rejet au bon appelant ----------");
+        other.takeAll(new Tuple(Integer.class));
+        client.write(new Tuple(5));
+        client.write(new Tuple(6));
+        client.write(new Tuple(7));
+        // le rejet de [ 7 ] est journalisé, pas rendu au readAll qui l'envoie
+        Collection<Tuple> read = null;
+        try {
+            read = client.readAll(new Tuple(Integer.class));
+        } catch (CapacityExceededException ex) {
+            // read reste null
+        }
+        other.take(new Tuple(5));
+        written = -1;
+        try {
+            client.writeAll(Arrays.asList(new Tuple(8), new Tuple(9)));
+        } catch (CapacityExceededException ex) {
+            written = ex.getWritten();
+        }
+        check("test9 rejet au bon appelant", read != null && read.size() == 2 && written == 1
+                && other.tryRead(new Tuple(8)) != null && other.tryRead(new Tuple(9)) == null);
+        client.close();
+        System.exit(0);
+    }
+
+    private static void check(String test, boolean ok) {
+        System.out.println(test + (ok ? " OK" : " FAILED"));
+    }
+}
@@ -0,0 +1,148 @@
+package linda.test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Collection;
+import linda.Tuple;
+import linda.shm.CentralizedLinda;
+import linda.shm.Journal;
+
+/**
+ * Reprise d'un espace persistant depuis son journal : l'espace est fermé,
+ * les fichiers éventuellement abîmés, puis l'espace est rouvert sur le même
+ * répertoire. Chaque test utilise un répertoire temporaire.
+ *
+ * @author Alexandra Jacquet
+ * @author Florian Vetu
+ */
+public class TestJournal {
+
+    private static final Tuple ALL = new Tuple(String.class, Integer.class);
+
+    public static void main(String[] a) throws IOException {
+        // ---------- test 1 : write et take, politique COMMIT -----------
+        System.out.println("---------- test1 commit ----------");
+        Path dir = Files.createTempDirectory("linda-journal");
+        Journal journal = new Journal(dir);
+        CentralizedLinda linda = new CentralizedLinda(4, journal);
+        for (int i = 0; i < 100; i++) {
+            linda.write(new Tuple("k", i));
+        }
+        for (int i = 0; i < 30; i++) {
+            linda.take(new Tuple("k", i));
+        }
+        journal.close();
+        journal = new Journal(dir);
+        linda = new CentralizedLinda(4, journal);
+        Collection<Tuple> all = linda.readAll(ALL);
+        check("test1 commit", all.size() == 70 && linda.tryRead(new Tuple("k", 29)) == null
+                && linda.tryRead(new Tuple("k", 30)) != null);
+
+        // ---------- test 2 : enregistrement incomplet en fin de journal -----------
+        System.out.println("---------- test2 fin incomplète ----------");
+        journal.close();
+        Path log = last(dir, "log-");
+        // en-tête d'un enregistrement de 100 octets, dont 10 seulement sont écrits
+        ByteBuffer torn = ByteBuffer.allocate(19);
+        torn.put((byte) 1).putInt(100).putInt(0).put(new byte[10]).flip();
+        Files.write(log, torn.array(), StandardOpenOption.APPEND);
+        journal = new Journal(dir);
+        linda = new CentralizedLinda(4, journal);
+        boolean recovered = linda.readAll(ALL).size() == 70;
+        // les ajouts suivants vont dans un nouveau journal, pas après la fin abîmée
+        linda.write(new Tuple("k", 100));
+        journal.close();
+        journal = new Journal(dir);
+        linda = new CentralizedLinda(4, journal);
+        check("test2 fin incomplète", recovered && !last(dir, "log-").equals(log)
+                && linda.readAll(ALL).size() == 71);
+        journal.close();
+        delete(dir);
+
+        // ---------- test 3 : enregistrement corrompu -----------
+        System.out.println("---------- test3 CRC ----------");
+        dir = Files.createTempDirectory("linda-journal");
+        journal = new Journal(dir);
+        linda = new CentralizedLinda(1, journal);
+        linda.write(new Tuple("a", 1));
+        linda.write(new Tuple("b", 2));
+        linda.write(new Tuple("c", 3));
+        journal.close();
+        log = last(dir, "log-");
+        byte[] bytes = Files.readAllBytes(log);
+        // type, longueur, CRC puis contenu : un octet du contenu du deuxième
+        // enregistrement est modifié
+        int second = 9 + ByteBuffer.wrap(bytes, 1, 4).getInt();
+        bytes[second + 9] ^= 0x55;
+        Files.write(log, bytes);
+        journal = new Journal(dir);
+        linda = new CentralizedLinda(1, journal);
+        check("test3 CRC", linda.readAll(ALL).size() == 1 && linda.tryRead(new Tuple("a", 1)) != null);
+        journal.close();
+        delete(dir);
+
+        // ---------- test 4 : instantané et rotation -----------
+        System.out.println("---------- test4 instantané ----------");
+        dir = Files.createTempDirectory("linda-journal");
+        journal = new Journal(dir);
+        linda = new CentralizedLinda(4, journal);
+        for (int i = 0; i < 50; i++) {
+            linda.write(new Tuple("k", i));
+        }
+        Path before = last(dir, "log-");
+        linda.checkpoint();
+        boolean rotated = last(dir, "snapshot-") != null && !Files.exists(before);
+        for (int i = 50; i < 60; i++) {
+            linda.write(new Tuple("k", i));
+        }
+        for (int i = 0; i < 5; i++) {
+            linda.take(new Tuple("k", i));
+        }
+        journal.close();
+        journal = new Journal(dir);
+        linda = new CentralizedLinda(4, journal);
+        check("test4 instantané", rotated && linda.readAll(ALL).size() == 55
+                && linda.tryRead(new Tuple("k", 4)) == null && linda.tryRead(new Tuple("k", 59)) != null);
+        journal.close();
+        delete(dir);
+        System.exit(0);
+    }
+
+    /**
+     * @param dir le répertoire du journal
+     * @param prefix "log-" ou "snapshot-"
+     * @return le fichier de ce préfixe de plus grand numéro, null si aucun
+     */
+    private static Path last(Path dir, String prefix) throws IOException {
+        Path last = null;
+        long max = -1;
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir, prefix + "*.bin")) {
+            for (Path p : stream) {
+                String name = p.getFileName().toString();
+                long n = Long.parseLong(name.substring(prefix.length(), name.length() - 4));
+                if (n > max) {
+                    max = n;
+                    last = p;
+                }
+            }
+        }
+        return last;
+    }
+
+    private static void delete(Path dir) throws IOException {
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir)) {
+            for (Path p : stream) {
+                Files.delete(p);
+            }
+        }
+        Files.delete(dir);
+    }
+
+    private static void check(String test, boolean ok) {
+        System.out.println(test + (ok ? " OK" : " FAILED"));
+    }
+}
@@ -0,0 +1,115 @@
+package linda.test;
+
+import java.util.concurrent.CompletableFuture;
+import linda.Callback;
+import linda.Cursor;
+import linda.Linda.eventMode;
+import linda.Linda.eventTiming;
+import linda.Tuple;
+import linda.shm.Capacity;
+import linda.shm.CentralizedLinda;
+
+/**
+ * Tuples à bail : invisibles dès leur échéance, et enlevés de la mémoire
+ * par la roue d'expiration au plus tard un top (10 ms) après, y compris
+ * quand ils sont redistribués depuis un niveau supérieur de la roue. Un
+ * tuple à bail pris par un take annulé et remis en mémoire garde son bail,
+ * et un tuple remis après son échéance ne garde pas sa place.
+ *
+ * @author Alexandra Jacquet
+ * @author Florian Vetu
+ */
+public class TestLease {
+
+    /**
+     * Retard toléré sur l'enlèvement d'un tuple échu, en millisecondes : un
+     * top et la latence de réveil du thread d'expiration
+     */
+    private static final long SLACK = 50;
+
+    public static void main(String[] a) throws InterruptedException {
+        // ---------- test 1 : bail court -----------
+        System.out.println("---------- test1 bail court ----------");
+        CentralizedLinda linda = new CentralizedLinda(4);
+        linda.write(new Tuple("status", 1), 100);
+        linda.write(new Tuple("status", 1));
+        boolean visible = linda.readAll(new Tuple("status", Integer.class)).size() == 2;
+        Thread.sleep(100 + SLACK);
+        check("test1 bail court", visible && linda.readAll(new Tuple("status", Integer.class)).size() == 1
+                && linda.metrics().getTupleCount() == 1);
+
+        // ---------- test 2 : un tuple échu n'est jamais pris -----------
+        System.out.println("---------- test2 take ----------");
+        linda.write(new Tuple("x", 1), 50);
+        Thread.sleep(60);
+        check("test2 take", linda.take(new Tuple("x", Integer.class), 100) == null);
+
+        // ---------- test 3 : échéance redistribuée depuis le niveau 1 -----------
+        System.out.println("---------- test3 redistribution ----------");
+        // roue neuve : 2550 ms tombent sur le top 256, le premier du niveau 1
+        linda = new CentralizedLinda(1);
+        long start = System.nanoTime();
+        linda.write(new Tuple("far", 1), 2550);
+        Thread.sleep(2500);
+        visible = linda.tryRead(new Tuple("far", 1)) != null;
+        while (linda.metrics().getTupleCount() > 0 && System.nanoTime() - start < 5000000000L) {
+            Thread.sleep(1);
+        }
+        long late = (System.nanoTime() - start) / 1000000 - 2550;
+        System.out.println("enlevé " + late + " ms après l'échéance");
+        check("test3 redistribution", visible && late < SLACK);
+
+        // ---------- test 4 : expiration en masse -----------
+        System.out.println("---------- test4 masse ----------");
+        linda = new CentralizedLinda(4);
+        for (int i = 0; i < 100000; i++) {
+            linda.write(new Tuple("s" + (i % 10), i), 200 + (i % 300));
+        }
+        Thread.sleep(500 + SLACK);
+        check("test4 masse", linda.metrics().getTupleCount() == 0
+                && linda.readAll(new Tuple(String.class, Integer.class)).isEmpty());
+
+        // ---------- test 5 : bail long -----------
+        System.out.println("---------- test5 bail long ----------");
+        linda.write(new Tuple("long"), 100000);
+        Thread.sleep(50);
+        check("test5 bail long", linda.tryRead(new Tuple("long")) != null);
+
+        // ---------- test 6 : take annulé pendant un write à bail -----------
+        System.out.println("---------- test6 take annulé ----------");
+        linda = new CentralizedLinda(4);
+        final CompletableFuture<Tuple> take = linda.takeAsync(new Tuple("race", 1));
+        // les callbacks des read déclenchés par un write sont appelés avant
+        // celui du take : le take est annulé après avoir pris le tuple, et
+        // avant de le recevoir
+        linda.eventRegister(eventMode.READ, eventTiming.FUTURE, new Tuple("race", 1), new Callback() {
+            @Override
+            public void call(Tuple t) {
+                take.cancel(false);
+            }
+        });
+        linda.write(new Tuple("race", 1), 100);
+        boolean back = take.isCancelled() && linda.tryRead(new Tuple("race", 1)) != null;
+        Thread.sleep(100 + SLACK);
+        check("test6 take annulé", back && linda.metrics().getTupleCount() == 0
+                && linda.tryRead(new Tuple("race", 1)) == null);
+
+        // ---------- test 7 : curseur fermé après l'échéance -----------
+        System.out.println("---------- test7 remis après l'échéance ----------");
+        linda = new CentralizedLinda(1, new Capacity(Capacity.Policy.REJECT, 1));
+        linda.write(new Tuple("page", 1), 50);
+        Cursor cursor = linda.takeAllCursor(new Tuple("page", Integer.class));
+        boolean taken = cursor.hasNext();
+        // la case du tuple est traitée pendant qu'il est hors de la mémoire
+        Thread.sleep(50 + SLACK);
+        cursor.close();
+        // sa place est libre
+        linda.write(new Tuple("page", 2));
+        check("test7 remis après l'échéance", taken && linda.metrics().getTupleCount() == 1);
+        System.exit(0);
+    }
+
+    private static void check(String test, boolean ok) {
+        System.out.println(test + (ok ? " OK" : " FAILED"));
+    }
+}
@@ -0,0 +1,109 @@
+package linda.test;
+
+import java.io.Serializable;
+import java.util.Random;
+import linda.CompactTuple;
+import linda.Tuple;
+import linda.shm.Matcher;
+
+/**
+ * Comparaison aléatoire de {@link Matcher} avec {@link Tuple#matches(Tuple)},
+ * sur des tuples et des templates tirés au hasard : valeurs, classes, tuples
+ * imbriqués et templates imbriqués. La graine est fixe, ou donnée en
+ * argument.
+ *
+ * @author Alexandra Jacquet
+ * @author Florian Vetu
+ */
+public class TestMatcher {
+
+    private static final int PAIRS = 500000;
+
+    private static Random random;
+
+    public static void main(String[] a) {
+        random = new Random(a.length > 0 ? Long.parseLong(a[0]) : 1);
+        int hits = 0;
+        for (int i = 0; i < PAIRS; i++) {
+            Tuple t = tuple(0, false);
+            Tuple template = tuple(0, true);
+            boolean expected = t.matches(template);
+            Matcher matcher = Matcher.compile(template);
+            if (expected != matcher.matches(CompactTuple.of(t)) || expected != matcher.matches(t)) {
+                System.out.println("différence : " + t + " " + template + " attendu " + expected);
+                check("matcher", false);
+                System.exit(1);
+            }
+            if (expected) {
+                hits++;
+            }
+        }
+        System.out.println(PAIRS + " paires, " + hits + " correspondances");
+        check("matcher", true);
+    }
+
+    /**
+     * Tire un tuple ou un template d'au plus deux composants.
+     *
+     * @param depth la profondeur d'imbrication
+     * @param template vrai pour un template
+     */
+    private static Tuple tuple(int depth, boolean template) {
+        Tuple t = new Tuple();
+        int n = random.nextInt(3);
+        for (int i = 0; i < n; i++) {
+            t.add(template ? templateField(depth) : field(depth));
+        }
+        return t;
+    }
+
+    /**
+     * Tire un composant de tuple : une valeur, une classe ou, en surface, un
+     * tuple imbriqué.
+     */
+    private static Serializable field(int depth) {
+        switch (random.nextInt(depth > 1 ? 5 : 6)) {
+            case 0:
+                return random.nextInt(3);
+            case 1:
+                return "s" + random.nextInt(2);
+            case 2:
+                return random.nextBoolean();
+            case 3:
+                return Integer.class;
+            case 4:
+                return String.class;
+            default:
+                return tuple(depth + 1, false);
+        }
+    }
+
+    /**
+     * Tire un composant de template : une classe, un template imbriqué ou
+     * une valeur.
+     */
+    private static Serializable templateField(int depth) {
+        switch (random.nextInt(8)) {
+            case 0:
+                return Integer.class;
+            case 1:
+                return String.class;
+            case 2:
+                return Serializable.class;
+            case 3:
+                return Object.class;
+            case 4:
+                return Tuple.class;
+            case 5:
+                return Class.class;
+            case 6:
+                return depth < 2 ? tuple(depth + 1, true) : 1;
+            default:
+                return field(2);
+        }
+    }
+
+    private static void check(String test, boolean ok) {
+        System.out.println(test + (ok ? " OK" : " FAILED"));
+    }
+}
@@ -0,0 +1,139 @@
+package linda.test;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.Random;
+import linda.CompactTuple;
+import linda.Tuple;
+import linda.shm.CentralizedLinda;
+import linda.shm.Matcher;
+import linda.shm.OffHeapStore;
+import linda.shm.TupleStore;
+
+/**
+ * Comparaison aléatoire de {@link OffHeapStore} avec {@link TupleStore} :
+ * les mêmes ajouts, take, takeN et findAll sont appliqués aux deux, avec de
+ * petits segments pour que leur réutilisation soit exercée, et doivent
+ * rendre les mêmes tuples. Puis mesure du tas occupé par un espace de
+ * <code>n</code> tuples (200 000 par défaut, premier argument) dans chacune
+ * des deux mémoires.
+ *
+ * @author Alexandra Jacquet
+ * @author Florian Vetu
+ */
+public class TestOffHeap {
+
+    private static final int STEPS = 300000;
+
+    public static void main(String[] a) throws IOException {
+        // ---------- test 1 : mêmes résultats que TupleStore -----------
+        System.out.println("---------- test1 comparaison ----------");
+        Path dir = Files.createTempDirectory("linda-offheap");
+        OffHeapStore off = new OffHeapStore(dir, 4096);
+        TupleStore on = new TupleStore();
+        Random random = new Random(1);
+        int step = 0;
+        for (; step < STEPS; step++) {
+            int op = random.nextInt(10);
+            Serializable key = random.nextBoolean() ? (Serializable) ("s" + random.nextInt(5)) : (Serializable) random.nextInt(5);
+            int value = random.nextInt(20);
+            if (op < 5) {
+                CompactTuple t = CompactTuple.of(new Tuple(key, value, pad(random.nextInt(10))));
+                off.add(t);
+                on.add(t);
+            } else {
+                Tuple template;
+                switch (random.nextInt(4)) {
+                    case 0:
+                        template = new Tuple(key, value, String.class);
+                        break;
+                    case 1:
+                        template = new Tuple(Object.class, value, String.class);
+                        break;
+                    case 2:
+                        template = new Tuple(key, Integer.class, String.class);
+                        break;
+                    default:
+                        template = new Tuple(String.class, Integer.class, String.class);
+                }
+                Matcher matcher = Matcher.compile(template);
+                Object x;
+                Object y;
+                if (op < 8) {
+                    x = off.take(matcher);
+                    y = on.take(matcher);
+                } else if (op < 9) {
+                    List<CompactTuple> l1 = new ArrayList<>();
+                    List<CompactTuple> l2 = new ArrayList<>();
+                    off.take(matcher, 3, l1);
+                    on.take(matcher, 3, l2);
+                    x = l1;
+                    y = l2;
+                } else {
+                    x = off.findAll(matcher);
+                    y = on.findAll(matcher);
+                }
+                if (!Objects.equals(x, y)) {
+                    System.out.println("différence à l'étape " + step + " : " + x + " / " + y);
+                    break;
+                }
+            }
+            if (off.size() != on.size()) {
+                System.out.println("tailles différentes à l'étape " + step);
+                break;
+            }
+        }
+        off.close();
+        Files.deleteIfExists(dir);
+        check("test1 comparaison", step == STEPS);
+
+        // ---------- test 2 : tas occupé -----------
+        System.out.println("---------- test2 tas ----------");
+        int n = a.length > 0 ? Integer.parseInt(a[0]) : 200000;
+        long heap = heap(new CentralizedLinda(4), n);
+        dir = Files.createTempDirectory("linda-offheap");
+        CentralizedLinda linda = new CentralizedLinda(4, null, dir);
+        long offHeap = heap(linda, n);
+        System.out.println(n + " tuples : " + heap / 1048576 + " Mo de tas en mémoire, "
+                + offHeap / 1048576 + " Mo hors du tas");
+        check("test2 tas", linda.metrics().getTupleCount() == n && offHeap < heap);
+        System.exit(0);
+    }
+
+    /**
+     * Remplit un espace et mesure le tas qu'il occupe.
+     *
+     * @param linda l'espace, vide
+     * @param n le nombre de tuples
+     * @return le tas occupé après un GC, en octets
+     */
+    private static long heap(CentralizedLinda linda, int n) {
+        Runtime runtime = Runtime.getRuntime();
+        System.gc();
+        long before = runtime.totalMemory() - runtime.freeMemory();
+        for (int i = 0; i < n; i++) {
+            linda.write(new Tuple("k" + (i % 1000), i, "payload"));
+        }
+        System.gc();
+        long used = runtime.totalMemory() - runtime.freeMemory() - before;
+        // l'espace reste atteignable jusqu'à la mesure
+        return linda.metrics().getTupleCount() == n ? used : -1;
+    }
+
+    private static String pad(int n) {
+        StringBuilder b = new StringBuilder();
+        for (int i = 0; i < n; i++) {
+            b.append("pad");
+        }
+        return b.toString();
+    }
+
+    private static void check(String test, boolean ok) {
+        System.out.println(test + (ok ? " OK" : " FAILED"));
+    }
+}
@@ -0,0 +1,147 @@
+package linda.test;
+
+import java.io.UncheckedIOException;
+import java.rmi.RemoteException;
+import java.rmi.server.UnicastRemoteObject;
+import java.util.Collection;
+import linda.Callback;
+import linda.Cursor;
+import linda.Linda.eventMode;
+import linda.Subscription;
+import linda.Tuple;
+import linda.server.LindaServer;
+import linda.server.ShardedLindaClient;
+
+/**
+ * Espace de tuples partagé entre trois serveurs de la même JVM, sur les ports
+ * 8091 à 8093, et utilisé par un {@link ShardedLindaClient}.
+ *
+ * @author Alexandra Jacquet
+ * @author Florian Vetu
+ */
+public class TestSharded {
+
+    private static final int SHARDS = 3;
+    private static final int FIRST_PORT = 8091;
+
+    public static void main(String[] a) throws RemoteException, InterruptedException {
+        LindaServer[] servers = new LindaServer[SHARDS];
+        String[] uris = new String[SHARDS];
+        for (int i = 0; i < SHARDS; i++) {
+            servers[i] = LindaServer.start(FIRST_PORT + i, "linda");
+            uris[i] = "rmi://127.0.0.1:" + (FIRST_PORT + i) + "/linda";
+        }
+        final ShardedLindaClient linda = new ShardedLindaClient(uris);
+
+        // ---------- test 1 : répartition des write -----------
+        System.out.println("---------- test1 write ----------");
+        for (int i = 0; i < 30; i++) {
+            linda.write(new Tuple("k" + i, i));
+        }
+        long total = 0;
+        for (int i = 0; i < SHARDS; i++) {
+            long n = servers[i].linda.metrics().getTupleCount();
+            System.out.println("shard " + i + " : " + n + " tuples");
+            total += n;
+        }
+        check("test1 write", total == 30);
+
+        // ---------- test 2 : template à valeur, un seul shard -----------
+        System.out.println("---------- test2 read ----------");
+        Tuple t = linda.read(new Tuple("k7", Integer.class));
+        check("test2 read", t != null && t.get(1).equals(7));
+
+        // ---------- test 3 : template sans valeur, tous les shards -----------
+        System.out.println("---------- test3 readAll ----------");
+        Collection<Tuple> all = linda.readAll(new Tuple(String.class, Integer.class));
+        check("test3 readAll", all.size() == 30);
+
+        // ---------- test 4 : take bloquant sans valeur -----------
+        System.out.println("---------- test4 take ----------");
+        new Thread() {
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep(200);
+                } catch (InterruptedException e) {
+                }
+                linda.write(new Tuple(42, "late"));
+            }
+        }.start();
+        t = linda.take(new Tuple(Integer.class, String.class));
+        check("test4 take", t != null && t.get(1).equals("late"));
+        Thread.sleep(200);
+        check("test4 take once", linda.tryRead(new Tuple(Integer.class, String.class)) == null);
+
+        // ---------- test 5 : abonnement sans valeur -----------
+        System.out.println("---------- test5 subscribe ----------");
+        final int[] got = new int[1];
+        Subscription sub = linda.subscribe(eventMode.READ, new Tuple(Boolean.class), new Callback() {
+            @Override
+            public void call(Tuple t) {
+                synchronized (got) {
+                    got[0]++;
+                }
+            }
+        });
+        linda.write(new Tuple(true));
+        linda.write(new Tuple(false));
+        Thread.sleep(500);
+        sub.cancel();
+        synchronized (got) {
+            check("test5 subscribe", got[0] == 2);
+        }
+
+        // ---------- test 6 : takeAll sans valeur -----------
+        System.out.println("---------- test6 takeAll ----------");
+        all = linda.takeAll(new Tuple(String.class, Integer.class));
+        check("test6 takeAll", all.size() == 30 && linda.tryTake(new Tuple("k3", 3)) == null);
+
+        // ---------- test 7 : take borné sans valeur -----------
+        System.out.println("---------- test7 take timeout ----------");
+        check("test7 take timeout", linda.take(new Tuple(Character.class), 100) == null);
+
+        // ---------- test 8 : curseur readAll sur tous les shards -----------
+        System.out.println("---------- test8 readAllCursor ----------");
+        for (int i = 0; i < 20; i++) {
+            linda.write(new Tuple("c" + i, i));
+        }
+        int n = 0;
+        Cursor cursor = linda.readAllCursor(new Tuple(String.class, Integer.class));
+        while (cursor.hasNext()) {
+            cursor.next();
+            n++;
+        }
+        check("test8 readAllCursor", n == 20);
+
+        // ---------- test 9 : curseur takeAll fermé en cours de page -----------
+        System.out.println("---------- test9 takeAllCursor ----------");
+        cursor = linda.takeAllCursor(new Tuple(String.class, Integer.class));
+        for (int i = 0; i < 5; i++) {
+            cursor.next();
+        }
+        // les tuples pris et non livrés sont réécrits par le serveur
+        cursor.close();
+        check("test9 takeAllCursor", linda.readAll(new Tuple(String.class, Integer.class)).size() == 15);
+
+        linda.debug("end");
+
+        // ---------- test 10 : ouverture d'un curseur sur un shard arrêté -----------
+        System.out.println("---------- test10 curseur, shard arrêté ----------");
+        for (LindaServer server : servers) {
+            UnicastRemoteObject.unexportObject(server, true);
+        }
+        boolean failed = false;
+        try {
+            linda.readAllCursor(new Tuple("c1", Integer.class));
+        } catch (UncheckedIOException ex) {
+            failed = true;
+        }
+        check("test10 curseur, shard arrêté", failed);
+        System.exit(0);
+    }
+
+    private static void check(String test, boolean ok) {
+        System.out.println(test + (ok ? " OK" : " FAILED"));
+    }
+}
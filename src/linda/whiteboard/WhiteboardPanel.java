@@ -12,7 +12,6 @@ import java.util.*;
 
 import linda.*;
 import linda.Linda.eventMode;
-import linda.Linda.eventTiming;
 
 /**
  ** The panel of the whiteboard.
@@ -82,8 +81,9 @@ public class WhiteboardPanel extends Panel
         this.linda = linda;
 
         // Create a template to indicate what we are interested in.
-        linda.eventRegister(eventMode.READ, eventTiming.FUTURE, motifErase, new CallbackErase());
-        linda.eventRegister(eventMode.READ, eventTiming.FUTURE, motifRectangle, new CallbackRectangle());
+        // The subscriptions stay active: no re-registration, no missed tuple.
+        linda.subscribe(eventMode.READ, motifErase, new CallbackErase());
+        linda.subscribe(eventMode.READ, motifRectangle, new CallbackRectangle());
 
 
         System.out.println("Scan for current status");
@@ -91,14 +91,20 @@ public class WhiteboardPanel extends Panel
         // Vectors stored at the lindaSpaces server.
         // create a template to indicate what we are interested in
         Tuple match = new Tuple(KEY_WHITEBOARD, CMD_RECTANGLE,	Rectangle.class, Color.class);
-        Collection<Tuple> tupleSet = linda.readAll(match);
-        for (Tuple t : tupleSet) {
-        	System.out.println("Tuple " + t);
-        	Rectangle line = (Rectangle)t.get(2);
-        	Color color = (Color)t.get(3);
-        	// add the line and color to the Vectors that we maintain.
-        	lines.add(line);
-        	colors.add(color);
+        // streamed page by page, so a large board is never held in a single response
+        linda.Cursor tupleSet = linda.readAllCursor(match);
+        try {
+        	while (tupleSet.hasNext()) {
+        		Tuple t = tupleSet.next();
+        		System.out.println("Tuple " + t);
+        		Rectangle line = (Rectangle)t.get(2);
+        		Color color = (Color)t.get(3);
+        		// add the line and color to the Vectors that we maintain.
+        		lines.add(line);
+        		colors.add(color);
+        	}
+        } finally {
+        	tupleSet.close();
         }
 
         //System.out.println("Now paint initial screen");
@@ -332,7 +338,6 @@ public class WhiteboardPanel extends Panel
 	        mode = -1;
 	        paint(getGraphics());
 	        setDrawMode(savemode);
-            linda.eventRegister(eventMode.READ, eventTiming.FUTURE, motifErase, this);
 		}	
     }
     
@@ -348,7 +353,6 @@ public class WhiteboardPanel extends Panel
             mode = -1;
             paint(getGraphics());
             setDrawMode(savemode);
-            linda.eventRegister(eventMode.READ, eventTiming.FUTURE, motifRectangle, this);
 		}
     }
 